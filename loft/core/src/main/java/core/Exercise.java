@@ -1,8 +1,13 @@
 package core;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * The Exercise class represents a single exercise in a workout routine. It
@@ -10,7 +15,14 @@ import java.util.List;
  * exercise and one that lets you specify the name and add an arbitrary number
  * of sets to the exercise.
  * <p>
- * The class contains two fields, one that holds a name and a list of sets.
+ * The class contains the name and the sets of the exercise. The reps and
+ * weights of the sets are stored in two growable int arrays instead of a list
+ * of set objects, so the aggregates are plain loops over the arrays. Set
+ * objects are only created when they are asked for, by {@link #getSets()}. The
+ * aggregates of the sets are kept up to date as sets are added, so asking for
+ * them does not scan the sets. The name is the shared {@link ExerciseName}, so
+ * it is only formatted the first time it is seen, and two names are compared by
+ * identity.
  * The class provides methods to add sets to the exercise, get the name of the
  * exercise, formats the name, get all sets in the exercise, calculate the total 
  * weight of all sets in the exercise, get the highest weight in the exercise,
@@ -21,8 +33,21 @@ import java.util.List;
  */
 public class Exercise {
 
-    private String name;
-    private List<Set> sets = new ArrayList<Set>();
+    private static final int[] NO_SETS = new int[0];
+
+    private ExerciseName name;
+    // The reps and weight of set i are reps[i] and weights[i], for i below size
+    private int[] reps = NO_SETS;
+    private int[] weights = NO_SETS;
+    private int size;
+    private int totalReps;
+    private int totalWeight;
+    private int localPr;
+    private int heaviestLiftedSet;
+    // The workout told about new sets, so it can keep its total weight up to
+    // date. Null if the exercise is in no workout or in more than one
+    private Workout workout;
+    private boolean inSeveralWorkouts;
 
     /**
      * Constructor for an exercise that only lets you specify the name.
@@ -31,10 +56,7 @@ public class Exercise {
      * @throws IllegalArgumentException if the name is null or empty
      */
     public Exercise(String name) {
-        if (name == null || name.isEmpty()) {
-            throw new IllegalArgumentException("Name cannot be null or empty");
-        }
-        this.name = formatName(name);
+        this.name = ExerciseName.of(name);
     }
 
     /**
@@ -43,39 +65,118 @@ public class Exercise {
      *
      * @param name the name of the exercise
      * @param sets the sets to add to the exercise
-     * @throws IllegalArgumentException if the name is null
+     * @throws IllegalArgumentException if the name is null or any of the sets is
+     *                                  null
      */
     public Exercise(String name, Set... sets) {
         this(name);
-        this.sets = new ArrayList<Set>(Arrays.asList(sets));
+        this.reps = new int[sets.length];
+        this.weights = new int[sets.length];
+        for (Set set : sets) {
+            addSet(set);
+        }
+    }
+
+    private Exercise() {
     }
 
     /**
-     * Converts a string to PascalCase format and removes all unnecessary
-     * whitespaces.
+     * Creates an exercise without sets with a name that is already in the shared
+     * dictionary of names, so it is not formatted again.
      *
-     * @param name the string to be converted
-     * @return the converted string in PascalCase format
+     * @param name the name of the exercise
+     * @return the exercise
      */
-    private static String formatName(String name) {
-        String[] words = name.split("\\s+");
-        StringBuilder sb = new StringBuilder();
-        for (String word : words) {
-            sb.append(Character.toUpperCase(word.charAt(0)));
-            sb.append(word.substring(1).toLowerCase());
-            sb.append(" ");
-        }
-        sb.deleteCharAt(sb.length() - 1);
-        return sb.toString();
+    static Exercise named(ExerciseName name) {
+        Exercise exercise = new Exercise();
+        exercise.name = name;
+        return exercise;
+    }
+
+    /**
+     * Creates an exercise without sets from stored data. The name is kept as it
+     * was stored, without formatting it, like for exercises read from json.
+     *
+     * @param name the stored name of the exercise
+     * @return the exercise
+     */
+    public static Exercise withStoredName(String name) {
+        return named(ExerciseName.intern(name));
     }
 
     /**
      * Adds a set to the exercise.
      *
      * @param set the set to add to the exercise
+     * @throws IllegalArgumentException if the set is null
      */
     public void addSet(Set set) {
-        sets.add(set);
+        if (set == null) {
+            throw new IllegalArgumentException("Set cannot be null");
+        }
+        addSet(set.getReps(), set.getWeight());
+    }
+
+    /**
+     * Adds a set with the given number of repetitions and weight to the exercise.
+     *
+     * @param reps   number of repetitions
+     * @param weight weight of the set
+     */
+    public void addSet(int reps, int weight) {
+        if (size == this.reps.length) {
+            int capacity = Math.max(4, size * 2);
+            this.reps = Arrays.copyOf(this.reps, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+        }
+        this.reps[size] = reps;
+        this.weights[size] = weight;
+        int liftedWeight = weight * reps;
+        if (size == 0) {
+            localPr = weight;
+            heaviestLiftedSet = liftedWeight;
+        } else {
+            localPr = Math.max(localPr, weight);
+            heaviestLiftedSet = Math.max(heaviestLiftedSet, liftedWeight);
+        }
+        totalReps += reps;
+        totalWeight += liftedWeight;
+        size++;
+        if (workout != null) {
+            workout.addToTotalWeight(liftedWeight);
+        }
+    }
+
+    /**
+     * Called when the exercise is added to a workout. An exercise in one workout
+     * tells it about new sets. An exercise in several workouts does not, and the
+     * workouts add up their total weight themselves instead.
+     *
+     * @param added the workout the exercise was added to
+     * @return true if the workout is told about new sets, false otherwise
+     */
+    boolean addedTo(Workout added) {
+        if (!inSeveralWorkouts && workout == null) {
+            workout = added;
+            return true;
+        }
+        if (workout != null) {
+            workout.stopTrackingTotalWeight();
+            workout = null;
+        }
+        inSeveralWorkouts = true;
+        return false;
+    }
+
+    /**
+     * Removes all sets, while the exercise is not in a workout.
+     */
+    private void clearSets() {
+        size = 0;
+        totalReps = 0;
+        totalWeight = 0;
+        localPr = 0;
+        heaviestLiftedSet = 0;
     }
 
     /**
@@ -84,6 +185,16 @@ public class Exercise {
      * @return the name of the exercise
      */
     public String getName() {
+        return name == null ? null : name.getName();
+    }
+
+    /**
+     * A method to get the name of the exercise from the shared dictionary of
+     * names, which can be compared by identity.
+     *
+     * @return the name of the exercise
+     */
+    public ExerciseName getExerciseName() {
         return name;
     }
 
@@ -93,19 +204,74 @@ public class Exercise {
      * @return A list of sets in the exercise
      */
     public List<Set> getSets() {
-        return new ArrayList<Set>(sets);
+        List<Set> sets = new ArrayList<Set>(size);
+        for (int i = 0; i < size; i++) {
+            sets.add(new Set(reps[i], weights[i]));
+        }
+        return sets;
     }
 
     /**
-     * Calculates the total weight of all sets in the exercise.
+     * Runs the action for every set in the exercise, in the order the sets were
+     * added, without creating any set objects.
+     *
+     * @param action the action to run with the reps and weight of every set
+     */
+    public void forEachSet(SetConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(reps[i], weights[i]);
+        }
+    }
+
+    /**
+     * A method to get the number of sets in the exercise.
+     *
+     * @return the number of sets in the exercise
+     */
+    public int getNumberOfSets() {
+        return size;
+    }
+
+    /**
+     * A method to get the number of repetitions in a set, without creating the
+     * set.
+     *
+     * @param index the index of the set, in the order the sets were added
+     * @return the number of repetitions in the set
+     * @throws IndexOutOfBoundsException if there is no set with the index
+     */
+    public int getReps(int index) {
+        Objects.checkIndex(index, size);
+        return reps[index];
+    }
+
+    /**
+     * A method to get the weight of a set, without creating the set.
+     *
+     * @param index the index of the set, in the order the sets were added
+     * @return the weight of the set
+     * @throws IndexOutOfBoundsException if there is no set with the index
+     */
+    public int getWeight(int index) {
+        Objects.checkIndex(index, size);
+        return weights[index];
+    }
+
+    /**
+     * Returns the total number of repetitions of all sets in the exercise.
+     *
+     * @return the total number of repetitions in the exercise
+     */
+    public int getTotalReps() {
+        return totalReps;
+    }
+
+    /**
+     * Returns the total weight of all sets in the exercise.
      *
      * @return the total weight of all sets in the exercise
      */
     public int getTotalWeight() {
-        int totalWeight = 0;
-        for (Set set : sets) {
-            totalWeight += set.getWeight() * set.getReps();
-        }
         return totalWeight;
     }
 
@@ -116,7 +282,7 @@ public class Exercise {
      * @return the highest weight in the exercise
      */
     public int getLocalPr() {
-        return sets.stream().mapToInt(s -> s.getWeight()).max().orElse(0);
+        return localPr;
     }
 
     /**
@@ -125,7 +291,7 @@ public class Exercise {
      * @return the heaviest lifted weight in a set in the exercise
      */
     public int getHeaviestLiftedSet() {
-        return sets.stream().mapToInt(s -> s.getWeight() * s.getReps()).max().orElse(0);
+        return heaviestLiftedSet;
     }
 
     /**
@@ -146,9 +312,14 @@ public class Exercise {
     @Override
     public int hashCode() {
         final int prime = 31;
+        // The same hashcode as a list of the sets
+        int setsHash = 1;
+        for (int i = 0; i < size; i++) {
+            setsHash = prime * setsHash + prime * (prime + reps[i]) + weights[i];
+        }
         int result = 1;
-        result = prime * result + name.hashCode();
-        result = prime * result + sets.hashCode();
+        result = prime * result + name.getName().hashCode();
+        result = prime * result + setsHash;
         return result;
     }
 
@@ -170,12 +341,78 @@ public class Exercise {
             return false;
         }
         Exercise other = (Exercise) obj;
-        if (!name.equals(other.getName())) {
+        if (name != other.name) {
             return false;
         }
-        if (!sets.equals(other.getSets())) {
-            return false;
+        return Arrays.equals(reps, 0, size, other.reps, 0, other.size)
+                && Arrays.equals(weights, 0, size, other.weights, 0, other.size);
+    }
+
+    /**
+     * An action on a set of an exercise, given as its number of repetitions and
+     * weight. Used by {@link Exercise#forEachSet(SetConsumer)}.
+     */
+    @FunctionalInterface
+    public interface SetConsumer {
+
+        /**
+         * Runs the action on a set.
+         *
+         * @param reps   number of repetitions in the set
+         * @param weight weight of the set
+         */
+        void accept(int reps, int weight);
+    }
+
+    /**
+     * Reads and writes exercises as json without reflection. The name is read as
+     * it is stored, without being formatted again, and the sets are written as a
+     * list of set objects like before. A null in the list of sets is skipped.
+     * Registered in {@link ModelGson}.
+     */
+    static final class JsonAdapter extends TypeAdapter<Exercise> {
+        private final TypeAdapter<Set> setAdapter;
+
+        JsonAdapter(TypeAdapter<Set> setAdapter) {
+            this.setAdapter = setAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Exercise exercise) throws IOException {
+            out.beginObject();
+            out.name("name").value(exercise.getName());
+            out.name("sets").beginArray();
+            for (int i = 0; i < exercise.size; i++) {
+                setAdapter.write(out, new Set(exercise.reps[i], exercise.weights[i]));
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public Exercise read(JsonReader in) throws IOException {
+            Exercise exercise = new Exercise();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals("name")) {
+                    exercise.name = ExerciseName.intern(ModelGson.readString(in));
+                } else if (field.equals("sets")) {
+                    List<Set> sets = ModelGson.readList(in, setAdapter);
+                    if (sets != null) {
+                        exercise.clearSets();
+                        for (Set set : sets) {
+                            if (set != null) {
+                                exercise.addSet(set);
+                            }
+                        }
+                    }
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return exercise;
         }
-        return true;
     }
 }
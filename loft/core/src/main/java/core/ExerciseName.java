@@ -0,0 +1,214 @@
+package core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ExerciseName class is the shared dictionary of exercise names. Every name
+ * is kept once, with a small int id, and every exercise with the same name
+ * refers to the same ExerciseName. Names can therefore be compared by identity
+ * and used as map keys without hashing or comparing strings.
+ * <p>
+ * {@link #of(String)} formats a name to PascalCase the first time it is seen,
+ * and remembers what every distinct input was formatted to, so each input is
+ * only formatted once. Names read from a data file are kept as they are stored,
+ * see {@link #intern(String)}.
+ * </p>
+ * <p>
+ * The dictionary is shared by all threads. It holds the names weakly, so a name
+ * no exercise refers to any more is dropped, and the dictionary only keeps the
+ * names in use even if a long running server sees many distinct names. A name
+ * that is dropped and seen again gets a new id. The inputs remembered by
+ * {@link #of(String)} are limited, see {@link #MAX_ALIASES}, since they come
+ * from users typing.
+ * </p>
+ */
+public final class ExerciseName {
+
+    // Every name in use, held weakly. Cleared references are queued, and removed
+    // the next time a name is interned
+    private static final Map<String, NameReference> NAMES =
+            new ConcurrentHashMap<String, NameReference>();
+    private static final ReferenceQueue<ExerciseName> CLEARED = new ReferenceQueue<ExerciseName>();
+    // What every input given to of() was formatted to
+    private static final Map<String, ExerciseName> ALIASES =
+            new ConcurrentHashMap<String, ExerciseName>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * The number of inputs {@link #of(String)} remembers. Inputs after that are
+     * formatted every time.
+     */
+    static final int MAX_ALIASES = 10_000;
+
+    private final int id;
+    private final String name;
+
+    private ExerciseName(String name) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.name = name;
+    }
+
+    /**
+     * Returns the shared exercise name for the given name, converted to
+     * PascalCase and with all unnecessary whitespaces removed.
+     *
+     * @param name the name of the exercise
+     * @return the shared exercise name
+     * @throws IllegalArgumentException if the name is null or empty
+     */
+    public static ExerciseName of(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Name cannot be null or empty");
+        }
+        ExerciseName known = ALIASES.get(name);
+        if (known != null) {
+            return known;
+        }
+        ExerciseName formatted = intern(formatName(name));
+        if (ALIASES.size() < MAX_ALIASES) {
+            ALIASES.putIfAbsent(name, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * Returns the shared exercise name for the given name as it is, without
+     * formatting it. Used for names read from a data file.
+     *
+     * @param name the name of the exercise
+     * @return the shared exercise name, or null if the name is null
+     */
+    static ExerciseName intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        removeCleared();
+        while (true) {
+            NameReference reference = NAMES.get(name);
+            ExerciseName known = reference == null ? null : reference.get();
+            if (known != null) {
+                return known;
+            }
+            ExerciseName created = new ExerciseName(name);
+            NameReference added = new NameReference(created);
+            // Another thread may have stored the name meanwhile, then its name is used
+            if (reference == null ? NAMES.putIfAbsent(name, added) == null
+                    : NAMES.replace(name, reference, added)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Returns the shared exercise name for the given name as it is, if any
+     * exercise has it. Unlike {@link #intern(String)}, the name is not added to
+     * the dictionary.
+     *
+     * @param name the name of the exercise
+     * @return the shared exercise name, or null if no exercise has the name
+     */
+    static ExerciseName find(String name) {
+        NameReference reference = name == null ? null : NAMES.get(name);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Removes the names that have been dropped by the garbage collector from the
+     * dictionary. A name that has been stored again meanwhile is kept.
+     */
+    private static void removeCleared() {
+        Reference<? extends ExerciseName> cleared;
+        while ((cleared = CLEARED.poll()) != null) {
+            NAMES.remove(((NameReference) cleared).name, cleared);
+        }
+    }
+
+    /**
+     * Converts a string to PascalCase format and removes all unnecessary
+     * whitespaces.
+     *
+     * @param name the string to be converted
+     * @return the converted string in PascalCase format
+     */
+    private static String formatName(String name) {
+        String[] words = name.split("\\s+");
+        StringBuilder sb = new StringBuilder();
+        for (String word : words) {
+            sb.append(Character.toUpperCase(word.charAt(0)));
+            sb.append(word.substring(1).toLowerCase());
+            sb.append(" ");
+        }
+        sb.deleteCharAt(sb.length() - 1);
+        return sb.toString();
+    }
+
+    /**
+     * A method to get the id of the name. The ids are given out in the order the
+     * names are first seen, starting at 0, and are only valid while the program
+     * runs and the name is in use.
+     *
+     * @return the id of the name
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * A method to get the name as a string.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * A toString that returns the name.
+     *
+     * @return the name
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A method to get the hashcode of the name, which is its id.
+     *
+     * @return the hashcode of the name
+     */
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    /**
+     * A method to check if two names are equal. There is only one ExerciseName
+     * for every name, so they are equal only if they are the same object.
+     *
+     * @param obj the object to compare to
+     * @return boolean true if the names are equal, false if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+
+    /**
+     * A weak reference to a name in the dictionary, which remembers the name so
+     * it can be removed once the reference is cleared.
+     */
+    private static final class NameReference extends WeakReference<ExerciseName> {
+        private final String name;
+
+        private NameReference(ExerciseName referent) {
+            super(referent, CLEARED);
+            this.name = referent.name;
+        }
+    }
+}
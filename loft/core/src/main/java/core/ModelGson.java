@@ -0,0 +1,123 @@
+package core;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared Gson instances for the model classes. The instances have hand-written
+ * streaming type adapters registered for {@link User}, {@link Workout},
+ * {@link Exercise} and {@link Set}, so the model is read and written field by
+ * field without reflection. The json has the fields Gson writes by reflection
+ * for a plain list of sets in every exercise: the same field names in the same
+ * order, null fields left out and the password of a user never written. The
+ * adapters keep that format even where the model stores its data differently,
+ * like the sets of an exercise and the date of a workout.
+ * <p>
+ * Gson instances are thread-safe, so the instances are meant to be used by every
+ * class that reads or writes the model, instead of creating a new Gson for
+ * every read or write.
+ * </p>
+ */
+public final class ModelGson {
+    static final TypeAdapter<Set> SET_ADAPTER = new Set.JsonAdapter().nullSafe();
+    static final TypeAdapter<Exercise> EXERCISE_ADAPTER =
+            new Exercise.JsonAdapter(SET_ADAPTER).nullSafe();
+    static final TypeAdapter<Workout> WORKOUT_ADAPTER =
+            new Workout.JsonAdapter(EXERCISE_ADAPTER).nullSafe();
+    static final TypeAdapter<User> USER_ADAPTER =
+            new User.JsonAdapter(WORKOUT_ADAPTER).nullSafe();
+
+    /**
+     * Writes compact json.
+     */
+    public static final Gson GSON = newBuilder().create();
+
+    /**
+     * Writes indented json, like the data file.
+     */
+    public static final Gson PRETTY_GSON = newBuilder().setPrettyPrinting().create();
+
+    private ModelGson() {
+    }
+
+    /**
+     * Returns a new builder with the type adapters of the model registered, for
+     * Gson instances that need other settings than the shared ones.
+     *
+     * @return the builder
+     */
+    public static GsonBuilder newBuilder() {
+        return new GsonBuilder()
+                .registerTypeAdapter(Set.class, SET_ADAPTER)
+                .registerTypeAdapter(Exercise.class, EXERCISE_ADAPTER)
+                .registerTypeAdapter(Workout.class, WORKOUT_ADAPTER)
+                .registerTypeAdapter(User.class, USER_ADAPTER);
+    }
+
+    /**
+     * Reads a string that may be null.
+     *
+     * @param in the reader
+     * @return the string, or null if the value is null
+     * @throws IOException if the value is not a string
+     */
+    static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /**
+     * Reads an array with the given adapter.
+     *
+     * @param <T>     the type of the elements
+     * @param in      the reader
+     * @param adapter the adapter of the elements
+     * @return the elements, or null if the value is null
+     * @throws IOException if the value is not an array of the elements
+     */
+    static <T> ArrayList<T> readList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        ArrayList<T> list = new ArrayList<T>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(adapter.read(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    /**
+     * Writes a list as an array with the given adapter.
+     *
+     * @param <T>     the type of the elements
+     * @param out     the writer
+     * @param list    the list to write, or null
+     * @param adapter the adapter of the elements
+     * @throws IOException if writing fails
+     */
+    static <T> void writeList(JsonWriter out, List<T> list, TypeAdapter<T> adapter)
+            throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T element : list) {
+            adapter.write(out, element);
+        }
+        out.endArray();
+    }
+}
@@ -1,5 +1,11 @@
 package core;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
 /**
  * The Set class represents one set inside an exercise. It contains a constructor
  * that allows you to specify the number of repetitions and weight.
@@ -28,6 +34,9 @@ public class Set {
         this.weight = weight;
     }
 
+    private Set() {
+    }
+
     /**
      * A method to get the number of repetitions in the set.
      *
@@ -86,4 +95,39 @@ public class Set {
         }
         return true;
     }
+
+    /**
+     * Reads and writes sets as json without reflection. Registered in
+     * {@link ModelGson}.
+     */
+    static final class JsonAdapter extends TypeAdapter<Set> {
+        @Override
+        public void write(JsonWriter out, Set set) throws IOException {
+            out.beginObject();
+            out.name("reps").value(set.reps);
+            out.name("weight").value(set.weight);
+            out.endObject();
+        }
+
+        @Override
+        public Set read(JsonReader in) throws IOException {
+            Set set = new Set();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    // Like Gson, a null leaves the number at zero
+                    in.nextNull();
+                } else if (field.equals("reps")) {
+                    set.reps = in.nextInt();
+                } else if (field.equals("weight")) {
+                    set.weight = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return set;
+        }
+    }
 }
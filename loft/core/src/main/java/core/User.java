@@ -1,9 +1,17 @@
 package core;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * The User class represents a user in the application. It contains one constructor
@@ -15,6 +23,12 @@ import java.util.ArrayList;
  * workouts, get the workouts list size, an equals method to check if two users are
  * equal and a methods that returns the users hashcode which is used in the equals method.
  * </p>
+ * <p>
+ * The workouts of a user can be loaded lazily. A user read from storage can be
+ * given a loader with {@link #setWorkoutLoader(Supplier)}, which is only called
+ * the first time the workouts are needed. Logging in then only reads the info
+ * of the user, no matter how many workouts the user has.
+ * </p>
  */
 public class User {
     private String name;
@@ -26,6 +40,10 @@ public class User {
     private String email;
     private ArrayList<Workout> workouts;
 
+    // Loads the workouts the first time they are needed, null once they are
+    // loaded. It is transient, so it is never serialized.
+    private transient Supplier<? extends List<Workout>> workoutLoader;
+
     /**
      * Constructs a new User object with the given name, username, password and
      * email.
@@ -49,6 +67,31 @@ public class User {
         workouts = new ArrayList<Workout>();
     }
 
+    private User() {
+    }
+
+    /**
+     * Creates a user from stored data, where only the password hash is known. The
+     * password of the returned user is null, like for users read from json.
+     *
+     * @param name         the name of the user
+     * @param username     the username of the user
+     * @param passwordHash the password hash of the user
+     * @param email        the email of the user
+     * @return the user, without workouts
+     * @throws IllegalArgumentException if any of the parameters are null
+     */
+    public static User withPasswordHash(String name, String username, String passwordHash,
+            String email) {
+        if (passwordHash == null) {
+            throw new IllegalArgumentException("Null values are not allowed");
+        }
+        User user = new User(name, username, "", email);
+        user.password = null;
+        user.passwordHash = passwordHash;
+        return user;
+    }
+
     /**
      * Returns the name of the user.
      *
@@ -137,7 +180,7 @@ public class User {
      * @return number of workouts as int
      */
     public int getNumberOfWorkouts() {
-        return workouts.size();
+        return loadedWorkouts().size();
     }
 
     /**
@@ -146,18 +189,89 @@ public class User {
      * @return workouts in an ArrayList
      */
     public ArrayList<Workout> getWorkouts() {
-        return new ArrayList<>(workouts);
+        return new ArrayList<>(loadedWorkouts());
     }
 
     /**
-     * Adds a workout to the user.
+     * Returns a read-only view of the workouts of the user, without copying them.
+     * Loads the workouts if they are loaded lazily. The view changes when
+     * workouts are added to the user.
+     *
+     * @return an unmodifiable list of the workouts
+     */
+    public List<Workout> getWorkoutsView() {
+        return Collections.unmodifiableList(loadedWorkouts());
+    }
+
+    /**
+     * Runs the action for every workout of the user, in the order they were
+     * added, without copying them.
+     *
+     * @param action the action to run for every workout
+     */
+    public void forEachWorkout(Consumer<? super Workout> action) {
+        for (Workout workout : loadedWorkouts()) {
+            action.accept(workout);
+        }
+    }
+
+    /**
+     * Adds a workout to the user. Does not load the workouts if they are loaded
+     * lazily, the workout is added after them once they are loaded.
      *
      * @param workout Workout class
      */
     public void addWorkout(Workout workout) {
+        if (workouts == null) {
+            workouts = new ArrayList<Workout>();
+        }
         workouts.add(workout);
     }
 
+    /**
+     * Makes the workouts of the user load lazily. The loader is called the first
+     * time the workouts are needed, and the workouts it returns come before any
+     * workouts added to the user until then.
+     *
+     * @param workoutLoader returns the stored workouts of the user
+     */
+    public void setWorkoutLoader(Supplier<? extends List<Workout>> workoutLoader) {
+        this.workoutLoader = workoutLoader;
+    }
+
+    /**
+     * Checks if the workouts of the user have been loaded. Only false for a user
+     * with a workout loader that has not been needed yet.
+     *
+     * @return true if the workouts are loaded, false otherwise
+     */
+    public boolean isWorkoutsLoaded() {
+        return workoutLoader == null;
+    }
+
+    /**
+     * Loads the workouts of the user now, if they are loaded lazily.
+     */
+    public void loadWorkouts() {
+        loadedWorkouts();
+    }
+
+    private ArrayList<Workout> loadedWorkouts() {
+        if (workoutLoader != null) {
+            ArrayList<Workout> loaded = new ArrayList<Workout>(workoutLoader.get());
+            if (workouts != null) {
+                loaded.addAll(workouts);
+            }
+            workouts = loaded;
+            workoutLoader = null;
+        }
+        if (workouts == null) {
+            // Users read from json without a workouts field
+            workouts = new ArrayList<Workout>();
+        }
+        return workouts;
+    }
+
     /**
      * Hashes a string using the SHA-256 algorithm. Used for hashing password.
      *
@@ -233,4 +347,56 @@ public class User {
         }
         return true;
     }
+
+    /**
+     * Reads and writes users as json without reflection. The password is never
+     * written, and lazily loaded workouts are loaded before they are written.
+     * Registered in {@link ModelGson}.
+     */
+    static final class JsonAdapter extends TypeAdapter<User> {
+        private final TypeAdapter<Workout> workoutAdapter;
+
+        JsonAdapter(TypeAdapter<Workout> workoutAdapter) {
+            this.workoutAdapter = workoutAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            if (!user.isWorkoutsLoaded()) {
+                user.loadWorkouts();
+            }
+            out.beginObject();
+            out.name("name").value(user.name);
+            out.name("username").value(user.username);
+            out.name("passwordHash").value(user.passwordHash);
+            out.name("email").value(user.email);
+            out.name("workouts");
+            ModelGson.writeList(out, user.workouts, workoutAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            User user = new User();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals("name")) {
+                    user.name = ModelGson.readString(in);
+                } else if (field.equals("username")) {
+                    user.username = ModelGson.readString(in);
+                } else if (field.equals("passwordHash")) {
+                    user.passwordHash = ModelGson.readString(in);
+                } else if (field.equals("email")) {
+                    user.email = ModelGson.readString(in);
+                } else if (field.equals("workouts")) {
+                    user.workouts = ModelGson.readList(in, workoutAdapter);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return user;
+        }
+    }
 }
@@ -1,8 +1,16 @@
 package core;
 
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The Workout class represents a workout inside a user. It contains two constructors;
@@ -15,17 +23,31 @@ import java.util.List;
  * equals method to check if two workouts are equal and a methods that returns the workouts
  * hashcode which is used in the equals method.
  * </p>
+ * <p>
+ * The date is kept as a day number, counted from 1970-01-01 like
+ * {@link LocalDate#toEpochDay()}, so dates are compared and sorted without
+ * parsing or creating objects. It is still written to json as an ISO date.
+ * </p>
+ * <p>
+ * The total weight is kept up to date as exercises are added, and as sets are
+ * added to the exercises, so asking for it does not add up the exercises. If
+ * an exercise is in more than one workout, those workouts add up their
+ * exercises instead.
+ * </p>
  */
 public class Workout {
 
     private List<Exercise> exercises = new ArrayList<Exercise>();
-    private String date;
+    private long epochDay;
+    private int totalWeight;
+    // False once an exercise of the workout is also in another workout
+    private boolean totalWeightTracked = true;
 
     /**
      * Constructor for a workout that sets the date to today.
      */
     public Workout() {
-        this.date = LocalDate.now().toString();
+        this.epochDay = LocalDate.now().toEpochDay();
     }
 
     /**
@@ -38,16 +60,42 @@ public class Workout {
         if (date == null) {
             throw new IllegalArgumentException("Date cannot be null");
         }
-        this.date = date.toString();
+        this.epochDay = date.toEpochDay();
     }
 
     /**
      * Adds an exercise to the workout.
      *
      * @param exercise the exercise to add to the workout
+     * @throws IllegalArgumentException if the exercise is null
      */
     public void addExercise(Exercise exercise) {
+        if (exercise == null) {
+            throw new IllegalArgumentException("Exercise cannot be null");
+        }
         exercises.add(exercise);
+        if (exercise.addedTo(this)) {
+            totalWeight += exercise.getTotalWeight();
+        } else {
+            totalWeightTracked = false;
+        }
+    }
+
+    /**
+     * Called by an exercise of the workout when a set is added to it.
+     *
+     * @param weight the weight lifted in the new set
+     */
+    void addToTotalWeight(int weight) {
+        totalWeight += weight;
+    }
+
+    /**
+     * Called by an exercise of the workout when it is added to another workout,
+     * after which it no longer tells this workout about new sets.
+     */
+    void stopTrackingTotalWeight() {
+        totalWeightTracked = false;
     }
 
     /**
@@ -59,13 +107,42 @@ public class Workout {
         return new ArrayList<Exercise>(exercises);
     }
 
+    /**
+     * A method to get a read-only view of the exercises in the workout, without
+     * copying them. The view changes when exercises are added to the workout.
+     *
+     * @return An unmodifiable list of the exercises in the workout
+     */
+    public List<Exercise> getExercisesView() {
+        return Collections.unmodifiableList(exercises);
+    }
+
+    /**
+     * Runs the action for every exercise in the workout, in the order they were
+     * added, without copying them.
+     *
+     * @param action the action to run for every exercise
+     */
+    public void forEachExercise(Consumer<? super Exercise> action) {
+        for (Exercise exercise : exercises) {
+            action.accept(exercise);
+        }
+    }
+
     /**
      * A method to get the total weight of all exercises in the workout.
      *
      * @return the total weight of all exercises in the workout
      */
     public int getTotalWeight() {
-        return exercises.stream().mapToInt(Exercise::getTotalWeight).sum();
+        if (totalWeightTracked) {
+            return totalWeight;
+        }
+        int sum = 0;
+        for (Exercise exercise : exercises) {
+            sum += exercise.getTotalWeight();
+        }
+        return sum;
     }
 
     /**
@@ -74,7 +151,30 @@ public class Workout {
      * @return the date of the workout
      */
     public LocalDate getDate() {
-        return LocalDate.parse(date);
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * A method to get the date of the workout as a day number, counted from
+     * 1970-01-01 like {@link LocalDate#toEpochDay()}. Comparing day numbers is
+     * cheaper than comparing dates.
+     *
+     * @return the day number of the date of the workout
+     */
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * Checks if the workout is on one of the days from the first date to the last
+     * date, both included.
+     *
+     * @param from the first date
+     * @param to   the last date
+     * @return true if the workout is within the dates, false otherwise
+     */
+    public boolean isWithin(LocalDate from, LocalDate to) {
+        return epochDay >= from.toEpochDay() && epochDay <= to.toEpochDay();
     }
 
     /**
@@ -87,7 +187,7 @@ public class Workout {
         final int prime = 31;
         int result = 1;
         result = prime * result + exercises.hashCode();
-        result = prime * result + date.hashCode();
+        result = prime * result + Long.hashCode(epochDay);
         return result;
     }
 
@@ -109,10 +209,10 @@ public class Workout {
             return false;
         }
         Workout other = (Workout) obj;
-        if (!exercises.equals(other.getExercises())) {
+        if (!exercises.equals(other.exercises)) {
             return false;
         }
-        if (!getDate().equals(other.getDate())) {
+        if (epochDay != other.epochDay) {
             return false;
         }
         return true;
@@ -126,7 +226,7 @@ public class Workout {
     private int getTotalSets() {
         int totalSets = 0;
         for (Exercise exercise : exercises) {
-            totalSets += exercise.getSets().size();
+            totalSets += exercise.getNumberOfSets();
         }
         return totalSets;
     }
@@ -135,8 +235,66 @@ public class Workout {
     public String toString() {
         return getDate().toString()
                 + " Number of exercises: "
-                + getExercises().size()
+                + exercises.size()
                 + " Number of sets: "
                 + getTotalSets();
     }
+
+    /**
+     * Reads and writes workouts as json without reflection. The date is written as
+     * an ISO date. A workout without a date gets today's date, like with Gson.
+     * Registered in {@link ModelGson}.
+     */
+    static final class JsonAdapter extends TypeAdapter<Workout> {
+        private final TypeAdapter<Exercise> exerciseAdapter;
+
+        JsonAdapter(TypeAdapter<Exercise> exerciseAdapter) {
+            this.exerciseAdapter = exerciseAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Workout workout) throws IOException {
+            out.beginObject();
+            out.name("exercises");
+            ModelGson.writeList(out, workout.exercises, exerciseAdapter);
+            out.name("date").value(workout.getDate().toString());
+            out.endObject();
+        }
+
+        @Override
+        public Workout read(JsonReader in) throws IOException {
+            Workout workout = new Workout();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals("exercises")) {
+                    List<Exercise> exercises = ModelGson.readList(in, exerciseAdapter);
+                    if (exercises != null) {
+                        for (Exercise exercise : exercises) {
+                            if (exercise != null) {
+                                workout.addExercise(exercise);
+                            }
+                        }
+                    }
+                } else if (field.equals("date")) {
+                    String date = ModelGson.readString(in);
+                    if (date != null) {
+                        workout.epochDay = parseEpochDay(date);
+                    }
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return workout;
+        }
+
+        private static long parseEpochDay(String date) {
+            try {
+                return LocalDate.parse(date).toEpochDay();
+            } catch (DateTimeParseException e) {
+                throw new JsonParseException("Invalid workout date " + date, e);
+            }
+        }
+    }
 }
@@ -1,13 +1,14 @@
 package core;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -15,9 +16,12 @@ import java.util.stream.Collectors;
  * workouts. It contaions one constructor that lets you specify a list of
  * workouts.
  * <p>
- * The class contains two fields, one list of workouts and a HashMap of all
- * exercises with key being the name of the exercise and value being a list of
- * all exercises with that name.
+ * The class contains two fields, a sorted map of the workouts by date and a
+ * HashMap of all exercises with key being the name of the exercise and value being a list of
+ * all exercises with that name. The map is keyed by the shared
+ * {@link ExerciseName}, so names are looked up and compared by their id instead
+ * of by hashing and comparing strings. The workouts of a day are looked up in the
+ * map by date in logarithmic time, and walking the map gives the days in order.
  * </p>
  * <p>
  * The class provides methods to sort workouts by date, get a HashMap of all
@@ -29,40 +33,55 @@ import java.util.stream.Collectors;
  */
 public class WorkoutSorting {
 
-    private List<Workout> workouts = new ArrayList<Workout>();
-    private HashMap<String, List<Exercise>> sameExercises = new HashMap<String, List<Exercise>>();
+    // The workouts of every day with workouts, in the order they were given
+    private NavigableMap<LocalDate, List<Workout>> workoutsByDate =
+            new TreeMap<LocalDate, List<Workout>>();
+    private HashMap<ExerciseName, List<Exercise>> sameExercises =
+            new HashMap<ExerciseName, List<Exercise>>();
 
     /**
      * Constructor for a WorkoutSorting that lets you specify a list of workouts. It
-     * also creates a HashMap of all exercises with key being the name of the
-     * exercise and value being a list of all exercises with that name.
+     * sorts the workouts by date, and also creates a HashMap of all exercises with
+     * key being the name of the exercise and value being a list of all exercises
+     * with that name.
      *
      * @param workouts a list of workouts to sort
      */
     public WorkoutSorting(List<Workout> workouts) {
-        this.workouts = new ArrayList<>(workouts);
         for (Workout workout : workouts) {
-            for (Exercise exercise : workout.getExercises()) {
-                String name = exercise.getName();
-                if (sameExercises.containsKey(name)) {
-                    sameExercises.get(name).add(exercise);
-                } else {
-                    sameExercises.put(name, new ArrayList<Exercise>(Arrays.asList(exercise)));
-                }
-            }
+            workoutsByDate.computeIfAbsent(workout.getDate(), date -> new ArrayList<Workout>())
+                    .add(workout);
+            workout.forEachExercise(exercise -> sameExercises.computeIfAbsent(
+                    exercise.getExerciseName(), name -> new ArrayList<Exercise>()).add(exercise));
         }
     }
 
     /**
-     * The method sorts all the workouts by date with a stream and compares them
-     * based on the date.
+     * The method returns all the workouts sorted by date, the most recent first.
+     * Workouts on the same day keep the order they were given in.
      *
      * @return a list of all workouts sorted by date
      */
     public List<Workout> getMostRecentWorkouts() {
-        return workouts.stream()
-                .sorted((w1, w2) -> w2.getDate().compareTo(w1.getDate()))
-                .collect(Collectors.toList());
+        List<Workout> mostRecent = new ArrayList<Workout>();
+        workoutsByDate.descendingMap().values().forEach(mostRecent::addAll);
+        return mostRecent;
+    }
+
+    /**
+     * Returns the workouts from the first date to the last date, both included,
+     * sorted by date. Only the workouts within the dates are visited.
+     *
+     * @param from the first date
+     * @param to   the last date
+     * @return a list of the workouts within the dates, the oldest first
+     */
+    public List<Workout> getWorkoutsBetween(LocalDate from, LocalDate to) {
+        List<Workout> between = new ArrayList<Workout>();
+        if (!from.isAfter(to)) {
+            workoutsByDate.subMap(from, true, to, true).values().forEach(between::addAll);
+        }
+        return between;
     }
 
     /**
@@ -72,7 +91,10 @@ public class WorkoutSorting {
      *         and value being a list of all exercises with that name.
      */
     public HashMap<String, List<Exercise>> getSameExercises() {
-        return new HashMap<>(sameExercises);
+        HashMap<String, List<Exercise>> byName = new HashMap<>();
+        sameExercises.forEach((name, exercises) ->
+                byName.put(name == null ? null : name.getName(), exercises));
+        return byName;
     }
 
     /**
@@ -83,10 +105,7 @@ public class WorkoutSorting {
      * @return a list of all exercises with the same name.
      */
     public List<Exercise> getSameExercises(String name) {
-        if (!sameExercises.containsKey(name)) {
-            return new ArrayList<>();
-        }
-        return new ArrayList<>(sameExercises.get(name));
+        return new ArrayList<>(exercisesNamed(name));
     }
 
     /**
@@ -98,7 +117,23 @@ public class WorkoutSorting {
      * @return a list of all exercises with the same name.
      */
     public List<Exercise> getSameExercises(Exercise exercise) {
-        return getSameExercises(exercise.getName());
+        return new ArrayList<>(sameExercises.getOrDefault(exercise.getExerciseName(),
+                List.of()));
+    }
+
+    /**
+     * Returns the exercises with the given name from the HashMap created in the
+     * constructor, without copying them.
+     *
+     * @param name the name of the exercises
+     * @return the exercises with the name, or an empty list if there are none
+     */
+    private List<Exercise> exercisesNamed(String name) {
+        ExerciseName exerciseName = ExerciseName.find(name);
+        if (exerciseName == null) {
+            return List.of();
+        }
+        return sameExercises.getOrDefault(exerciseName, List.of());
     }
 
     /**
@@ -108,20 +143,19 @@ public class WorkoutSorting {
      *
      * @param exercise the exercise type to get the PR for, only the exercise name
      *                 matters (e.g. "Squat")
-     * @param date     the date to get the PR for
+     * @param date     the date to get the PR for, null matches no workouts
      * @return the PR for the exercise on the given date, or 0 if no PR was found
      */
     public int getPrOnDay(Exercise exercise, LocalDate date) {
+        ExerciseName name = exercise.getExerciseName();
         int max = 0;
-        for (Workout workout : workouts) {
-            if (workout.getDate().equals(date)) {
-                int val = workout.getExercises().stream()
-                        .filter(tempExercise -> tempExercise.getName().equals(exercise.getName()))
-                        .mapToInt(Exercise::getLocalPr).max()
-                        .orElse(0);
-                if (val > max) {
-                    max = val;
-                }
+        for (Workout workout : workoutsOn(date)) {
+            int val = workout.getExercisesView().stream()
+                    .filter(tempExercise -> tempExercise.getExerciseName() == name)
+                    .mapToInt(Exercise::getLocalPr).max()
+                    .orElse(0);
+            if (val > max) {
+                max = val;
             }
         }
         return max;
@@ -136,10 +170,7 @@ public class WorkoutSorting {
      *         name.
      */
     public int getExercisesPr(String name) {
-        if (!sameExercises.containsKey(name)) {
-            return 0;
-        }
-        return sameExercises.get(name).stream().mapToInt(Exercise::getLocalPr).max().orElse(0);
+        return exercisesNamed(name).stream().mapToInt(Exercise::getLocalPr).max().orElse(0);
     }
 
     /**
@@ -149,22 +180,47 @@ public class WorkoutSorting {
      * @return A Collection of workout with the same name
      */
     public Collection<String> searchForExercises(String name) {
+        String lowerCaseName = name.toLowerCase();
         return sameExercises.keySet().stream()
-                .filter(n -> n.toLowerCase().contains(name.toLowerCase()))
+                .map(ExerciseName::getName)
+                .filter(n -> n.toLowerCase().contains(lowerCaseName))
                 .collect(Collectors.toList());
     }
 
     /**
      * Returns the total weight lifted on a specific day.
      *
-     * @param date the date to filter the workouts by
+     * @param date the date to filter the workouts by, null matches no workouts
      * @return the total weight lifted on the specified day
      */
     public int getTotalWeightOnDay(LocalDate date) {
-        return workouts.stream()
-                .filter(w -> w.getDate().equals(date))
-                .mapToInt(Workout::getTotalWeight)
-                .sum();
+        return getTotalWeight(workoutsOn(date));
+    }
+
+    /**
+     * Returns the workouts on the given date. A TreeMap can not look up null, so
+     * a null date is checked first and matches no workouts, as it did before the
+     * workouts were indexed by date.
+     */
+    private List<Workout> workoutsOn(LocalDate date) {
+        if (date == null) {
+            return List.of();
+        }
+        return workoutsByDate.getOrDefault(date, List.of());
+    }
+
+    /**
+     * Adds up the total weight of the given workouts.
+     *
+     * @param workouts the workouts to add up
+     * @return the total weight lifted in the workouts
+     */
+    private static int getTotalWeight(List<Workout> workouts) {
+        int totalWeight = 0;
+        for (Workout workout : workouts) {
+            totalWeight += workout.getTotalWeight();
+        }
+        return totalWeight;
     }
 
     /**
@@ -174,23 +230,21 @@ public class WorkoutSorting {
      *         workouts in ascending order.
      */
     public List<LocalDate> getUniqueDates() {
-        return workouts.stream()
-                .map(Workout::getDate)
-                .distinct()
-                .sorted((d1, d2) -> d1.compareTo(d2))
-                .collect(Collectors.toList());
+        return new ArrayList<LocalDate>(workoutsByDate.keySet());
     }
 
     /**
      * Returns a map of the total weight lifted per day, where the keys are the
      * unique dates of the workouts and the values are the total weight lifted on
-     * each day.
+     * each day. The map is made in one pass over the days, and iterates them in
+     * chronological order.
      *
      * @return a map of the total weight lifted per day
      */
     public Map<LocalDate, Integer> getWeightPerDay() {
-        return getUniqueDates().stream().map(d -> Map.entry(d, getTotalWeightOnDay(d)))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        Map<LocalDate, Integer> perDay = new LinkedHashMap<LocalDate, Integer>();
+        workoutsByDate.forEach((date, workouts) -> perDay.put(date, getTotalWeight(workouts)));
+        return perDay;
     }
 
     /**
@@ -202,10 +256,7 @@ public class WorkoutSorting {
      *         name.
      */
     public int getHeaviestLiftedSet(String name) {
-        if (!sameExercises.containsKey(name)) {
-            return 0;
-        }
-        return sameExercises.get(name).stream()
+        return exercisesNamed(name).stream()
                 .mapToInt(Exercise::getHeaviestLiftedSet)
                 .max().orElse(0);
     }
@@ -217,10 +268,7 @@ public class WorkoutSorting {
      * @return the total weight ever lifted for the exercise with the given name
      */
     public int getTotalWeightEver(String name) {
-        if (!sameExercises.containsKey(name)) {
-            return 0;
-        }
-        return sameExercises.get(name).stream()
+        return exercisesNamed(name).stream()
                 .mapToInt(Exercise::getTotalWeight)
                 .sum();
     }
@@ -251,13 +299,14 @@ public class WorkoutSorting {
      * @throws IllegalArgumentException if no exercise with the given name exists
      */
     public int daysSinceExercise(String name) {
-        if (sameExercises.containsKey(name)) {
-            for (Workout workout : getMostRecentWorkouts()) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exercise.getName().equals(name)) {
-                        LocalDate workoutDate = workout.getDate();
-                        LocalDate currentDate = LocalDate.now();
-                        return (int) ChronoUnit.DAYS.between(workoutDate, currentDate);
+        ExerciseName exerciseName = ExerciseName.find(name);
+        if (sameExercises.containsKey(exerciseName)) {
+            for (List<Workout> workouts : workoutsByDate.descendingMap().values()) {
+                for (Workout workout : workouts) {
+                    for (Exercise exercise : workout.getExercisesView()) {
+                        if (exercise.getExerciseName() == exerciseName) {
+                            return (int) (LocalDate.now().toEpochDay() - workout.getEpochDay());
+                        }
                     }
                 }
             }
@@ -272,11 +321,8 @@ public class WorkoutSorting {
      * @return the total number of reps performed for the specified exercise
      */
     public int getTotalReps(String name) {
-        if (!sameExercises.containsKey(name)) {
-            return 0;
-        }
-        return sameExercises.get(name).stream()
-                .mapToInt(e -> e.getSets().stream().mapToInt(Set::getReps).sum())
+        return exercisesNamed(name).stream()
+                .mapToInt(Exercise::getTotalReps)
                 .sum();
     }
 
@@ -287,10 +333,10 @@ public class WorkoutSorting {
      */
     public List<Exercise> getAllUniqueExerciseNames() {
         return getMostRecentWorkouts().stream()
-                .flatMap(workout -> workout.getExercises().stream())
-                .map(exercise -> exercise.getName())
+                .flatMap(workout -> workout.getExercisesView().stream())
+                .map(Exercise::getExerciseName)
                 .distinct()
-                .map(name -> new Exercise(name))
+                .map(Exercise::named)
                 .collect(Collectors.toList());
     }
 
@@ -300,8 +346,12 @@ public class WorkoutSorting {
      * @return a list of all exercises sorted by PR
      */
     public List<Exercise> getAllUniqueExerciseNamesSortedByPr() {
+        // The pr of every name is found once, not once per comparison
+        Map<ExerciseName, Integer> prs = new HashMap<ExerciseName, Integer>();
+        sameExercises.forEach((name, exercises) -> prs.put(name,
+                exercises.stream().mapToInt(Exercise::getLocalPr).max().orElse(0)));
         return getAllUniqueExerciseNames().stream()
-                .sorted((e1, e2) -> getExercisesPr(e2.getName()) - getExercisesPr(e1.getName()))
+                .sorted((e1, e2) -> prs.get(e2.getExerciseName()) - prs.get(e1.getExerciseName()))
                 .collect(Collectors.toList());
     }
 
@@ -311,7 +361,10 @@ public class WorkoutSorting {
      * @return the total weight lifted in all workouts
      */
     public int getTotalWeightLifted() {
-        return getWeightPerDay().values().stream().mapToInt(Integer::intValue).sum();
-
+        int totalWeight = 0;
+        for (List<Workout> workouts : workoutsByDate.values()) {
+            totalWeight += getTotalWeight(workouts);
+        }
+        return totalWeight;
     }
 }
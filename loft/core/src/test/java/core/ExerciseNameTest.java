@@ -0,0 +1,63 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the ExerciseName class. It tests that names
+ * are formatted and kept once, that stored names are kept as they are, and that
+ * unused names are dropped.
+ */
+public class ExerciseNameTest {
+
+    @Test
+    public void testOf() {
+        ExerciseName name = ExerciseName.of("overhead   PRESS");
+        assertEquals("Overhead Press", name.getName());
+        assertEquals("Overhead Press", name.toString());
+        assertSame(name, ExerciseName.of("Overhead Press"),
+                "The same name should give the same object");
+        assertSame(name, ExerciseName.of("OVERHEAD press"));
+        assertEquals(name.getId(), name.hashCode());
+        assertNotEquals(name.getId(), ExerciseName.of("Front Squat").getId(),
+                "Different names should have different ids");
+        assertThrows(IllegalArgumentException.class, () -> ExerciseName.of(null));
+        assertThrows(IllegalArgumentException.class, () -> ExerciseName.of(""));
+    }
+
+    @Test
+    public void testInternAndFind() {
+        assertNull(ExerciseName.find("hack  SQUAT"),
+                "A name no exercise has should not be found");
+        ExerciseName stored = ExerciseName.intern("hack  SQUAT");
+        assertEquals("hack  SQUAT", stored.getName(), "Stored names should be kept as they are");
+        assertSame(stored, ExerciseName.find("hack  SQUAT"));
+        assertNotEquals(stored, ExerciseName.of("hack  SQUAT"),
+                "A stored name should still be formatted when it is given by a user");
+        assertSame(ExerciseName.of("Hack Squat"), ExerciseName.of("hack  SQUAT"));
+        assertNull(ExerciseName.intern(null));
+
+        Exercise read = ModelGson.GSON.fromJson("{\"name\":\"Hack Squat\"}", Exercise.class);
+        assertSame(ExerciseName.of("hack squat"), read.getExerciseName());
+        assertEquals(new Exercise("hack squat"), read);
+    }
+
+    @Test
+    public void testUnusedNamesAreDropped() throws InterruptedException {
+        assertEquals("Zercher Squat", ExerciseName.intern("Zercher Squat").getName());
+        // Nothing refers to the name any more, so the garbage collector may drop it
+        for (int i = 0; i < 50 && ExerciseName.find("Zercher Squat") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ExerciseName.find("Zercher Squat"), "An unused name should be dropped");
+        ExerciseName again = ExerciseName.intern("Zercher Squat");
+        assertSame(again, ExerciseName.find("Zercher Squat"),
+                "A dropped name should be stored again when it is used");
+    }
+}
@@ -33,6 +33,39 @@ public class ExerciseTest {
         assertEquals(3, exercise.getSets().size(), "Should be 3 sets");
     }
 
+    @Test
+    public void testSetsWithoutObjects() {
+        for (int i = 1; i <= 10; i++) {
+            exercise.addSet(i, 10 * i);
+        }
+        assertEquals(10, exercise.getNumberOfSets());
+        assertEquals(3, exercise.getReps(2));
+        assertEquals(100, exercise.getWeight(9));
+        assertEquals(55, exercise.getTotalReps());
+        assertEquals(100, exercise.getLocalPr());
+        assertEquals(1000, exercise.getHeaviestLiftedSet());
+        assertEquals(new Set(5, 50), exercise.getSets().get(4));
+        assertThrows(IndexOutOfBoundsException.class, () -> exercise.getReps(10),
+                "Should not be possible to get a set that was not added");
+        assertThrows(IllegalArgumentException.class, () -> exercise.addSet(null),
+                "Should not be possible to add a null set");
+
+        Exercise withSets = new Exercise("Bench Press", exercise.getSets().toArray(new Set[0]));
+        assertEquals(exercise, withSets);
+        assertEquals(exercise.hashCode(), withSets.hashCode());
+        assertEquals(exercise.getSets().hashCode() + 31 * (31 + "Bench Press".hashCode()),
+                exercise.hashCode(), "The hashcode should be the same as with a list of sets");
+    }
+
+    @Test
+    public void testForEachSet() {
+        exercise.addSet(8, 100);
+        exercise.addSet(new Set(5, 120));
+        StringBuilder visited = new StringBuilder();
+        exercise.forEachSet((reps, weight) -> visited.append(reps + "x" + weight + " "));
+        assertEquals("8x100 5x120 ", visited.toString());
+    }
+
     @Test
     public void testSetIllegalName() {
         assertThrows(IllegalArgumentException.class,
@@ -105,6 +138,27 @@ public class ExerciseTest {
         assertEquals(100, exercise.getLocalPr(), "Local PR should be 100");
     }
 
+    @Test
+    public void testAggregatesFollowSets() {
+        assertEquals(0, exercise.getLocalPr(), "An exercise without sets should have no PR");
+        assertEquals(0, exercise.getHeaviestLiftedSet());
+        exercise.addSet(-5, -20);
+        assertEquals(-20, exercise.getLocalPr(), "The first set should be the PR");
+        assertEquals(100, exercise.getHeaviestLiftedSet());
+        exercise.addSet(3, 40);
+        assertEquals(40, exercise.getLocalPr());
+        assertEquals(120, exercise.getHeaviestLiftedSet());
+        assertEquals(-2, exercise.getTotalReps());
+        assertEquals(220, exercise.getTotalWeight());
+
+        Exercise read = ModelGson.GSON.fromJson(
+                "{\"name\":\"Rows\",\"sets\":[{\"reps\":9,\"weight\":9}],"
+                        + "\"sets\":[{\"reps\":2,\"weight\":30},null]}", Exercise.class);
+        assertEquals(1, read.getNumberOfSets(), "Only the last list of sets should be kept");
+        assertEquals(30, read.getLocalPr());
+        assertEquals(60, read.getTotalWeight());
+    }
+
     @Test
     public void testConstructor() {
         Exercise exercise = new Exercise("Bench Press");
@@ -0,0 +1,90 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the ModelGson class. It tests that the type
+ * adapters write the json format of the data file, and read it back.
+ */
+public class ModelGsonTest {
+
+    private User user;
+
+    @BeforeEach
+    public void setUp() {
+        Workout workout1 = new Workout(LocalDate.of(2023, 10, 1));
+        workout1.addExercise(new Exercise("Bench Press", new Set(8, 80), new Set(5, 90)));
+        workout1.addExercise(new Exercise("Squats"));
+        Workout workout2 = new Workout(LocalDate.of(2023, 10, 3));
+        workout2.addExercise(new Exercise("Deadlifts", new Set(3, 180)));
+        user = new User("Test <User>", "test", "hunter2", "test@test.com");
+        user.addWorkout(workout1);
+        user.addWorkout(workout2);
+    }
+
+    @Test
+    public void testJsonFormat() {
+        String workouts = "[{\"exercises\":[{\"name\":\"Bench Press\",\"sets\":["
+                + "{\"reps\":8,\"weight\":80},{\"reps\":5,\"weight\":90}]},"
+                + "{\"name\":\"Squats\",\"sets\":[]}],\"date\":\"2023-10-01\"},"
+                + "{\"exercises\":[{\"name\":\"Deadlifts\",\"sets\":["
+                + "{\"reps\":3,\"weight\":180}]}],\"date\":\"2023-10-03\"}]";
+        assertEquals(workouts, ModelGson.GSON.toJson(user.getWorkouts()));
+        assertEquals("{\"name\":\"Test \\u003cUser\\u003e\",\"username\":\"test\","
+                + "\"passwordHash\":\"" + user.getPasswordHash() + "\","
+                + "\"email\":\"test@test.com\",\"workouts\":" + workouts + "}",
+                ModelGson.GSON.toJson(user));
+        String pretty = ModelGson.PRETTY_GSON.toJson(user);
+        assertTrue(pretty.contains("\n  \"workouts\": ["));
+        assertEquals(JsonParser.parseString(ModelGson.GSON.toJson(user)),
+                JsonParser.parseString(pretty));
+    }
+
+    @Test
+    public void testReadBack() {
+        User read = ModelGson.GSON.fromJson(ModelGson.PRETTY_GSON.toJson(user), User.class);
+        assertEquals(user, read);
+        assertNull(read.getPassword(), "The password should never be written");
+        assertEquals(user.getName(), read.getName());
+        assertEquals(user.getEmail(), read.getEmail());
+        assertEquals(user.getWorkouts(), read.getWorkouts());
+    }
+
+    @Test
+    public void testMissingAndUnknownFields() {
+        User read = ModelGson.GSON.fromJson(
+                "{\"username\":\"test\",\"passwordHash\":\"abc\",\"age\":{\"years\":[1]},"
+                        + "\"workouts\":[{\"exercises\":[{\"name\":\"bench  PRESS\"},"
+                        + "{\"name\":\"Rows\",\"sets\":[{\"reps\":5,\"weight\":null}]}]}]}",
+                User.class);
+        assertEquals("test", read.getUsername());
+        assertNull(read.getName());
+        Workout workout = read.getWorkouts().get(0);
+        assertEquals(LocalDate.now(), workout.getDate(),
+                "A workout without a date should get today's date");
+        assertEquals("bench  PRESS", workout.getExercises().get(0).getName(),
+                "Stored names should be read as they are");
+        assertTrue(workout.getExercises().get(0).getSets().isEmpty());
+        assertEquals(List.of(new Set(5, 0)), workout.getExercises().get(1).getSets());
+
+        User withoutWorkouts = ModelGson.GSON.fromJson(
+                "{\"username\":\"test\",\"passwordHash\":\"abc\"}", User.class);
+        assertEquals(0, withoutWorkouts.getNumberOfWorkouts());
+        assertNull(ModelGson.GSON.fromJson("null", User.class));
+        assertEquals(LocalDate.of(2023, 10, 3), ModelGson.GSON.fromJson(
+                "{\"date\":\"2023-10-03\"}", Workout.class).getDate());
+        assertThrows(JsonParseException.class,
+                () -> ModelGson.GSON.fromJson("{\"date\":\"2023-13-01\"}", Workout.class),
+                "An invalid date should fail when it is read");
+    }
+}
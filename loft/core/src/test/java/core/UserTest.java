@@ -1,10 +1,13 @@
 package core;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -32,6 +35,17 @@ public class UserTest {
                 "Email cannot be null");
     }
 
+    @Test
+    public void testWithPasswordHash() {
+        User stored = User.withPasswordHash("Ola Nordmann", "test", user.getPasswordHash(),
+                "test@example.com");
+        assertEquals(user, stored, "A user with the same hash should be equal");
+        assertEquals(null, stored.getPassword());
+        assertEquals(0, stored.getNumberOfWorkouts());
+        assertThrows(IllegalArgumentException.class,
+                () -> User.withPasswordHash("test", "test", null, "test"));
+    }
+
     @Test
     public void testGetNumberOfWorkouts() {
         assertEquals(0, user.getNumberOfWorkouts());
@@ -110,6 +124,53 @@ public class UserTest {
                 "getWorkouts() should not reveal the actual list");
     }
 
+    @Test
+    public void testWorkoutsView() {
+        List<Workout> view = user.getWorkoutsView();
+        Workout workout = new Workout();
+        user.addWorkout(workout);
+        assertEquals(List.of(workout), view, "The view should show added workouts");
+        assertThrows(UnsupportedOperationException.class, () -> view.clear());
+
+        List<Workout> visited = new ArrayList<Workout>();
+        user.forEachWorkout(visited::add);
+        assertEquals(List.of(workout), visited);
+
+        User lazy = User.withPasswordHash("Test", "lazy", "abc", "test@test.com");
+        lazy.setWorkoutLoader(() -> List.of(workout));
+        assertEquals(List.of(workout), lazy.getWorkoutsView(),
+                "The view should load lazily loaded workouts");
+    }
+
+    @Test
+    public void testLazyWorkouts() {
+        Workout stored = new Workout();
+        Workout added = new Workout();
+        int[] loads = {0};
+        user.setWorkoutLoader(() -> {
+            loads[0]++;
+            return List.of(stored);
+        });
+        assertFalse(user.isWorkoutsLoaded());
+
+        user.addWorkout(added);
+        assertEquals(0, loads[0], "Adding a workout should not load the workouts");
+        assertEquals(List.of(stored, added), user.getWorkouts(),
+                "Loaded workouts should come before added ones");
+        assertTrue(user.isWorkoutsLoaded());
+        assertEquals(2, user.getNumberOfWorkouts());
+        assertEquals(1, loads[0], "The workouts should only be loaded once");
+    }
+
+    @Test
+    public void testSerializingLoadsWorkouts() {
+        Workout stored = new Workout();
+        user.setWorkoutLoader(() -> List.of(stored));
+        User read = ModelGson.GSON.fromJson(ModelGson.GSON.toJson(user), User.class);
+        assertEquals(List.of(stored), read.getWorkouts(),
+                "Lazily loaded workouts should be written with the user");
+    }
+
     @Test
     public void testHashCode() {
         assertEquals(user.hashCode(), user.hashCode(), "Hashcode should be the same for same user");
@@ -160,6 +160,8 @@ public class WorkoutSortingTest {
         List<Workout> workoutList = new ArrayList<>(Arrays.asList(workout3, workout4));
         WorkoutSorting workoutSorting2 = new WorkoutSorting(workoutList);
         assertEquals(150, workoutSorting2.getPrOnDay(exercise1, workout3.getDate()));
+        assertEquals(0, workoutSorting2.getPrOnDay(exercise1, null),
+                "A null date should match no workouts");
     }
 
     @Test
@@ -180,6 +182,8 @@ public class WorkoutSortingTest {
     public void testGetTotalWeightOnDay() {
         WorkoutSorting workoutSorting = new WorkoutSorting(workouts);
         assertEquals(3250, workoutSorting.getTotalWeightOnDay(workout2.getDate()));
+        assertEquals(0, workoutSorting.getTotalWeightOnDay(null),
+                "A null date should match no workouts");
     }
 
     @Test
@@ -204,6 +208,33 @@ public class WorkoutSortingTest {
         assertEquals(hashmap, workoutSorting.getWeightPerDay());
     }
 
+    @Test
+    public void testWorkoutsByDate() {
+        Workout sameDay = new Workout(LocalDate.of(2019, 1, 1));
+        sameDay.addExercise(new Exercise("Curls", new Set(10, 10)));
+        Workout middle = new Workout(LocalDate.of(2020, 6, 1));
+        workouts.add(sameDay);
+        workouts.add(middle);
+        WorkoutSorting workoutSorting = new WorkoutSorting(workouts);
+
+        assertEquals(List.of(workout1, middle, workout2, sameDay),
+                workoutSorting.getMostRecentWorkouts(),
+                "Workouts on the same day should keep their order");
+        assertEquals(List.of(workout2, sameDay, middle), workoutSorting.getWorkoutsBetween(
+                LocalDate.of(2019, 1, 1), LocalDate.of(2020, 6, 1)));
+        assertEquals(List.of(middle), workoutSorting.getWorkoutsBetween(
+                LocalDate.of(2019, 1, 2), LocalDate.of(2021, 1, 1)));
+        assertTrue(workoutSorting.getWorkoutsBetween(
+                LocalDate.of(2021, 1, 1), LocalDate.of(2019, 1, 1)).isEmpty());
+
+        assertEquals(workout2.getTotalWeight() + 100,
+                workoutSorting.getTotalWeightOnDay(LocalDate.of(2019, 1, 1)));
+        assertEquals(List.of(LocalDate.of(2019, 1, 1), LocalDate.of(2020, 6, 1),
+                workout1.getDate()), new ArrayList<>(workoutSorting.getWeightPerDay().keySet()),
+                "The weight per day should be in chronological order");
+        assertEquals(0, workoutSorting.getTotalWeightOnDay(LocalDate.of(2018, 1, 1)));
+    }
+
     @Test
     public void testGetHeaviestLiftedSet() {
         WorkoutSorting workoutSorting = new WorkoutSorting(workouts);
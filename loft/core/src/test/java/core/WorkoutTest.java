@@ -1,11 +1,13 @@
 package core;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
@@ -34,6 +36,8 @@ public class WorkoutTest {
     public void testAddExercise() {
         assertEquals(0, workout.getTotalWeight(),
                 "Total weight should be 0 as no exercises are added yet");
+        assertThrows(IllegalArgumentException.class, () -> workout.addExercise(null),
+                "Should not be possible to add a null exercise");
 
         Set benchSet1 = new Set(10, 150);
         Set benchSet2 = new Set(8, 130);
@@ -80,6 +84,19 @@ public class WorkoutTest {
                 "getExercises() should not reveal the actual list");
     }
 
+    @Test
+    public void testExercisesView() {
+        List<Exercise> view = workout.getExercisesView();
+        workout.addExercise(exercise1);
+        assertEquals(List.of(exercise1), view, "The view should show added exercises");
+        assertThrows(UnsupportedOperationException.class, () -> view.add(exercise2));
+
+        workout.addExercise(exercise2);
+        List<Exercise> visited = new ArrayList<Exercise>();
+        workout.forEachExercise(visited::add);
+        assertEquals(List.of(exercise1, exercise2), visited);
+    }
+
     @Test
     public void testgetTotalWeight() {
         Set squatSet1 = new Set(10, 200);
@@ -95,6 +112,28 @@ public class WorkoutTest {
         assertEquals(4960, workout.getTotalWeight(), "Total weight should be 4960");
     }
 
+    @Test
+    public void testTotalWeightFollowsChanges() {
+        workout.addExercise(exercise1);
+        exercise1.addSet(new Set(10, 50));
+        assertEquals(500, workout.getTotalWeight(),
+                "Sets added after the exercise should be counted");
+
+        Workout other = new Workout();
+        other.addExercise(exercise1);
+        other.addExercise(exercise2);
+        exercise1.addSet(new Set(1, 100));
+        exercise2.addSet(new Set(2, 100));
+        assertEquals(600, workout.getTotalWeight(),
+                "An exercise in two workouts should be counted in both");
+        assertEquals(800, other.getTotalWeight());
+
+        Workout twice = new Workout();
+        twice.addExercise(exercise2);
+        twice.addExercise(exercise2);
+        assertEquals(400, twice.getTotalWeight());
+    }
+
     @Test
     public void testGetDate() {
         LocalDate date = LocalDate.of(2020, 1, 1);
@@ -103,6 +142,19 @@ public class WorkoutTest {
         assertThrows(IllegalArgumentException.class, () -> new Workout(null),
                 "Date cannot be null");
         assertEquals(date, workout.getDate(), "Date should be 2020-01-01");
+        assertEquals(date.toEpochDay(), workout.getEpochDay());
+        assertEquals(LocalDate.of(1969, 12, 31),
+                new Workout(LocalDate.of(1969, 12, 31)).getDate());
+    }
+
+    @Test
+    public void testIsWithin() {
+        Workout dated = new Workout(LocalDate.of(2020, 1, 15));
+        assertTrue(dated.isWithin(LocalDate.of(2020, 1, 15), LocalDate.of(2020, 1, 15)),
+                "Both dates should be included");
+        assertTrue(dated.isWithin(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31)));
+        assertFalse(dated.isWithin(LocalDate.of(2020, 1, 16), LocalDate.of(2020, 2, 1)));
+        assertFalse(dated.isWithin(LocalDate.of(2019, 12, 1), LocalDate.of(2020, 1, 14)));
     }
 
     @Test
@@ -0,0 +1,630 @@
+package filehandling;
+
+import com.google.gson.JsonParseException;
+import core.Exercise;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary format for the data file. It holds the same users, workouts,
+ * exercises and sets as the json format, but in a fraction of the space, and is
+ * decoded from its bytes instead of being parsed as text. The file is read into
+ * memory rather than memory mapped, since a mapped file can not be replaced on
+ * Windows until the mapping is garbage collected.
+ * <p>
+ * The file starts with the magic bytes "LOFT" and a format version byte,
+ * followed by the version of the data file, the journal sequence number, a table
+ * of every exercise name in the file, and the users. Numbers are stored
+ * as variable length integers, so small numbers like reps and weights take a
+ * single byte. Dates are stored as the number of days since 1970-01-01, and
+ * exercise names as their index in the name table. Every user is prefixed with
+ * its length in bytes, so looking up one user skips the others without decoding
+ * them.
+ * </p>
+ * <p>
+ * The header and every user are also prefixed with a CRC32 checksum of their
+ * bytes. A user whose checksum does not match is reported as corrupt instead of
+ * being decoded into the wrong data, and
+ * {@link #recover(Path, RecoveryReport)} keeps every user before the first
+ * damaged one.
+ * </p>
+ * <p>
+ * Files in this format are detected by their magic bytes, so
+ * {@link DirectLoftAccess} reads both formats no matter which one it writes.
+ * {@link #convertJsonToBinary(Path, Path)} and
+ * {@link #convertBinaryToJson(Path, Path)} convert existing files.
+ * </p>
+ */
+public final class BinaryUserFormat {
+    private static final byte[] MAGIC = {'L', 'O', 'F', 'T'};
+    private static final int FORMAT_VERSION = 1;
+
+    private BinaryUserFormat() {
+    }
+
+    /**
+     * Converts a data file in json format, compressed or not, to the binary
+     * format.
+     *
+     * @param jsonPath   the json file to read
+     * @param binaryPath the binary file to write, replaced if it exists
+     * @throws IOException if the json file can not be read or the binary file can
+     *                     not be written
+     */
+    public static void convertJsonToBinary(Path jsonPath, Path binaryPath) throws IOException {
+        UsersHolder holder;
+        try (Reader reader = Compression.newReader(jsonPath)) {
+            holder = ModelGson.GSON.fromJson(reader, UsersHolder.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid json in " + jsonPath, e);
+        }
+        if (holder == null || holder.getUsers() == null) {
+            holder = new UsersHolder(new ArrayList<User>());
+        }
+        write(binaryPath, holder);
+    }
+
+    /**
+     * Converts a data file in the binary format to json format.
+     *
+     * @param binaryPath the binary file to read
+     * @param jsonPath   the json file to write, replaced if it exists
+     * @throws IOException if the binary file can not be read or the json file can
+     *                     not be written
+     */
+    public static void convertBinaryToJson(Path binaryPath, Path jsonPath) throws IOException {
+        UsersHolder holder = read(binaryPath);
+        DurableFiles.writeAtomically(jsonPath,
+                writer -> ModelGson.PRETTY_GSON.toJson(holder, writer));
+    }
+
+    /**
+     * Checks if a file starts with the magic bytes of the binary format.
+     *
+     * @param path the file to check
+     * @return true if the file is in the binary format, false if it is not or
+     *         does not exist
+     */
+    static boolean isBinary(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return Arrays.equals(MAGIC, in.readNBytes(MAGIC.length));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the users to a file in the binary format. The file is replaced
+     * atomically.
+     *
+     * @param path   the file to write
+     * @param holder the users, with the journal sequence number and data file
+     *               version to write
+     * @throws IOException if the file can not be written
+     */
+    static void write(Path path, UsersHolder holder) throws IOException {
+        DurableFiles.writeBytesAtomically(path, out -> write(out, holder));
+    }
+
+    /**
+     * Reads the data file version of a binary file, without reading the users.
+     *
+     * @param path the file to read
+     * @return the data file version
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file
+     */
+    static long readVersion(Path path) throws IOException {
+        return Decoder.openHeader(path).dataVersion;
+    }
+
+    /**
+     * Reads the journal sequence number of a binary file, without reading the
+     * users.
+     *
+     * @param path the file to read
+     * @return the sequence number of the last journal record included in the file
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file
+     */
+    static long readJournalSequence(Path path) throws IOException {
+        return Decoder.openHeader(path).journalSequence;
+    }
+
+    /**
+     * Decodes the users in a binary file one at a time and passes each of them to
+     * the action, so only one decoded user is in memory at a time.
+     *
+     * @param path   the file to read
+     * @param action the action to pass every user to
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file, or the action fails
+     */
+    static void forEachUser(Path path, StreamingUserReader.UserAction action)
+            throws IOException {
+        Decoder decoder = Decoder.open(path);
+        try {
+            int count = decoder.readCount();
+            for (int i = 0; i < count; i++) {
+                int end = decoder.readRecordStart();
+                decoder.verifyRecord(end);
+                action.accept(decoder.readUser(end, true));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt binary data file " + path, e);
+        }
+    }
+
+    /**
+     * Reads every user in a binary file.
+     *
+     * @param path the file to read
+     * @return a holder with the users and the journal sequence number
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file
+     */
+    static UsersHolder read(Path path) throws IOException {
+        Decoder decoder = Decoder.open(path);
+        List<User> users = new ArrayList<User>();
+        try {
+            int count = decoder.readCount();
+            for (int i = 0; i < count; i++) {
+                int end = decoder.readRecordStart();
+                decoder.verifyRecord(end);
+                users.add(decoder.readUser(end, true));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt binary data file " + path, e);
+        }
+        return new UsersHolder(users, decoder.journalSequence, decoder.dataVersion);
+    }
+
+    /**
+     * Reads the user with the given username from a binary file. Other users are
+     * skipped without being decoded.
+     *
+     * @param path         the file to read
+     * @param username     the username of the user to read
+     * @param passwordHash the password hash the user must have, or null to accept
+     *                     any password
+     * @param withWorkouts whether to decode the workouts of the user, or only the
+     *                     info
+     * @return a holder with the matching user, if any, and the journal sequence
+     *         number
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file
+     */
+    static UsersHolder readUser(Path path, String username, String passwordHash,
+            boolean withWorkouts) throws IOException {
+        Decoder decoder = Decoder.open(path);
+        List<User> found = new ArrayList<User>();
+        try {
+            int count = decoder.readCount();
+            for (int i = 0; i < count; i++) {
+                int end = decoder.readRecordStart();
+                int start = decoder.position();
+                if (username.equals(decoder.readString())) {
+                    decoder.seek(start);
+                    decoder.verifyRecord(end);
+                    User user = decoder.readUser(end, withWorkouts);
+                    if (passwordHash == null || passwordHash.equals(user.getPasswordHash())) {
+                        found.add(user);
+                    }
+                    break;
+                }
+                decoder.seek(end);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt binary data file " + path, e);
+        }
+        return new UsersHolder(found, decoder.journalSequence, decoder.dataVersion);
+    }
+
+    /**
+     * Reads every username in a binary file, skipping everything else.
+     *
+     * @param path the file to read
+     * @return List of usernames, in the order they are in the file
+     * @throws IOException if the file can not be read or is not a valid binary
+     *                     file
+     */
+    static List<String> readUsernames(Path path) throws IOException {
+        Decoder decoder = Decoder.open(path);
+        List<String> usernames = new ArrayList<String>();
+        try {
+            int count = decoder.readCount();
+            for (int i = 0; i < count; i++) {
+                int end = decoder.readRecordStart();
+                usernames.add(decoder.readString());
+                decoder.seek(end);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt binary data file " + path, e);
+        }
+        return usernames;
+    }
+
+    /**
+     * Reads every user in a binary file up to the first damaged one. The users
+     * are checked one at a time, by their length and checksum, and the scan stops
+     * at the first user that is cut short or does not match its checksum. If the
+     * header is damaged, no users can be read.
+     *
+     * @param path   the file to read
+     * @param report the report to count the recovered users in, and to mark as
+     *               damaged if the scan stopped early
+     * @return a holder with the recovered users, the journal sequence number and
+     *         the data file version
+     * @throws IOException if the file can not be read
+     */
+    static UsersHolder recover(Path path, RecoveryReport report) throws IOException {
+        long size = Files.size(path);
+        List<User> users = new ArrayList<User>();
+        Decoder decoder;
+        try {
+            decoder = Decoder.open(path);
+        } catch (IOException e) {
+            report.discard("damaged header", -1, size);
+            return new UsersHolder(users);
+        }
+        int count = -1;
+        int start = decoder.position();
+        try {
+            count = decoder.readCount();
+            for (int i = 0; i < count; i++) {
+                start = decoder.position();
+                int end = decoder.readRecordStart();
+                decoder.verifyRecord(end);
+                users.add(decoder.readUser(end, true));
+                report.addUser();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            String problem = e.getMessage() != null ? e.getMessage() : "user is cut short";
+            report.discard(problem, count, size - start);
+        }
+        return new UsersHolder(users, decoder.journalSequence, decoder.dataVersion);
+    }
+
+    /**
+     * Writes the users to a stream in the binary format.
+     *
+     * @param out    the stream to write to
+     * @param holder the users, with the journal sequence number and data file
+     *               version to write
+     * @throws IOException if writing fails
+     */
+    static void write(OutputStream out, UsersHolder holder) throws IOException {
+        List<User> users = holder.getUsers();
+        Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+        for (User user : users) {
+            for (Workout workout : user.getWorkoutsView()) {
+                for (Exercise exercise : workout.getExercisesView()) {
+                    names.putIfAbsent(exercise.getName(), names.size());
+                }
+            }
+        }
+
+        Encoder header = new Encoder();
+        header.writeVarLong(holder.getVersion());
+        header.writeVarLong(holder.getJournalSequence());
+        header.writeVarLong(names.size());
+        for (String name : names.keySet()) {
+            header.writeString(name);
+        }
+        header.writeVarLong(users.size());
+        Encoder start = new Encoder();
+        start.writeBytes(MAGIC);
+        start.writeByte(FORMAT_VERSION);
+        start.writeTo(out);
+        Encoder frame = new Encoder();
+        writeFramed(out, frame, header);
+
+        Encoder record = new Encoder();
+        for (User user : users) {
+            record.reset();
+            record.writeString(user.getUsername());
+            record.writeString(user.getPasswordHash());
+            record.writeString(user.getName());
+            record.writeString(user.getEmail());
+            List<Workout> workouts = user.getWorkoutsView();
+            record.writeVarLong(workouts.size());
+            for (Workout workout : workouts) {
+                record.writeSignedVarLong(workout.getEpochDay());
+                List<Exercise> exercises = workout.getExercisesView();
+                record.writeVarLong(exercises.size());
+                for (Exercise exercise : exercises) {
+                    record.writeVarLong(names.get(exercise.getName()));
+                    int setCount = exercise.getNumberOfSets();
+                    record.writeVarLong(setCount);
+                    for (int k = 0; k < setCount; k++) {
+                        record.writeSignedVarLong(exercise.getReps(k));
+                        record.writeSignedVarLong(exercise.getWeight(k));
+                    }
+                }
+            }
+            writeFramed(out, frame, record);
+        }
+    }
+
+    /**
+     * Writes encoded bytes prefixed with their length and CRC32 checksum.
+     *
+     * @param out   the stream to write to
+     * @param frame an encoder to write the length and checksum with
+     * @param bytes the encoded bytes
+     * @throws IOException if writing fails
+     */
+    private static void writeFramed(OutputStream out, Encoder frame, Encoder bytes)
+            throws IOException {
+        frame.reset();
+        frame.writeVarLong(bytes.size());
+        frame.writeInt(bytes.checksum());
+        frame.writeTo(out);
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Collects encoded bytes in memory.
+     */
+    private static class Encoder extends ByteArrayOutputStream {
+
+        void writeByte(int value) {
+            write(value);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        int checksum() {
+            CRC32 crc = new CRC32();
+            crc.update(buf, 0, count);
+            return (int) crc.getValue();
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes a string as its length plus one, followed by its UTF-8 bytes. A
+         * length of zero means null.
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            writeBytes(bytes);
+        }
+    }
+
+    /**
+     * Decodes a binary file read into memory. Opening the decoder reads the
+     * header and the name table, leaving it positioned at the user count.
+     */
+    private static final class Decoder {
+        private final ByteBuffer buffer;
+        private final long dataVersion;
+        private final long journalSequence;
+        private final String[] names;
+        // The checksum of the user record being read
+        private int recordChecksum;
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IllegalArgumentException("Missing magic bytes");
+            }
+            int formatVersion = buffer.get();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + formatVersion);
+            }
+            verifyRecord(readRecordStart());
+            dataVersion = readVarLong();
+            journalSequence = readVarLong();
+            names = new String[readCount()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString();
+            }
+        }
+
+        /**
+         * Reads the whole file and decodes its header.
+         */
+        static Decoder open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new Decoder(read(channel, channel.size()));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Not a valid binary data file " + path, e);
+            }
+        }
+
+        /**
+         * Reads only the header of the file, so the users are not read. The users
+         * can not be read with the returned decoder.
+         */
+        static Decoder openHeader(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The magic bytes, the format version and the header length
+                ByteBuffer start = read(channel, Math.min(channel.size(), MAGIC.length + 6));
+                start.position(MAGIC.length + 1);
+                long headerLength = readVarLong(start);
+                long end = start.position() + Integer.BYTES + headerLength;
+                channel.position(0);
+                return new Decoder(read(channel, Math.min(channel.size(), end)));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Not a valid binary data file " + path, e);
+            }
+        }
+
+        /**
+         * Reads bytes from the current position of the channel into a heap buffer.
+         */
+        private static ByteBuffer read(FileChannel channel, long length) throws IOException {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Binary data file is too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return buffer.flip();
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        /**
+         * Reads the length and checksum of the next record, leaving the decoder at
+         * the start of the record.
+         *
+         * @return the position of the end of the record
+         */
+        int readRecordStart() {
+            int length = readCount();
+            if (buffer.remaining() < length + Integer.BYTES) {
+                throw new IllegalArgumentException("Record is cut short");
+            }
+            recordChecksum = buffer.getInt();
+            return buffer.position() + length;
+        }
+
+        /**
+         * Checks the checksum of the record from the current position to the end,
+         * without moving the decoder.
+         *
+         * @param end the position of the end of the record
+         */
+        void verifyRecord(int end) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().limit(end));
+            if ((int) crc.getValue() != recordChecksum) {
+                throw new IllegalArgumentException("Checksum mismatch at byte " + position());
+            }
+        }
+
+        void seek(int position) {
+            buffer.position(position);
+        }
+
+        long readVarLong() {
+            return readVarLong(buffer);
+        }
+
+        private static long readVarLong(ByteBuffer buffer) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Variable length number is too long");
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readSignedVarInt() {
+            return Math.toIntExact(readSignedVarLong());
+        }
+
+        /**
+         * Reads a count or length, which can not be larger than the bytes left.
+         */
+        int readCount() {
+            long value = readVarLong();
+            if (value > buffer.remaining()) {
+                throw new IllegalArgumentException("Count is larger than the file");
+            }
+            return (int) value;
+        }
+
+        String readString() {
+            int length = readCount();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        User readUser(int end, boolean withWorkouts) {
+            String username = readString();
+            String passwordHash = readString();
+            String name = readString();
+            String email = readString();
+            User user = User.withPasswordHash(name, username, passwordHash, email);
+            if (!withWorkouts) {
+                seek(end);
+                return user;
+            }
+            int workoutCount = readCount();
+            for (int i = 0; i < workoutCount; i++) {
+                Workout workout = new Workout(LocalDate.ofEpochDay(readSignedVarLong()));
+                int exerciseCount = readCount();
+                for (int j = 0; j < exerciseCount; j++) {
+                    int nameIndex = readCount();
+                    if (nameIndex >= names.length) {
+                        throw new IllegalArgumentException("Unknown exercise name");
+                    }
+                    Exercise exercise = Exercise.withStoredName(names[nameIndex]);
+                    int setCount = readCount();
+                    for (int k = 0; k < setCount; k++) {
+                        int reps = readSignedVarInt();
+                        exercise.addSet(reps, readSignedVarInt());
+                    }
+                    workout.addExercise(exercise);
+                }
+                user.addWorkout(workout);
+            }
+            if (buffer.position() != end) {
+                throw new IllegalArgumentException("User record has the wrong length");
+            }
+            return user;
+        }
+    }
+}
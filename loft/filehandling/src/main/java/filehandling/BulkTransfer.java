@@ -0,0 +1,295 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports and exports users and workouts in bulk, as newline-delimited json. It
+ * is meant for moving large amounts of history into or out of the store, where
+ * adding workouts one by one would rewrite the data file for every workout.
+ * <p>
+ * Every line holds one json object. A user line holds the user under "user",
+ * with the same fields as in the data file. A workout line holds the username
+ * under "username" and the workout under "workout", and belongs to the user of
+ * the closest user line above it:
+ * </p>
+ *
+ * <pre>
+ * {"user":{"name":"Test","username":"test","passwordHash":"...","email":"..."}}
+ * {"username":"test","workout":{"date":"2023-10-01","exercises":[...]}}
+ * </pre>
+ * <p>
+ * Files are read and written as streams, so only the user being read or written
+ * and its workouts are in memory, no matter how large the file is. The store is
+ * written in one pass, in whichever mode {@link DirectLoftAccess} is set up with.
+ * Lines that can not be parsed, workouts that do not follow their user, and
+ * users whose username is already taken are skipped and counted in the
+ * {@link Report}.
+ * </p>
+ * <p>
+ * The class can be run from the command line with "import" or "export", the
+ * newline-delimited json file and the data file location, and prints the report.
+ * </p>
+ */
+public final class BulkTransfer {
+    private static final Gson gson = ModelGson.GSON;
+
+    private BulkTransfer() {
+    }
+
+    /**
+     * Imports the users and workouts in the given file into the store.
+     *
+     * @param source the newline-delimited json file to read
+     * @return a report of what was imported
+     * @throws IOException           if the file can not be read or the store can
+     *                               not be written
+     * @throws IllegalStateException if the resident cache is enabled
+     */
+    public static Report importUsers(Path source) throws IOException {
+        Report report = new Report();
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            DirectLoftAccess.importUsers(new UserLines(reader, report), report);
+        }
+        report.finish();
+        return report;
+    }
+
+    /**
+     * Exports every user and workout in the store to the given file. The file is
+     * replaced atomically.
+     *
+     * @param target the newline-delimited json file to write
+     * @return a report of what was exported
+     * @throws IOException if the store can not be read or the file can not be
+     *                     written
+     */
+    public static Report exportUsers(Path target) throws IOException {
+        Report report = new Report();
+        DurableFiles.writeAtomically(target,
+                writer -> DirectLoftAccess.exportUsers(user -> writeUser(writer, user, report)));
+        report.finish();
+        return report;
+    }
+
+    /**
+     * Runs an import or export from the command line.
+     *
+     * @param args "import" or "export", the newline-delimited json file, and
+     *             optionally the location of the data file
+     * @throws IOException if the transfer fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !args[0].equals("import") && !args[0].equals("export")) {
+            System.err.println("Usage: BulkTransfer import|export <file.ndjson> [data file]");
+            return;
+        }
+        if (args.length > 2) {
+            DirectLoftAccess.setFileLocation(args[2]);
+        }
+        Path file = Paths.get(args[1]);
+        Report report = args[0].equals("import") ? importUsers(file) : exportUsers(file);
+        System.out.println(report);
+    }
+
+    /**
+     * Writes a user line, followed by a line for every workout of the user.
+     *
+     * @param writer the writer to write to
+     * @param user   the user to write
+     * @param report the report to count the user and workouts in
+     * @throws IOException if writing fails
+     */
+    private static void writeUser(Writer writer, User user, Report report) throws IOException {
+        writer.write(gson.toJson(new Line(User.withPasswordHash(user.getName(),
+                user.getUsername(), user.getPasswordHash(), user.getEmail()))));
+        writer.write('\n');
+        for (Workout workout : user.getWorkoutsView()) {
+            writer.write(gson.toJson(new Line(user.getUsername(), workout)));
+            writer.write('\n');
+        }
+        report.addUser(user);
+    }
+
+    /**
+     * Reads users from newline-delimited json one at a time. A user is returned
+     * once the next user line is reached, together with the workouts on the lines
+     * in between. Reading failures are thrown as {@link UncheckedIOException}.
+     */
+    private static final class UserLines implements Iterator<User> {
+        private final BufferedReader reader;
+        private final Report report;
+        // The user whose workout lines are being read
+        private User current;
+        private User next;
+
+        UserLines(BufferedReader reader, Report report) {
+            this.reader = reader;
+            this.report = report;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            User user = next;
+            next = null;
+            return user;
+        }
+
+        private User readNext() {
+            String text;
+            try {
+                while ((text = reader.readLine()) != null) {
+                    if (text.isBlank()) {
+                        continue;
+                    }
+                    Line line;
+                    try {
+                        line = gson.fromJson(text, Line.class);
+                    } catch (JsonParseException e) {
+                        line = null;
+                    }
+                    if (line != null && line.user != null && line.user.getUsername() != null
+                            && line.user.getPasswordHash() != null) {
+                        User done = current;
+                        current = line.user;
+                        if (done != null) {
+                            return done;
+                        }
+                    } else if (line != null && line.workout != null && current != null
+                            && current.getUsername().equals(line.username)) {
+                        current.addWorkout(line.workout);
+                    } else {
+                        report.addSkipped();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            User done = current;
+            current = null;
+            return done;
+        }
+    }
+
+    /**
+     * One line in the file, either a user or a workout.
+     */
+    private static class Line {
+        private User user;
+        private String username;
+        private Workout workout;
+
+        Line(User user) {
+            this.user = user;
+        }
+
+        Line(String username, Workout workout) {
+            this.username = username;
+            this.workout = workout;
+        }
+    }
+
+    /**
+     * How many users and workouts a transfer moved, how many lines or users it
+     * skipped, and how long it took.
+     */
+    public static final class Report {
+        private final long startNanos = System.nanoTime();
+        private long elapsedNanos;
+        private long users;
+        private long workouts;
+        private long skipped;
+
+        Report() {
+        }
+
+        void addUser(User user) {
+            users++;
+            workouts += user.getNumberOfWorkouts();
+        }
+
+        void addSkipped() {
+            skipped++;
+        }
+
+        void finish() {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Returns the number of users that were transferred.
+         *
+         * @return the number of users
+         */
+        public long getUsers() {
+            return users;
+        }
+
+        /**
+         * Returns the number of workouts that were transferred.
+         *
+         * @return the number of workouts
+         */
+        public long getWorkouts() {
+            return workouts;
+        }
+
+        /**
+         * Returns the number of lines or users that were skipped.
+         *
+         * @return the number skipped
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns how long the transfer took.
+         *
+         * @return the duration in milliseconds
+         */
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * Returns how many workouts were transferred per second.
+         *
+         * @return the throughput in workouts per second
+         */
+        public double getWorkoutsPerSecond() {
+            return elapsedNanos == 0 ? 0 : workouts * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d users, %d workouts, %d skipped in %d ms (%.0f workouts/s)",
+                    users, workouts, skipped, getMillis(), getWorkoutsPerSecond());
+        }
+    }
+}
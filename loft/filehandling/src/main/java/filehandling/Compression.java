@@ -0,0 +1,107 @@
+package filehandling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes json files that may be compressed with gzip. Compressed files
+ * are detected by the gzip magic bytes, so readers do not need to know how a
+ * file was written. Both reading and writing stream through the compressor, so
+ * the uncompressed file is never held in memory as a whole.
+ * <p>
+ * The class is package-private and is used by {@link DataFileStorageEngine} and the
+ * readers of the data file.
+ * </p>
+ */
+final class Compression {
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int BUFFER_SIZE = 8192;
+
+    private Compression() {
+    }
+
+    /**
+     * Checks if a file starts with the gzip magic bytes.
+     *
+     * @param path the file to check
+     * @return true if the file is compressed, false if it is not or does not exist
+     */
+    static boolean isCompressed(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a UTF-8 reader for a text file, decompressing it while reading if it
+     * starts with the gzip magic bytes.
+     *
+     * @param path the file to read
+     * @return a buffered reader for the uncompressed text
+     * @throws IOException if the file can not be opened
+     */
+    static BufferedReader newReader(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        try {
+            in.mark(2);
+            boolean compressed = in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+            in.reset();
+            if (compressed) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        return new BufferedReader(reader, BUFFER_SIZE);
+    }
+
+    /**
+     * Replaces the target file with the text written by the given action,
+     * compressed with gzip. The file is replaced atomically, like
+     * {@link DurableFiles#writeAtomically(Path, DurableFiles.WriterAction)}.
+     *
+     * @param target the file to replace
+     * @param action writes the uncompressed text
+     * @throws IOException if writing or renaming fails, in which case the target
+     *                     is left unchanged
+     */
+    static void writeCompressed(Path target, DurableFiles.WriterAction action)
+            throws IOException {
+        DurableFiles.writeBytesAtomically(target, gzip(action));
+    }
+
+    /**
+     * Returns an action that writes the text written by the given action,
+     * compressed with gzip.
+     *
+     * @param action writes the uncompressed text
+     * @return the action writing the compressed text
+     */
+    static DurableFiles.StreamAction gzip(DurableFiles.WriterAction action) {
+        return out -> {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+            action.write(writer);
+            writer.flush();
+            gzip.finish();
+        };
+    }
+}
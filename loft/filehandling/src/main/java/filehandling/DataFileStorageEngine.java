@@ -0,0 +1,1249 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The built-in storage engine of {@link DirectLoftAccess}, which keeps every user
+ * in one data file. It is used unless another engine is selected or sharded
+ * storage is enabled.
+ * <p>
+ * By default the file is read on every call. With the resident cache the file is
+ * instead read once into memory and written back in the background. With the
+ * workout journal new workouts are appended to a journal next to the file
+ * instead of rewriting the whole file, and the journal is folded into the file
+ * every so often, or in the background. Looking up a single user streams through
+ * the file and only reads the requested user into memory, and the username index
+ * answers whether a username is taken without reading the file at all.
+ * </p>
+ * <p>
+ * Every write holds a {@link FileStoreLock}, and the data file has a version that
+ * grows by one on every write, so several processes can share the file. A change
+ * that finds a newer version than the one it read is applied again to the new
+ * users instead of overwriting them.
+ * </p>
+ * <p>
+ * The settings are kept when the engine is moved to another data file with
+ * {@link #moveTo(String)}, and are documented on the methods of
+ * {@link DirectLoftAccess} that change them. The class is package-private and is
+ * only used by {@link DirectLoftAccess}.
+ * </p>
+ */
+final class DataFileStorageEngine implements StorageEngine {
+
+    /**
+     * A change to the list of users in the data file. If another process writes
+     * the file after the users were read, the change is applied again to the
+     * users in the new file, so it must not change anything outside the list.
+     */
+    @FunctionalInterface
+    interface UsersChange {
+        /**
+         * Applies the change.
+         *
+         * @param users the users to change
+         * @return true if the users should be written, false to write nothing
+         */
+        boolean apply(List<User> users);
+    }
+
+    private final String location;
+    private final Path path;
+
+    // Zero means the resident cache is disabled
+    private long cacheFlushIntervalMillis;
+    private ResidentUserCache cache;
+
+    // Zero means the workout journal is disabled. Volatile, like
+    // usernameIndexEnabled, so writing the users can check them without
+    // writeLock, which a cache flush must never wait for
+    private volatile int journalCompactionThreshold;
+    private long groupCommitMillis;
+    private final WorkoutJournal journal;
+    private final Object journalLock = new Object();
+    private JournalCompactor compactor;
+    private long compactionCheckMillis;
+    private long compactionMaxBytes;
+    private long compactionMaxAgeMillis;
+
+    private volatile boolean usernameIndexEnabled;
+    private final UsernameIndex usernameIndex;
+
+    private boolean binaryFormat;
+    private boolean compression;
+
+    // Held while reading and writing users, so changes from different threads
+    // are not lost
+    private final Object writeLock = new Object();
+
+    // Locks the data file against other processes
+    private final FileStoreLock storeLock;
+    // The version of the data file as last read or written by this process
+    private long seenVersion = -1;
+    private final Object versionLock = new Object();
+    private final AtomicLong conflictCount;
+
+    /**
+     * Constructor for the DataFileStorageEngine class, with every option
+     * disabled.
+     *
+     * @param location the location of the data file
+     */
+    DataFileStorageEngine(String location) {
+        this(location, null);
+    }
+
+    private DataFileStorageEngine(String location, DataFileStorageEngine settings) {
+        this.location = location;
+        this.path = Paths.get(location);
+        if (settings == null) {
+            conflictCount = new AtomicLong();
+        } else {
+            cacheFlushIntervalMillis = settings.cacheFlushIntervalMillis;
+            journalCompactionThreshold = settings.journalCompactionThreshold;
+            groupCommitMillis = settings.groupCommitMillis;
+            compactionCheckMillis = settings.compactionCheckMillis;
+            compactionMaxBytes = settings.compactionMaxBytes;
+            compactionMaxAgeMillis = settings.compactionMaxAgeMillis;
+            usernameIndexEnabled = settings.usernameIndexEnabled;
+            binaryFormat = settings.binaryFormat;
+            compression = settings.compression;
+            conflictCount = settings.conflictCount;
+        }
+        this.journal = new WorkoutJournal(location,
+                this::readJournalSequence, groupCommitMillis);
+        this.usernameIndex = new UsernameIndex(location);
+        this.storeLock = new FileStoreLock(location);
+    }
+
+    /**
+     * Returns the location of the data file.
+     *
+     * @return the data file location
+     */
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * Closes this engine and returns an engine for another data file, with the
+     * same settings. The resident cache is flushed to this data file first.
+     *
+     * @param newLocation the location of the other data file
+     * @return the engine for the other data file
+     */
+    DataFileStorageEngine moveTo(String newLocation) {
+        synchronized (writeLock) {
+            DataFileStorageEngine moved = new DataFileStorageEngine(newLocation, this);
+            close();
+            return moved;
+        }
+    }
+
+    /**
+     * Stops the background threads, and writes any unsaved changes in the
+     * resident cache to the data file.
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            closeCache();
+        }
+        synchronized (journalLock) {
+            if (compactor != null) {
+                compactor.close();
+                compactor = null;
+            }
+        }
+    }
+
+    // Resident cache
+
+    /**
+     * Enables the resident cache. See
+     * {@link DirectLoftAccess#enableResidentCache(long)}.
+     *
+     * @param flushIntervalMillis how often changes are written to the file
+     * @throws IllegalArgumentException if the flush interval is not positive
+     */
+    void enableResidentCache(long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        synchronized (writeLock) {
+            closeCache();
+            cacheFlushIntervalMillis = flushIntervalMillis;
+        }
+    }
+
+    /**
+     * Disables the resident cache, writing any unsaved changes to the file first.
+     *
+     * @return true if all changes were written, false otherwise
+     */
+    boolean disableResidentCache() {
+        synchronized (writeLock) {
+            cacheFlushIntervalMillis = 0;
+            return closeCache();
+        }
+    }
+
+    /**
+     * Writes any unsaved changes in the resident cache to the file right away.
+     *
+     * @return true if the file is up to date, false if writing failed
+     */
+    boolean flushResidentCache() {
+        synchronized (writeLock) {
+            return cache == null || cache.flush();
+        }
+    }
+
+    private boolean closeCache() {
+        boolean flushed = cache == null || cache.close();
+        cache = null;
+        return flushed;
+    }
+
+    /**
+     * Returns the resident cache, reading the data file into it the first time.
+     *
+     * @return the resident cache, or null if the cache is disabled
+     */
+    private ResidentUserCache getCache() {
+        synchronized (writeLock) {
+            if (cacheFlushIntervalMillis == 0) {
+                return null;
+            }
+            if (cache == null) {
+                cache = new ResidentUserCache(location, readFileUsers(),
+                        this::writeUsers, cacheFlushIntervalMillis);
+            }
+            return cache;
+        }
+    }
+
+    // Workout journal
+
+    /**
+     * Enables the workout journal. See {@link DirectLoftAccess#enableJournal(int)}.
+     *
+     * @param compactionThreshold the number of records that triggers compaction
+     * @throws IllegalArgumentException if the threshold is not positive
+     */
+    void enableJournal(int compactionThreshold) {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        synchronized (writeLock) {
+            journalCompactionThreshold = compactionThreshold;
+        }
+    }
+
+    /**
+     * Disables the workout journal, folding any records in it into the data file
+     * first.
+     *
+     * @return true if the journal was folded into the data file, false otherwise
+     */
+    boolean disableJournal() {
+        synchronized (writeLock) {
+            journalCompactionThreshold = 0;
+            boolean compacted = compactJournal();
+            if (!usernameIndexEnabled) {
+                usernameIndex.delete();
+            }
+            return compacted;
+        }
+    }
+
+    /**
+     * Folds the records in the workout journal into the data file and clears the
+     * journal. If the resident cache is enabled, the cache is flushed instead,
+     * which clears the journal as well.
+     *
+     * @return true if the journal was folded into the data file, false otherwise
+     */
+    boolean compactJournal() {
+        synchronized (writeLock) {
+            ResidentUserCache cache = getCache();
+            if (cache != null) {
+                return cache.flush();
+            }
+            if (journal.size() == 0) {
+                return true;
+            }
+            return rewriteDataFile();
+        }
+    }
+
+    /**
+     * Sets the group commit window of the workout journal. See
+     * {@link DirectLoftAccess#setGroupCommitWindow(long)}.
+     *
+     * @param windowMillis the group commit window in milliseconds
+     * @throws IllegalArgumentException if the window is negative
+     */
+    void setGroupCommitWindow(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Group commit window can not be negative");
+        }
+        synchronized (journalLock) {
+            groupCommitMillis = windowMillis;
+            journal.setGroupCommitWindow(windowMillis);
+        }
+    }
+
+    /**
+     * Enables folding the workout journal into the data file in the background.
+     * See {@link DirectLoftAccess#enableBackgroundCompaction(long, long, long)}.
+     *
+     * @param checkIntervalMillis how often the journal is checked
+     * @param maxJournalBytes     the journal size that triggers a fold
+     * @param maxAgeMillis        how long the journal may hold records
+     * @throws IllegalArgumentException if the interval is not positive, a threshold
+     *                                  is negative, or both thresholds are 0
+     */
+    void enableBackgroundCompaction(long checkIntervalMillis, long maxJournalBytes,
+            long maxAgeMillis) {
+        synchronized (journalLock) {
+            JournalCompactor newCompactor = new JournalCompactor(location,
+                    checkIntervalMillis, maxJournalBytes, maxAgeMillis,
+                    this::foldJournalInBackground);
+            if (compactor != null) {
+                compactor.close();
+            }
+            compactor = newCompactor;
+            compactionCheckMillis = checkIntervalMillis;
+            compactionMaxBytes = maxJournalBytes;
+            compactionMaxAgeMillis = maxAgeMillis;
+        }
+    }
+
+    /**
+     * Disables folding the workout journal in the background.
+     */
+    void disableBackgroundCompaction() {
+        synchronized (journalLock) {
+            if (compactor != null) {
+                compactor.close();
+                compactor = null;
+            }
+            compactionCheckMillis = 0;
+        }
+    }
+
+    /**
+     * Returns the background compactor, starting it if it is enabled and not
+     * running yet.
+     *
+     * @return the compactor, or null if background compaction is disabled
+     */
+    JournalCompactor getCompactor() {
+        synchronized (journalLock) {
+            if (compactionCheckMillis <= 0) {
+                return null;
+            }
+            if (compactor == null) {
+                compactor = new JournalCompactor(location, compactionCheckMillis,
+                        compactionMaxBytes, compactionMaxAgeMillis,
+                        this::foldJournalInBackground);
+            }
+            return compactor;
+        }
+    }
+
+    /**
+     * Folds the workout journal into the data file, for the background compactor.
+     * The users are read and the new data file is written to a temporary file
+     * without holding any lock. The lock of the data file is only held to rename
+     * the new file into place and to remove the folded records from the journal.
+     * If the data file was written by anyone else meanwhile, the new file is
+     * thrown away and nothing is folded.
+     *
+     * @return the number of bytes removed from the journal, or -1 if nothing was
+     *         folded
+     */
+    private long foldJournalInBackground() {
+        if (getCache() != null) {
+            // The journal belongs to the cache
+            return -1;
+        }
+        UsersHolder read = readHolder();
+        long folded = journal.replay(read.getUsers(), read.getJournalSequence());
+        UsersHolder holder = new UsersHolder(read.getUsers(), folded, read.getVersion() + 1);
+        Path temp;
+        try {
+            temp = DurableFiles.writeTemporary(path, dataFileContent(holder));
+        } catch (IOException e) {
+            return -1;
+        }
+        try {
+            return withStoreLock(() -> {
+                if (readVersion() != read.getVersion()) {
+                    return -1L;
+                }
+                try {
+                    DurableFiles.replace(temp, path);
+                } catch (IOException e) {
+                    return -1L;
+                }
+                synchronized (versionLock) {
+                    seenVersion = holder.getVersion();
+                }
+                return Math.max(0, journal.trim(folded));
+            }, -1L);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                System.err.println("Deleting " + temp + " failed");
+            }
+        }
+    }
+
+    // Username index
+
+    /**
+     * Enables the username index. See {@link DirectLoftAccess#enableUsernameIndex()}.
+     */
+    void enableUsernameIndex() {
+        synchronized (writeLock) {
+            usernameIndexEnabled = true;
+        }
+    }
+
+    /**
+     * Disables the username index and deletes the index file.
+     *
+     * @return true if the index file was deleted or did not exist, false otherwise
+     */
+    boolean disableUsernameIndex() {
+        synchronized (writeLock) {
+            usernameIndexEnabled = false;
+            // The journal rebuilds the index file if it still needs it
+            return usernameIndex.delete();
+        }
+    }
+
+    /**
+     * Returns the username index if it is enabled, or if the workout journal is
+     * enabled, which needs it to append without reading the data file. Does not
+     * take writeLock, since it is called when the resident cache is flushed, while
+     * writers holding writeLock wait for the cache.
+     *
+     * @return the username index, or null if neither is enabled
+     */
+    private UsernameIndex getUsernameIndex() {
+        return usernameIndexEnabled || journalCompactionThreshold > 0 ? usernameIndex : null;
+    }
+
+    // Formats
+
+    /**
+     * Enables or disables the binary format, and converts the data file right
+     * away if it is in another format.
+     *
+     * @param enabled true to write the binary format, false to write json
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    boolean setBinaryFormat(boolean enabled) {
+        synchronized (writeLock) {
+            binaryFormat = enabled;
+            return convertDataFile();
+        }
+    }
+
+    /**
+     * Enables or disables compression of the json data file, and converts the
+     * data file right away if it is in another format.
+     *
+     * @param enabled true to compress the json with gzip, false to write plain json
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    boolean setCompression(boolean enabled) {
+        synchronized (writeLock) {
+            compression = enabled;
+            return convertDataFile();
+        }
+    }
+
+    /**
+     * Rewrites the data file if it is not in the format that is currently
+     * enabled.
+     *
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    private boolean convertDataFile() {
+        if (!Files.exists(path)) {
+            return true;
+        }
+        boolean binary = BinaryUserFormat.isBinary(path);
+        if (binary == binaryFormat
+                && (binary || Compression.isCompressed(path) == compression)) {
+            return true;
+        }
+        return rewriteDataFile();
+    }
+
+    // Recovery
+
+    /**
+     * Scans the data file for damage and repairs it. See
+     * {@link DirectLoftAccess#recoverDataFile()}.
+     *
+     * @return a report of the users that were recovered and what was discarded
+     * @throws UncheckedIOException if the data file can not be locked
+     */
+    RecoveryReport recoverDataFile() {
+        synchronized (writeLock) {
+            return storeLock.withLock(() -> {
+                RecoveryReport report = new RecoveryReport();
+                if (!Files.exists(path)) {
+                    return report;
+                }
+                UsersHolder holder = scanDataFile(report);
+                if (report.isDamaged()) {
+                    keepDamagedCopy();
+                    journal.replay(holder.getUsers(), holder.getJournalSequence());
+                    report.setRepaired(writeUsers(holder.getUsers()));
+                }
+                return report;
+            });
+        }
+    }
+
+    // Storage engine
+
+    @Override
+    public User readUser(String username, boolean withWorkouts) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            User user = cache.getUser(username);
+            if (user == null) {
+                return null;
+            }
+            // The cached user belongs to a snapshot that others may be reading
+            return withWorkouts ? copyUser(user, user) : copyUser(user, null);
+        }
+        if (withWorkouts) {
+            return findUser(username);
+        }
+        try {
+            UsersHolder holder = StreamingUserReader.readUser(path, username, null, false);
+            return holder.getUsers().isEmpty() ? null : holder.getUsers().get(0);
+        } catch (NoSuchFileException e) {
+            // No file means no users
+            return null;
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+    }
+
+    @Override
+    public List<String> readUsernames() {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            return cache.getUsers().stream().map(User::getUsername)
+                    .collect(Collectors.toList());
+        }
+        try {
+            return StreamingUserReader.readUsernames(path);
+        } catch (NoSuchFileException e) {
+            // No file means no users
+            return new ArrayList<String>();
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+    }
+
+    @Override
+    public boolean containsUsername(String username) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            return cache.containsUsername(username);
+        }
+        UsernameIndex index = getUsernameIndex();
+        if (index != null) {
+            return index.contains(username);
+        }
+        try {
+            return StreamingUserReader.containsUsername(path, username);
+        } catch (NoSuchFileException e) {
+            // No file means no users
+            return false;
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc} With the username index or the workout journal enabled, the
+     * hash is read from the index, without reading the data file.
+     */
+    @Override
+    public String readPasswordHash(String username) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            User user = cache.getUser(username);
+            return user == null ? null : user.getPasswordHash();
+        }
+        UsernameIndex index = getUsernameIndex();
+        if (index != null) {
+            return index.getPasswordHash(username);
+        }
+        return StorageEngine.super.readPasswordHash(username);
+    }
+
+    @Override
+    public boolean insertUser(User user) {
+        synchronized (writeLock) {
+            ResidentUserCache cache = getCache();
+            if (cache != null) {
+                return cache.insertUser(copyUser(user, user));
+            }
+            UsernameIndex index = getUsernameIndex();
+            if (index != null && index.contains(user.getUsername())) {
+                return false;
+            }
+            return changeUsers(users -> {
+                if (findUser(users, user.getUsername()) != null) {
+                    return false;
+                }
+                users.add(copyUser(user, user));
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public boolean addWorkout(String username, Workout workout) {
+        return addWorkouts(username, List.of(workout));
+    }
+
+    /**
+     * {@inheritDoc} The workouts are saved with a single read and write of the
+     * data file, or a single append and sync of the journal.
+     */
+    @Override
+    public boolean addWorkouts(String username, List<Workout> workouts) {
+        synchronized (writeLock) {
+            if (journalCompactionThreshold <= 0) {
+                ResidentUserCache cache = getCache();
+                if (cache != null) {
+                    return cache.addWorkouts(username, workouts);
+                }
+                return changeUsers(users -> {
+                    User savedUser = findUser(users, username);
+                    if (savedUser == null) {
+                        return false;
+                    }
+                    workouts.forEach(savedUser::addWorkout);
+                    return true;
+                });
+            }
+            if (!appendToJournal(username, workouts)) {
+                return false;
+            }
+        }
+        // Syncing outside the lock lets writers that arrive meanwhile share the sync
+        return journal.sync();
+    }
+
+    @Override
+    public boolean updateUser(String oldUsername, User newUser) {
+        synchronized (writeLock) {
+            ResidentUserCache cache = getCache();
+            if (cache != null) {
+                return cache.updateUser(oldUsername, newUser);
+            }
+            return changeUsers(users -> {
+                User oldUser = findUser(users, oldUsername);
+                if (oldUser == null || (!oldUsername.equals(newUser.getUsername())
+                        && findUser(users, newUser.getUsername()) != null)) {
+                    return false;
+                }
+                users.remove(oldUser);
+                users.add(copyUser(newUser, oldUser));
+                return true;
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The data file is written in a single pass while holding its lock, with the
+     * users already in it copied over one at a time. It is written as json, or as
+     * gzip compressed json if compression is enabled, since the binary format
+     * needs every exercise name before the first user.
+     * </p>
+     *
+     * @throws IllegalStateException if the resident cache is enabled
+     */
+    @Override
+    public void insertUsers(Iterator<User> users, BulkTransfer.Report report)
+            throws IOException {
+        if (getCache() != null) {
+            throw new IllegalStateException("Can not import while the resident cache is enabled");
+        }
+        try {
+            storeLock.withLock(() -> {
+                refreshJournal();
+                long version = readVersion() + 1;
+                Map<String, String> passwordHashes = new HashMap<String, String>();
+                try {
+                    DurableFiles.WriterAction json = writer -> writeImportedUsers(writer,
+                            version, users, passwordHashes, report);
+                    DurableFiles.writeBytesAtomically(path,
+                            compression ? Compression.gzip(json) : DurableFiles.utf8(json));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                synchronized (versionLock) {
+                    seenVersion = version;
+                }
+                journal.clear(journal.getLastSequence());
+                UsernameIndex index = getUsernameIndex();
+                if (index != null) {
+                    index.update(passwordHashes);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * {@inheritDoc} Users in the data file are read one at a time while holding
+     * its lock.
+     *
+     * @throws UncheckedIOException if the data file can not be read
+     */
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            cache.getUsers().forEach(action);
+            return;
+        }
+        storeLock.withLock(() -> {
+            try {
+                forEachFileUser(action::accept);
+            } catch (IOException e) {
+                // The action only throws unchecked exceptions, so the file is damaged
+                throw damaged(e);
+            }
+            return null;
+        });
+    }
+
+    // Reading and writing the data file
+
+    /**
+     * Returns every user, from the resident cache if it is enabled and from the
+     * data file otherwise.
+     *
+     * @return List of users
+     */
+    List<User> readUsers() {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            return cache.getUsers();
+        }
+        return readFileUsers();
+    }
+
+    /**
+     * Replaces every user, in the resident cache if it is enabled and in the data
+     * file otherwise.
+     *
+     * @param newUsers the users to store
+     * @return true if successful, false otherwise
+     */
+    boolean replaceUsers(List<User> newUsers) {
+        synchronized (writeLock) {
+            ResidentUserCache cache = getCache();
+            if (cache != null) {
+                cache.setUsers(newUsers);
+                return true;
+            }
+            return writeUsers(newUsers);
+        }
+    }
+
+    /**
+     * Applies a change to the users and writes them, to the resident cache if it
+     * is enabled and to the data file otherwise. The users are read and changed
+     * without holding the lock of the data file. If another process has written
+     * the file when the lock is taken, the users are read again and the change is
+     * applied to them instead. The same happens if another process has appended
+     * to the workout journal.
+     * <p>
+     * The data file has one version for all users, not one per user, so every
+     * change rewrites the whole file, and a conflict applies the change again to
+     * the whole list even if the other process changed a different user.
+     * Retrying only the user that changed is out of scope for the data file.
+     * Sharded storage and the key-value engine write one user at a time instead.
+     * With the resident cache enabled, the change is applied to copies of every
+     * user; writes to a single user go to the cache directly instead, so they
+     * only copy the user they change.
+     * </p>
+     *
+     * @param change the change to apply
+     * @return true if the change was written, false if it wrote nothing, writing
+     *         failed or the data file could not be locked
+     */
+    boolean changeUsers(UsersChange change) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            List<User> users = cache.copyUsers();
+            if (!change.apply(users)) {
+                return false;
+            }
+            cache.setUsers(users);
+            return true;
+        }
+        UsersHolder holder = readUsersHolder();
+        long journalSequence = journal.getLastSequence();
+        List<User> users = holder.getUsers();
+        if (!change.apply(users)) {
+            return false;
+        }
+        return withStoreLock(() -> {
+            refreshJournal();
+            // Appends to the journal do not change the version, so it is checked too
+            if (readVersion() == holder.getVersion()
+                    && journal.getLastSequence() == journalSequence) {
+                return writeUsers(users);
+            }
+            conflictCount.incrementAndGet();
+            List<User> currentUsers = readFileUsers();
+            return change.apply(currentUsers) && writeUsers(currentUsers);
+        }, false);
+    }
+
+    /**
+     * Returns how many changes found that another process had written the data
+     * file after they read it, and were applied again.
+     *
+     * @return the number of conflicting changes
+     */
+    long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /**
+     * Appends workouts to the workout journal instead of rewriting the data file.
+     * If the resident cache is enabled, the workouts are added to the cache as
+     * well. Otherwise the journal is folded into the data file once it is large
+     * enough. Must be called while holding the write lock.
+     *
+     * @param username the username of the user to add the workouts to
+     * @param workouts the workouts to append
+     * @return true if the workouts were appended, false if the user does not
+     *         exist or appending failed
+     */
+    private boolean appendToJournal(String username, List<Workout> workouts) {
+        ResidentUserCache cache = getCache();
+        if (cache != null) {
+            for (Workout workout : workouts) {
+                if (!cache.addWorkout(username, workout,
+                        () -> journal.append(username, workout))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!containsUsername(username)) {
+            return false;
+        }
+        return withStoreLock(() -> {
+            refreshJournal();
+            for (Workout workout : workouts) {
+                if (!journal.append(username, workout)) {
+                    return false;
+                }
+            }
+            if (journal.size() >= journalCompactionThreshold && getCompactor() == null) {
+                rewriteDataFile();
+            }
+            return true;
+        }, false);
+    }
+
+    /**
+     * Reads the users in the data file, including workouts that are still in the
+     * workout journal. If no file exists, it will return an empty list.
+     *
+     * @return List of users
+     */
+    private List<User> readFileUsers() {
+        return readUsersHolder().getUsers();
+    }
+
+    /**
+     * Reads the data file, and adds the workouts that are still in the workout
+     * journal to the users. If no file exists, it will return an empty holder.
+     *
+     * @return the users holder in the file, with the journal replayed
+     */
+    private UsersHolder readUsersHolder() {
+        // The journal is opened first, so it matches the data file without a lock
+        try (FileChannel opened = journal.open()) {
+            UsersHolder holder = readHolder();
+            journal.replay(holder.getUsers(), holder.getJournalSequence(), opened);
+            return holder;
+        } catch (IOException e) {
+            // Only closing the journal failed
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the data file. If no file exists, it will return an empty holder.
+     *
+     * @return the users holder in the file
+     * @throws IllegalStateException if the data file is damaged
+     */
+    private UsersHolder readHolder() {
+        UsersHolder holder = null;
+        try {
+            if (BinaryUserFormat.isBinary(path)) {
+                return BinaryUserFormat.read(path);
+            }
+            try (Reader reader = Compression.newReader(path)) {
+                holder = ModelGson.GSON.fromJson(reader, UsersHolder.class);
+            }
+        } catch (NoSuchFileException e) {
+            // It is fine if no file exists. We will create a new one later.
+        } catch (IOException | JsonParseException e) {
+            throw damaged(e);
+        }
+        if (holder == null || holder.getUsers() == null) {
+            // An empty file
+            return new UsersHolder(new ArrayList<User>());
+        }
+        return holder;
+    }
+
+    /**
+     * Returns the exception for a data file that can not be read. The file is
+     * left as it is, so no write replaces it with only the users before the
+     * damage. It is repaired by {@link #recoverDataFile()}.
+     *
+     * @param cause the reason the file can not be read
+     * @return the exception to throw
+     */
+    private IllegalStateException damaged(Exception cause) {
+        return new IllegalStateException("Data file " + path
+                + " is damaged, and must be recovered with recoverDataFile", cause);
+    }
+
+    /**
+     * Runs a recovery scan of the data file.
+     *
+     * @param report the report to fill in
+     * @return the users holder with the recovered users
+     */
+    private UsersHolder scanDataFile(RecoveryReport report) {
+        try {
+            return StreamingUserReader.recover(path, report);
+        } catch (IOException e) {
+            report.discard(e.getMessage(), -1, -1);
+            return new UsersHolder(new ArrayList<User>());
+        }
+    }
+
+    /**
+     * Copies the damaged data file next to it, with ".damaged" added to the name,
+     * unless a copy is already there.
+     */
+    private void keepDamagedCopy() {
+        try {
+            Files.copy(path, Paths.get(path + ".damaged"));
+        } catch (FileAlreadyExistsException e) {
+            // The first copy is kept, since it has the most users
+        } catch (IOException e) {
+            System.err.println("Keeping a copy of the damaged data file " + path + " failed");
+        }
+    }
+
+    /**
+     * Reads a single user from the data file without reading the other users into
+     * memory, and adds any workouts for the user in the workout journal.
+     *
+     * @param username the username of the user to read
+     * @return the user, or null if no user has the username
+     */
+    private User findUser(String username) {
+        // The journal is opened first, so it matches the data file without a lock
+        try (FileChannel opened = journal.open()) {
+            UsersHolder holder;
+            try {
+                holder = StreamingUserReader.readUser(path, username, null);
+            } catch (NoSuchFileException e) {
+                // No file means no users
+                return null;
+            } catch (IOException e) {
+                throw damaged(e);
+            }
+            List<User> users = holder.getUsers();
+            journal.replay(users, holder.getJournalSequence(), opened);
+            return users.isEmpty() ? null : users.get(0);
+        } catch (IOException e) {
+            // Only closing the journal failed
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the data file content for an import, as a stream of json. The users
+     * already in the data file are copied first, then the new users are added.
+     * Must be called while holding the lock of the data file.
+     *
+     * @param writer         the writer to write to
+     * @param version        the version of the new data file
+     * @param users          the users to add
+     * @param passwordHashes collects the password hash of every user written, by
+     *                       username
+     * @param report         the report to count added and skipped users in
+     * @throws IOException if the data file can not be read or writing fails
+     */
+    private void writeImportedUsers(Writer writer, long version, Iterator<User> users,
+            Map<String, String> passwordHashes, BulkTransfer.Report report)
+            throws IOException {
+        Gson gson = ModelGson.GSON;
+        Set<String> taken = new HashSet<String>();
+        JsonWriter out = new JsonWriter(writer);
+        out.setIndent("  ");
+        out.beginObject();
+        out.name("version").value(version);
+        // The users below include every workout in the journal
+        refreshJournal();
+        out.name("journalSequence").value(journal.getLastSequence());
+        out.name("users").beginArray();
+        forEachFileUser(user -> {
+            taken.add(user.getUsername());
+            passwordHashes.put(user.getUsername(), user.getPasswordHash());
+            gson.toJson(user, User.class, out);
+        });
+        while (users.hasNext()) {
+            User user = users.next();
+            if (taken.add(user.getUsername())) {
+                passwordHashes.put(user.getUsername(), user.getPasswordHash());
+                gson.toJson(user, User.class, out);
+                report.addUser(user);
+            } else {
+                report.addSkipped();
+            }
+        }
+        out.endArray();
+        out.endObject();
+        out.flush();
+    }
+
+    /**
+     * Passes the users in the data file to the action one at a time, with the
+     * workouts that are still in the journal added to them. Must be called while
+     * holding the lock of the data file.
+     *
+     * @param action the action to pass every user to
+     * @throws IOException if the data file can not be read, or the action fails
+     */
+    private void forEachFileUser(StreamingUserReader.UserAction action) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        refreshJournal();
+        Map<String, List<Workout>> pending = journal.readPending(
+                StreamingUserReader.readJournalSequence(path));
+        StreamingUserReader.forEachUser(path, user -> {
+            for (Workout workout : pending.getOrDefault(user.getUsername(), List.of())) {
+                user.addWorkout(workout);
+            }
+            action.accept(user);
+        });
+    }
+
+    /**
+     * Reads the sequence number of the last journal record folded into the data
+     * file. Only the start of the data file is read.
+     *
+     * @return the sequence number, or 0 if there is no file or it has none
+     * @throws IllegalStateException if the data file is damaged
+     */
+    private long readJournalSequence() {
+        try {
+            return StreamingUserReader.readJournalSequence(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+    }
+
+    /**
+     * Reads the version of the data file.
+     *
+     * @return the version, or 0 if there is no file or it has no version
+     */
+    private long readVersion() {
+        try {
+            return StreamingUserReader.readVersion(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Makes the workout journal forget what it knows about the journal file and the
+     * data file if another process has changed them. Must be called while holding
+     * the lock of the data file.
+     */
+    private void refreshJournal() {
+        long version = readVersion();
+        synchronized (versionLock) {
+            if (version != seenVersion) {
+                journal.invalidate();
+                seenVersion = version;
+            }
+        }
+        journal.refresh();
+    }
+
+    /**
+     * Reads the users in the data file, with the workouts in the journal, and
+     * writes them back. Used to fold the journal into the data file and to convert
+     * the file to another format.
+     *
+     * @return true if successful, false otherwise
+     */
+    private boolean rewriteDataFile() {
+        return withStoreLock(() -> writeUsers(readFileUsers()), false);
+    }
+
+    /**
+     * Writes the given list of users to the data file. The file is replaced
+     * atomically, so a crash leaves either the old or the new file, and the write
+     * fails on a file system that can not rename atomically. The file is written
+     * while holding its lock, with a version one higher than the version it had.
+     * The users are expected to include every workout in the workout journal, so
+     * the journal is cleared afterwards. The username index is updated if it is
+     * enabled.
+     *
+     * @param newUsers the list of users to write to the file
+     * @return true if successful, false otherwise
+     */
+    private boolean writeUsers(List<User> newUsers) {
+        return withStoreLock(() -> {
+            refreshJournal();
+            UsersHolder holder = new UsersHolder(newUsers, journal.getLastSequence(),
+                    readVersion() + 1);
+            try {
+                DurableFiles.writeBytesAtomically(path, dataFileContent(holder));
+            } catch (IOException e) {
+                return false;
+            }
+            synchronized (versionLock) {
+                seenVersion = holder.getVersion();
+            }
+            journal.clear(holder.getJournalSequence());
+            UsernameIndex index = getUsernameIndex();
+            if (index != null) {
+                Map<String, String> passwordHashes = new HashMap<String, String>();
+                newUsers.forEach(user -> passwordHashes.put(user.getUsername(),
+                        user.getPasswordHash()));
+                index.update(passwordHashes);
+            }
+            return true;
+        }, false);
+    }
+
+    /**
+     * Runs an action while holding the lock of the data file. If the lock can not
+     * be taken, the action is not run and the given result is returned instead.
+     *
+     * @param <T>    the type of the action result
+     * @param action the action to run
+     * @param failed the result if the lock can not be taken
+     * @return the result of the action, or the given result
+     */
+    private <T> T withStoreLock(Supplier<T> action, T failed) {
+        try {
+            return storeLock.withLock(action);
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            return failed;
+        }
+    }
+
+    /**
+     * Returns an action that writes the users to the data file, in the format
+     * that is currently enabled.
+     *
+     * @param holder the users, with the journal sequence number and version
+     * @return the action writing the data file
+     */
+    private DurableFiles.StreamAction dataFileContent(UsersHolder holder) {
+        if (binaryFormat) {
+            return out -> BinaryUserFormat.write(out, holder);
+        }
+        DurableFiles.WriterAction json = writer -> ModelGson.PRETTY_GSON.toJson(holder, writer);
+        return compression ? Compression.gzip(json) : DurableFiles.utf8(json);
+    }
+
+    private static User findUser(List<User> users, String username) {
+        for (User user : users) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the info of a user, with the workouts of another user.
+     *
+     * @param user         the user to copy the info of
+     * @param workoutOwner the user to copy the workouts of, or null for none
+     * @return the copy
+     */
+    private static User copyUser(User user, User workoutOwner) {
+        User copy = User.withPasswordHash(user.getName(), user.getUsername(),
+                user.getPasswordHash(), user.getEmail());
+        if (workoutOwner != null) {
+            workoutOwner.forEachWorkout(copy::addWorkout);
+        }
+        return copy;
+    }
+}
@@ -1,19 +1,16 @@
 package filehandling;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import core.User;
 import core.Workout;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.ServiceLoader;
 
 /**
  * DirectLoftAccess is a class that implements the LoftAccess interface and
@@ -21,11 +18,89 @@ import java.util.stream.Collectors;
  * new users, adding workouts to existing users, and retrieving user data from
  * the file. The file location can be set using the setFileLocation method, and
  * retrieved using the getFileLocation method.
+ * <p>
+ * Users are stored in a {@link StorageEngine}, and this class checks passwords,
+ * keeps the exercise index up to date and passes every call on to the engine.
+ * By default the engine is the built-in data file, a
+ * {@link DataFileStorageEngine}. Another engine is selected with the
+ * "loft.storage" system property or {@link #selectStorageEngine(String)}, and
+ * the embedded key-value engine is selected with "kv". With
+ * {@link #enableShardedStorage()} every user is instead stored in a file of its
+ * own, so calls only touch the user they are about.
+ * </p>
+ * <p>
+ * The options of the data file are set with the static methods of this class,
+ * and only apply to the data file. With {@link #enableResidentCache(long)} the
+ * file is read once into memory and written back in the background. With
+ * {@link #enableJournal(int)} new workouts are appended to a journal next to the
+ * file instead of rewriting the whole file, and the journal is folded into the
+ * file every so often, or in the background with
+ * {@link #enableBackgroundCompaction(long, long, long)}. With
+ * {@link #enableUsernameIndex()} checking if a username is taken does not read
+ * the data file at all. With {@link #enableBinaryFormat()} the data file is
+ * written in the compact {@link BinaryUserFormat} instead of json, and with
+ * {@link #enableCompression()} the json is compressed with gzip.
+ * </p>
+ * <p>
+ * Files are replaced by writing a temporary file and renaming it, so a crash
+ * never leaves a half written file. Reading or writing a data file that is
+ * damaged anyway, for example cut short while it was copied, throws an
+ * IllegalStateException and leaves the file as it is, until
+ * {@link #recoverDataFile()} repairs it and reports what was lost. Journal
+ * appends are synced to disk before they are reported as saved, and
+ * {@link #setGroupCommitWindow(long)} lets concurrent appends share one sync.
+ * </p>
+ * <p>
+ * Large amounts of users and workouts are moved in and out of the store with
+ * {@link BulkTransfer}, which writes the store in one pass instead of once per
+ * workout.
+ * </p>
+ * <p>
+ * Several processes, like the app and the REST server, can use the same data
+ * file. Every write holds a lock on a file next to the data file, with ".lock"
+ * added to the name, and fails if the lock can not be taken. A change that
+ * finds the file written by another process is applied again to the new users
+ * instead of overwriting them. The
+ * resident cache holds the users of one process, and should only be used by a
+ * single process.
+ * </p>
  */
 public class DirectLoftAccess implements LoftAccess {
     private static String fileFolderLocation = System.getProperty("user.home")
             + System.getProperty("file.separator");
-    private static String fileLocation = fileFolderLocation + "userData.json";
+
+    /**
+     * The system property that selects the storage engine by name.
+     */
+    public static final String STORAGE_PROPERTY = "loft.storage";
+
+    /**
+     * The name of the built-in storage, the data file.
+     */
+    public static final String FILE_STORAGE = "file";
+
+    /**
+     * The system property that enables the username index when set to "true".
+     */
+    public static final String USERNAME_INDEX_PROPERTY = "loft.usernameIndex";
+
+    // The built-in data file, which keeps its options when the location changes
+    private static volatile DataFileStorageEngine dataFile =
+            new DataFileStorageEngine(fileFolderLocation + "userData.json");
+
+    private static boolean exerciseIndexEnabled = false;
+    private static ExerciseIndex exerciseIndex;
+    private static final Object exerciseIndexLock = new Object();
+
+    private static boolean shardedStorage = false;
+    private static ShardedUserStore shards;
+
+    // Null means the built-in data file is used. An engine opened by name is
+    // reopened when the file location changes.
+    private static StorageEngine engine;
+    private static String engineName;
+    private static boolean engineSelected = false;
+    private static final Object engineLock = new Object();
 
     /**
      * Sets the file location for DirectLoftAccess class.
@@ -38,176 +113,727 @@ public class DirectLoftAccess implements LoftAccess {
             throw new IllegalArgumentException(
                     "File location " + fileLocation + " is a directory, not a file");
         }
-        DirectLoftAccess.fileLocation = fileLocation;
+        synchronized (DirectLoftAccess.class) {
+            dataFile = dataFile.moveTo(fileLocation);
+        }
+        synchronized (engineLock) {
+            if (engineName != null) {
+                selectStorageEngine(engineName);
+            }
+        }
     }
 
     /**
-     * Gets the file location for DirectLoftAccess class.
+     * Selects the storage engine by name. "file" selects the built-in data file,
+     * "kv" selects the embedded {@link KeyValueStorageEngine}, and any other name
+     * is looked up among the {@link StorageEngineProvider} services. The engine is
+     * opened for the current file location, and reopened if the location
+     * changes. Without a call to this method, the engine is selected by the
+     * "loft.storage" system property, and the data file is used if it is not
+     * set.
+     *
+     * @param name the name of the engine
+     * @throws IllegalArgumentException if no engine has the name
+     * @throws IllegalStateException    if the engine can not be opened
      */
-    public static String getFileLocation() {
-        return fileLocation;
+    public static void selectStorageEngine(String name) {
+        synchronized (engineLock) {
+            closeStorageEngine();
+            engineSelected = true;
+            if (name == null || name.equals(FILE_STORAGE)) {
+                return;
+            }
+            engine = openStorageEngine(name, getFileLocation());
+            engineName = name;
+        }
     }
 
-    @Override
-    public boolean registerUser(User user) {
-        try {
-            registerUserGetUsers(user);
-        } catch (IllegalStateException e) {
-            return false;
+    /**
+     * Sets the storage engine to an engine that is already open. The engine is
+     * used until another one is selected, and is not closed by this class.
+     *
+     * @param storageEngine the engine to use, or null to use the data file
+     */
+    public static void setStorageEngine(StorageEngine storageEngine) {
+        synchronized (engineLock) {
+            closeStorageEngine();
+            engineSelected = true;
+            engine = storageEngine;
         }
-        return true;
     }
 
     /**
-     * Adds a new user to the list of existing users and writes the updated list to
-     * a file. Same as {@link #registerUser(User)} but returns the updated list of
-     * users as well.
+     * Returns the selected storage engine, selecting it by the "loft.storage"
+     * system property the first time.
      *
-     * @param user the user to be added
-     * @return the updated list of users, or null if writing to file failed
-     * @throws IllegalStateException if the user already exists
+     * @return the engine, or null if the data file is used
      */
-    private static List<User> registerUserGetUsers(User user) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<User> users = getUsers();
-        if (users.stream()
-                .anyMatch(nullUser -> nullUser.getUsername().equals(user.getUsername()))) {
-            throw new IllegalStateException("User already exists");
+    private static StorageEngine getStorageEngine() {
+        synchronized (engineLock) {
+            if (!engineSelected) {
+                selectStorageEngine(System.getProperty(STORAGE_PROPERTY));
+            }
+            return engine;
         }
-        users.add(user);
+    }
 
-        try (Writer file = new FileWriter(fileLocation, StandardCharsets.UTF_8)) {
-            gson.toJson(new UsersHolder(users), file);
+    /**
+     * Closes the current engine if it was opened by name.
+     */
+    private static void closeStorageEngine() {
+        if (engineName != null) {
+            engine.close();
+        }
+        engine = null;
+        engineName = null;
+    }
+
+    /**
+     * Opens the storage engine with the given name for the given data location.
+     *
+     * @param name     the name of the engine
+     * @param location the data file location
+     * @return the opened engine
+     * @throws IllegalArgumentException if no engine has the name
+     * @throws IllegalStateException    if the engine can not be opened
+     */
+    private static StorageEngine openStorageEngine(String name, String location) {
+        StorageEngineProvider provider = null;
+        if (name.equals(KeyValueStorageEngine.Provider.NAME)) {
+            provider = new KeyValueStorageEngine.Provider();
+        } else {
+            for (StorageEngineProvider candidate : ServiceLoader.load(
+                    StorageEngineProvider.class)) {
+                if (candidate.getName().equals(name)) {
+                    provider = candidate;
+                    break;
+                }
+            }
+        }
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown storage engine " + name);
+        }
+        try {
+            return provider.open(location);
         } catch (IOException e) {
-            System.err.println("Writing to file failed");
-            return null;
+            throw new IllegalStateException("Opening storage engine " + name + " failed", e);
         }
-        return users;
     }
 
-    @Override
-    public boolean writeWorkoutToUser(Workout workout, User user) {
-        if (user == null) {
-            return false;
+    /**
+     * Returns the storage the users are in: the selected storage engine, the
+     * sharded store if sharded storage is enabled, and the data file otherwise.
+     *
+     * @return the storage engine in use
+     */
+    private static StorageEngine getStorage() {
+        StorageEngine engine = getStorageEngine();
+        if (engine != null) {
+            return engine;
         }
+        ShardedUserStore shards = getShards();
+        if (shards != null) {
+            return shards;
+        }
+        return dataFile;
+    }
+
+    /**
+     * Gets the file location for DirectLoftAccess class.
+     */
+    public static String getFileLocation() {
+        return dataFile.getLocation();
+    }
+
+    /**
+     * Enables the resident cache. The file is then read once and kept in memory,
+     * and changes are written to the file in the background every
+     * flushIntervalMillis milliseconds, and when the JVM shuts down.
+     *
+     * @param flushIntervalMillis how often changes are written to the file
+     * @throws IllegalArgumentException if the flush interval is not positive
+     */
+    public static void enableResidentCache(long flushIntervalMillis) {
+        dataFile.enableResidentCache(flushIntervalMillis);
+    }
 
-        List<User> users = getUsers();
-        User tmpUser = getUser(user, users);
-        if (tmpUser == null) {
-            users = registerUserGetUsers(user);
-            tmpUser = getUser(user, users);
+    /**
+     * Disables the resident cache, writing any unsaved changes to the file first.
+     *
+     * @return true if all changes were written, false otherwise
+     */
+    public static boolean disableResidentCache() {
+        return dataFile.disableResidentCache();
+    }
+
+    /**
+     * Writes any unsaved changes in the resident cache to the file right away.
+     * Does nothing if the cache is disabled.
+     *
+     * @return true if the file is up to date, false if writing failed
+     */
+    public static boolean flushResidentCache() {
+        return dataFile.flushResidentCache();
+    }
+
+    /**
+     * Enables the workout journal. New workouts are then appended to a journal
+     * file next to the data file, so adding a workout costs the same no matter how
+     * large the data file is. The journal is folded into the data file once it
+     * holds compactionThreshold records. The journal keeps the username index of
+     * {@link #enableUsernameIndex()} up to date as well, so checking the user
+     * before an append does not read the data file either.
+     *
+     * @param compactionThreshold the number of records that triggers compaction
+     * @throws IllegalArgumentException if the threshold is not positive
+     */
+    public static void enableJournal(int compactionThreshold) {
+        dataFile.enableJournal(compactionThreshold);
+    }
+
+    /**
+     * Disables the workout journal, folding any records in it into the data file
+     * first.
+     *
+     * @return true if the journal was folded into the data file, false otherwise
+     */
+    public static boolean disableJournal() {
+        return dataFile.disableJournal();
+    }
+
+    /**
+     * Folds the records in the workout journal into the data file and clears the
+     * journal. If the resident cache is enabled, the cache is flushed instead,
+     * which clears the journal as well.
+     *
+     * @return true if the journal was folded into the data file, false otherwise
+     */
+    public static boolean compactJournal() {
+        return dataFile.compactJournal();
+    }
+
+    /**
+     * Enables folding the workout journal into the data file in the background.
+     * The journal is checked every checkIntervalMillis milliseconds, and folded
+     * once it is maxJournalBytes large or has held records for maxAgeMillis
+     * milliseconds. The data file is read and written without blocking writers,
+     * which keep appending to the journal meanwhile, and the records appended
+     * during the fold are kept in the journal. While this is enabled, the journal
+     * is no longer folded by the writer that reaches the compaction threshold of
+     * {@link #enableJournal(int)}.
+     *
+     * @param checkIntervalMillis how often the journal is checked
+     * @param maxJournalBytes     the journal size that triggers a fold, 0 to only
+     *                            fold by age
+     * @param maxAgeMillis        how long the journal may hold records, 0 to only
+     *                            fold by size
+     * @throws IllegalArgumentException if the interval is not positive, a threshold
+     *                                  is negative, or both thresholds are 0
+     */
+    public static void enableBackgroundCompaction(long checkIntervalMillis,
+            long maxJournalBytes, long maxAgeMillis) {
+        dataFile.enableBackgroundCompaction(checkIntervalMillis, maxJournalBytes,
+                maxAgeMillis);
+    }
+
+    /**
+     * Disables folding the workout journal in the background.
+     */
+    public static void disableBackgroundCompaction() {
+        dataFile.disableBackgroundCompaction();
+    }
+
+    /**
+     * Returns how many times the journal has been folded in the background since
+     * background compaction was enabled.
+     *
+     * @return the number of folds
+     */
+    public static long getCompactionCount() {
+        JournalCompactor compactor = dataFile.getCompactor();
+        return compactor == null ? 0 : compactor.getCompactionCount();
+    }
+
+    /**
+     * Returns how long the folds in the background have taken in total since
+     * background compaction was enabled.
+     *
+     * @return the total duration in milliseconds
+     */
+    public static long getCompactionMillis() {
+        JournalCompactor compactor = dataFile.getCompactor();
+        return compactor == null ? 0 : compactor.getCompactionMillis();
+    }
+
+    /**
+     * Returns how many bytes the folds in the background have removed from the
+     * journal since background compaction was enabled.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public static long getBytesReclaimed() {
+        JournalCompactor compactor = dataFile.getCompactor();
+        return compactor == null ? 0 : compactor.getBytesReclaimed();
+    }
+
+    /**
+     * Sets the group commit window of the workout journal. A workout appended to
+     * the journal is only reported as saved once it has been synced to disk. With
+     * a window, the first writer waits that long before syncing, and every
+     * workout appended in the meantime shares the same sync. With 0, the journal
+     * is synced right away, and only writers that arrive during a sync share the
+     * next one.
+     *
+     * @param windowMillis the group commit window in milliseconds
+     * @throws IllegalArgumentException if the window is negative
+     */
+    public static void setGroupCommitWindow(long windowMillis) {
+        dataFile.setGroupCommitWindow(windowMillis);
+    }
+
+    /**
+     * Enables the username index. A sorted list of all usernames is then kept in a
+     * file next to the data file, with ".index" added to the name, and checking
+     * if a username exists takes constant time. The index is rebuilt
+     * automatically if it is missing, or if the data file has been changed
+     * without updating it. The app and the REST server enable it on startup if the
+     * "loft.usernameIndex" system property is "true".
+     */
+    public static void enableUsernameIndex() {
+        dataFile.enableUsernameIndex();
+    }
+
+    /**
+     * Disables the username index and deletes the index file.
+     *
+     * @return true if the index file was deleted or did not exist, false otherwise
+     */
+    public static boolean disableUsernameIndex() {
+        return dataFile.disableUsernameIndex();
+    }
+
+    /**
+     * Enables the exercise index. For every exercise, user and workout date the
+     * best set is then kept in a file next to the data file, with ".exercises"
+     * added to the name, and updated on every write. Questions across all users,
+     * like {@link #findExerciseRecords(String)}, read only the index. The index is
+     * built from the store the first time it is used.
+     */
+    public static void enableExerciseIndex() {
+        synchronized (exerciseIndexLock) {
+            exerciseIndexEnabled = true;
         }
-        if (tmpUser == null) {
-            // Error in writing to file, no workout is written to user
-            return false;
+    }
+
+    /**
+     * Disables the exercise index and deletes the index file.
+     *
+     * @return true if the index file was deleted or did not exist, false otherwise
+     */
+    public static boolean disableExerciseIndex() {
+        synchronized (exerciseIndexLock) {
+            exerciseIndexEnabled = false;
+            boolean deleted = exerciseIndex == null || exerciseIndex.delete();
+            exerciseIndex = null;
+            return deleted;
+        }
+    }
+
+    /**
+     * Rebuilds the exercise index from every user in the store. Only needed if the
+     * store has been written by a process without the index enabled.
+     *
+     * @return true if the index was rebuilt, false if the store could not be read
+     * @throws IllegalStateException if the exercise index is not enabled
+     */
+    public static boolean rebuildExerciseIndex() {
+        return requireExerciseIndex().rebuild();
+    }
+
+    /**
+     * Returns the best set of an exercise for every user and day the exercise was
+     * done, heaviest first, read from the exercise index. Names are matched
+     * without regard to case and spacing.
+     *
+     * @param exercise the name of the exercise
+     * @return the records of the exercise, or an empty list if nobody has done it
+     * @throws IllegalStateException if the exercise index is not enabled
+     */
+    public static List<ExerciseRecord> findExerciseRecords(String exercise) {
+        return requireExerciseIndex().find(exercise);
+    }
+
+    /**
+     * Returns how many different users have done each exercise, read from the
+     * exercise index.
+     *
+     * @return the number of users, by normalized exercise name, sorted by name
+     * @throws IllegalStateException if the exercise index is not enabled
+     */
+    public static Map<String, Integer> getExercisePopularity() {
+        return requireExerciseIndex().countUsers();
+    }
+
+    /**
+     * Returns the exercise index for the current file location.
+     *
+     * @return the exercise index, or null if the index is disabled
+     */
+    private static ExerciseIndex getExerciseIndex() {
+        synchronized (exerciseIndexLock) {
+            if (!exerciseIndexEnabled) {
+                return null;
+            }
+            String location = getFileLocation();
+            if (exerciseIndex == null
+                    || !exerciseIndex.getPath().equals(Paths.get(location + ".exercises"))) {
+                exerciseIndex = new ExerciseIndex(location, DirectLoftAccess::exportUsers);
+            }
+            return exerciseIndex;
         }
-        tmpUser.addWorkout(workout);
+    }
 
-        return writeToFile(users);
+    private static ExerciseIndex requireExerciseIndex() {
+        ExerciseIndex index = getExerciseIndex();
+        if (index == null) {
+            throw new IllegalStateException("The exercise index is not enabled");
+        }
+        return index;
     }
 
     /**
-     * Gets users from the userData file in json format. If no file exists, it will
-     * return an empty list.
+     * Adds workouts that were just saved to the exercise index, if it is enabled.
+     * Must not be called while holding the lock of the data file, since building
+     * the index reads the store.
      *
-     * @return List of users
+     * @param username the username of the user the workouts were saved to
+     * @param workouts the saved workouts
      */
-    private static List<User> getUsers() {
-        List<User> users = new ArrayList<User>();
+    private static void indexWorkouts(String username, List<Workout> workouts) {
+        ExerciseIndex index = getExerciseIndex();
+        if (index != null && !workouts.isEmpty()) {
+            index.add(username, workouts);
+        }
+    }
+
+    /**
+     * Enables the binary format. The data file is then written in the compact
+     * {@link BinaryUserFormat} instead of json, and an existing json data file is
+     * converted right away. Sharded user files stay in json.
+     *
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    public static boolean enableBinaryFormat() {
+        return dataFile.setBinaryFormat(true);
+    }
+
+    /**
+     * Disables the binary format. The data file is then written as json again, and
+     * an existing binary data file is converted right away.
+     *
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    public static boolean disableBinaryFormat() {
+        return dataFile.setBinaryFormat(false);
+    }
+
+    /**
+     * Enables compression. The json data file is then compressed with gzip, which
+     * makes it several times smaller, and an existing data file is compressed
+     * right away. Reading and writing stream through the compressor. Has no
+     * effect on the binary format, which is already compact.
+     *
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    public static boolean enableCompression() {
+        return dataFile.setCompression(true);
+    }
+
+    /**
+     * Disables compression. The data file is then written as plain json again,
+     * and an existing compressed data file is converted right away.
+     *
+     * @return true if the data file was converted or did not need to be, false
+     *         otherwise
+     */
+    public static boolean disableCompression() {
+        return dataFile.setCompression(false);
+    }
+
+    /**
+     * Scans the data file for damage, like a file cut short by a full disk or by
+     * a crash while it was being copied, and repairs it. A damaged file is copied
+     * next to it, with ".damaged" added to the name, and rewritten with every user
+     * before the first damaged one, together with the workouts in the journal.
+     * Meant to be called on startup, before the data file is used. Until the file
+     * is repaired, reading or writing it throws an IllegalStateException, so the
+     * users after the damage are never dropped without this method being
+     * called.
+     *
+     * @return a report of the users that were recovered and what was discarded
+     * @throws UncheckedIOException if the data file can not be locked
+     */
+    public static RecoveryReport recoverDataFile() {
+        return dataFile.recoverDataFile();
+    }
+
+    /**
+     * Reads the usernames in the data file, and repairs the file with
+     * {@link #recoverDataFile()} only if the read finds it damaged. Meant to be
+     * called on startup, so an intact data file is only read, never rewritten.
+     *
+     * @return a report of the recovery, which is not damaged if the file could be
+     *         read
+     * @throws UncheckedIOException if the data file is damaged and can not be
+     *                              locked
+     */
+    public static RecoveryReport recoverDataFileIfDamaged() {
         try {
-            String text = new String(Files.readAllBytes(Paths.get(fileLocation)),
-                    StandardCharsets.UTF_8);
-            Gson gson = new Gson();
-            users = gson.fromJson(text, UsersHolder.class).getUsers();
-        } catch (IOException e) {
-            // It is fine if no file exists. We will create a new one later.
+            dataFile.readUsernames();
+            return new RecoveryReport();
+        } catch (IllegalStateException e) {
+            return recoverDataFile();
         }
-        return users;
     }
 
     /**
-     * Returns a User object if the given user matches an existing user in the list
-     * of users.
+     * Enables sharded storage, where every user is stored in a file of its own in a
+     * directory next to the data file. Users already in the data file are moved
+     * into the directory the first time it is used. The resident cache and the
+     * workout journal only apply to the data file, and are not used while
+     * sharded storage is enabled.
+     */
+    public static synchronized void enableShardedStorage() {
+        shardedStorage = true;
+        getShards();
+    }
+
+    /**
+     * Disables sharded storage. The users in the sharded directory are written
+     * back to the data file, and the directory is deleted.
      *
-     * @param user  the user to retrieve
-     * @param users the list of users to search through
-     * @return a User object if the given user matches an existing user in the
-     *         system, null otherwise. This will be the same user as the parameter
-     *         but with updated data.
+     * @return true if the users were moved back to the data file, false otherwise
      */
-    private static User getUser(User user, List<User> users) {
-        return getUser(user.getUsername(), user.getPassword(), users);
+    public static synchronized boolean disableShardedStorage() {
+        ShardedUserStore store = getShards();
+        shardedStorage = false;
+        if (store == null) {
+            return true;
+        }
+        return dataFile.replaceUsers(store.readUsers()) && store.delete();
     }
 
     /**
-     * Returns a User object if the given username and password match an existing
-     * user in the users-list.
+     * Returns the sharded store for the current file location, moving the users in
+     * the data file into it if it does not exist yet.
      *
-     * @param username the username of the user to retrieve
-     * @param password the password of the user to retrieve
-     * @param users    the list of users to search through
-     * @return a User object if the given username and password match an existing
-     *         user in the system, null otherwise
+     * @return the sharded store, or null if sharded storage is disabled
      */
-    private static User getUser(String username, String password, List<User> users) {
-        String passwordHash = User.hash(password);
-        for (User user : users) {
-            if (user.getUsername().equals(username)
-                    && user.getPasswordHash().equals(passwordHash)) {
-                return user;
+    private static synchronized ShardedUserStore getShards() {
+        if (!shardedStorage) {
+            return null;
+        }
+        String location = getFileLocation();
+        if (shards == null || !shards.getDirectory().equals(Paths.get(location + ".users"))) {
+            shards = new ShardedUserStore(location);
+        }
+        if (!shards.exists() && !shards.importUsers(dataFile.readUsers())) {
+            System.err.println("Moving users to " + shards.getDirectory() + " failed");
+        }
+        return shards;
+    }
+
+    @Override
+    public boolean registerUser(User user) {
+        if (!getStorage().insertUser(user)) {
+            return false;
+        }
+        indexWorkouts(user.getUsername(), user.getWorkouts());
+        return true;
+    }
+
+    @Override
+    public boolean writeWorkoutToUser(Workout workout, User user) {
+        return writeWorkoutsToUser(List.of(workout), user);
+    }
+
+    /**
+     * {@inheritDoc} The workouts are saved with a single call to the storage
+     * engine, which is a single read and write of the data file, a single append
+     * and sync of the journal, or a single transaction in the key-value engine. If
+     * the user does not exist, it is registered with the workouts instead.
+     *
+     * @throws IllegalStateException if the username is taken by a user with a
+     *                               different password
+     */
+    @Override
+    public boolean writeWorkoutsToUser(List<Workout> workouts, User user) {
+        if (user == null) {
+            return false;
+        }
+        StorageEngine storage = getStorage();
+        String savedHash = storage.readPasswordHash(user.getUsername());
+        if (savedHash == null) {
+            User newUser = User.withPasswordHash(user.getName(), user.getUsername(),
+                    user.getPasswordHash(), user.getEmail());
+            user.forEachWorkout(newUser::addWorkout);
+            workouts.forEach(newUser::addWorkout);
+            if (storage.insertUser(newUser)) {
+                indexWorkouts(user.getUsername(), newUser.getWorkouts());
+                return true;
+            }
+            // Someone else may have registered the username in the meantime
+            savedHash = storage.readPasswordHash(user.getUsername());
+            if (savedHash == null) {
+                return false;
             }
         }
-        return null;
+        if (!savedHash.equals(user.getPasswordHash())) {
+            throw new IllegalStateException("User already exists");
+        }
+        if (!storage.addWorkouts(user.getUsername(), workouts)) {
+            return false;
+        }
+        indexWorkouts(user.getUsername(), workouts);
+        return true;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the info of the user is read. The workouts are read the first time
+     * they are needed, so logging in takes the same time no matter how many
+     * workouts the user has.
+     * </p>
+     */
     @Override
     public User getUser(String username, String password) {
-        List<User> users = getUsers();
-        return getUser(username, password, users);
+        StorageEngine storage = getStorage();
+        User user = storage.readUser(username, false);
+        if (user == null || !user.getPasswordHash().equals(User.hash(password))) {
+            return null;
+        }
+        user.setWorkoutLoader(() -> {
+            User withWorkouts = storage.readUser(username, true);
+            return withWorkouts == null ? List.of() : withWorkouts.getWorkouts();
+        });
+        return user;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With sharded storage, only the workouts of the months in the range are
+     * read. With the data file, every workout of the user is read and filtered.
+     * </p>
+     */
+    @Override
+    public List<Workout> getWorkouts(String username, String password, LocalDate from,
+            LocalDate to) {
+        StorageEngine storage = getStorage();
+        User user = storage.readUser(username, false);
+        if (user == null || !user.getPasswordHash().equals(User.hash(password))) {
+            return null;
+        }
+        return storage.readWorkouts(username, from, to);
     }
 
     @Override
     public boolean usernameExists(String username) {
-        return getUsers().stream().anyMatch(user -> user.getUsername().equals(username));
+        return getStorage().containsUsername(username);
     }
 
+    /**
+     * {@inheritDoc} The workouts of the old user are moved to the new user in the
+     * store, and are not added to the given new user.
+     */
     @Override
     public boolean updateUserInfo(User oldUser, User newUser) {
-        if (!oldUser.getUsername().equals(newUser.getUsername())
-                && usernameExists(newUser.getUsername())) {
+        StorageEngine storage = getStorage();
+        User savedOldUser = storage.readUser(oldUser.getUsername(), false);
+        if (savedOldUser == null
+                || !savedOldUser.getPasswordHash().equals(oldUser.getPasswordHash())) {
             return false;
         }
-
-        User savedOldUser = getUser(oldUser.getUsername(), oldUser.getPassword());
-        if (savedOldUser == null) {
+        if (!storage.updateUser(oldUser.getUsername(), newUser)) {
             return false;
         }
+        if (!oldUser.getUsername().equals(newUser.getUsername())) {
+            ExerciseIndex index = getExerciseIndex();
+            if (index != null) {
+                index.rename(oldUser.getUsername(), newUser.getUsername());
+            }
+        }
+        return true;
+    }
 
-        List<User> users = getUsers();
-        List<User> newUsers = users.stream()
-                .filter(user -> !user.equals(savedOldUser))
-                .collect(Collectors.toList());
+    /**
+     * Applies a change to the users in the data file and writes them. See
+     * {@link DataFileStorageEngine#changeUsers(DataFileStorageEngine.UsersChange)}.
+     *
+     * @param change the change to apply
+     * @return true if the change was written, false if it wrote nothing or
+     *         writing failed
+     */
+    static boolean changeUsers(DataFileStorageEngine.UsersChange change) {
+        return dataFile.changeUsers(change);
+    }
 
-        savedOldUser.getWorkouts().stream().forEach(workout -> newUser.addWorkout(workout));
-        newUsers.add(newUser);
+    /**
+     * Returns how many changes found that another process had written the data
+     * file after they read it, and were applied again.
+     *
+     * @return the number of conflicting changes
+     */
+    public static long getConflictCount() {
+        return dataFile.getConflictCount();
+    }
 
-        return writeToFile(newUsers);
+    /**
+     * Adds the given users to the store, in whichever mode is enabled, and counts
+     * them in the report. Users whose username is taken are skipped. The users are
+     * consumed one at a time, so only one of them has to be in memory.
+     *
+     * @param users  the users to add, with their workouts
+     * @param report the report to count added and skipped users in
+     * @throws IOException           if the store can not be written
+     * @throws IllegalStateException if the resident cache is enabled
+     */
+    static void importUsers(Iterator<User> users, BulkTransfer.Report report)
+            throws IOException {
+        try {
+            // Rebuilt in one pass on the next lookup, instead of once per user
+            ExerciseIndex index = getExerciseIndex();
+            if (index != null) {
+                index.delete();
+            }
+            getStorage().insertUsers(users, report);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
-     * Writes the given list of users to the file. Returns true if successful, false
-     * otherwise.
+     * Passes every user in the store to the action, with its workouts, one at a
+     * time.
      *
-     * @param newUsers the list of users to write to the file
-     * @return true if successful, false otherwise
+     * @param action the action to pass every user to
+     * @throws IOException if the store can not be read, or the action fails
      */
-    private boolean writeToFile(List<User> newUsers) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        try (Writer file = new FileWriter(fileLocation, StandardCharsets.UTF_8)) {
-            gson.toJson(new UsersHolder(newUsers), file);
-        } catch (IOException e) {
-            return false;
+    static void exportUsers(StreamingUserReader.UserAction action) throws IOException {
+        try {
+            getStorage().forEachUser(user -> {
+                try {
+                    action.accept(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return true;
     }
 }
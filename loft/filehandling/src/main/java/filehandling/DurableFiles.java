@@ -0,0 +1,185 @@
+package filehandling;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers for writing files so that a crash never leaves a half written file
+ * behind. A file is replaced by writing a temporary file in the same directory,
+ * forcing it to disk, and renaming it over the old file in one atomic step.
+ * <p>
+ * A file system that can not rename atomically makes the replace fail instead
+ * of falling back to a plain move, since a plain move could leave the target
+ * missing or half replaced after a crash. The stores rely on a replaced file
+ * always being either the old or the new one.
+ * </p>
+ * <p>
+ * The class is package-private and is used by the file based stores in this
+ * package.
+ * </p>
+ */
+final class DurableFiles {
+
+    private DurableFiles() {
+    }
+
+    /**
+     * Writes content to a file, which is passed a writer and is expected to
+     * write all of the content to it.
+     */
+    @FunctionalInterface
+    interface WriterAction {
+        /**
+         * Writes the content.
+         *
+         * @param writer the writer to write to
+         * @throws IOException if writing fails
+         */
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * Writes binary content to a file, which is passed an output stream and is
+     * expected to write all of the content to it.
+     */
+    @FunctionalInterface
+    interface StreamAction {
+        /**
+         * Writes the content.
+         *
+         * @param out the stream to write to
+         * @throws IOException if writing fails
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Replaces the target file with the text written by the given action, encoded
+     * as UTF-8. See {@link #writeBytesAtomically(Path, StreamAction)}.
+     *
+     * @param target the file to replace
+     * @param action writes the new content
+     * @throws IOException if writing or renaming fails, in which case the target
+     *                     is left unchanged
+     */
+    static void writeAtomically(Path target, WriterAction action) throws IOException {
+        writeBytesAtomically(target, utf8(action));
+    }
+
+    /**
+     * Returns an action that writes the text written by the given action, encoded
+     * as UTF-8.
+     *
+     * @param action writes the text
+     * @return the action writing the encoded text
+     */
+    static StreamAction utf8(WriterAction action) {
+        return out -> {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            action.write(writer);
+            writer.flush();
+        };
+    }
+
+    /**
+     * Replaces the target file with the content written by the given action. The
+     * content is written to a temporary file and forced to disk before it is
+     * renamed over the target, so the target either keeps its old content or
+     * gets all of the new content.
+     *
+     * @param target the file to replace
+     * @param action writes the new content
+     * @throws IOException if writing or renaming fails, in which case the target
+     *                     is left unchanged
+     */
+    static void writeBytesAtomically(Path target, StreamAction action) throws IOException {
+        Path temp = writeTemporary(target, action);
+        try {
+            replace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the content written by the given action to a new temporary file in
+     * the directory of the target, and forces it to disk. The temporary file can
+     * later replace the target with {@link #replace(Path, Path)}, and should be
+     * deleted by the caller if it does not.
+     *
+     * @param target the file the content is meant for
+     * @param action writes the content
+     * @return the temporary file
+     * @throws IOException if writing fails, in which case no file is left behind
+     */
+    static Path writeTemporary(Path target, StreamAction action) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(),
+                absolute.getFileName() + ".", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                OutputStream out = new BufferedOutputStream(
+                        Channels.newOutputStream(channel))) {
+            action.write(out);
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Renames a file written with {@link #writeTemporary(Path, StreamAction)}
+     * over the target in one atomic step, and forces the rename to disk.
+     *
+     * @param temp   the temporary file
+     * @param target the file to replace
+     * @throws IOException if renaming fails, in which case the target is left
+     *                     unchanged. An AtomicMoveNotSupportedException if the
+     *                     file system can not rename atomically
+     */
+    static void replace(Path temp, Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(absolute.getParent());
+    }
+
+    /**
+     * Forces the content of an existing file to disk.
+     *
+     * @param path the file to force
+     * @throws IOException if the file can not be opened or forced
+     */
+    static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces a directory entry change, like a rename, to disk. Not every platform
+     * supports opening a directory, in which case this does nothing.
+     *
+     * @param directory the directory to force
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform, the rename is still atomic
+        }
+    }
+}
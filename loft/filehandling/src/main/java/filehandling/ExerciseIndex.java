@@ -0,0 +1,375 @@
+package filehandling;
+
+import core.Exercise;
+import core.Set;
+import core.Workout;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An inverted index from exercise name to the users who did the exercise, kept
+ * in a sidecar file next to the data file, with ".exercises" added to the name.
+ * For every exercise, user and workout date it holds the best set, so questions
+ * across all users, like who has lifted over a weight or which exercises are the
+ * most popular, are answered from the index without reading any user.
+ * <p>
+ * Exercise names are normalized to lower case with single spaces, so names that
+ * only differ in case or spacing share an entry. Adding workouts appends lines
+ * to the file, and a later line for the same exercise, user and date only
+ * replaces an earlier one if its set is better, so adding the same workout twice
+ * changes nothing. Renaming a user rewrites the file.
+ * </p>
+ * <p>
+ * The index only sees writes made through a {@link DirectLoftAccess} that has it
+ * enabled. Lookups rebuild it from the store when the file is missing or has
+ * been deleted, and it can be rebuilt on demand if other writers have changed
+ * the store. The class is package-private and is only used by
+ * {@link DirectLoftAccess}.
+ * </p>
+ */
+class ExerciseIndex {
+    private static final String HEADER = "loft-exercise-index 1";
+
+    /**
+     * Reads every user in a store.
+     */
+    @FunctionalInterface
+    interface UserSource {
+        /**
+         * Passes every user, with its workouts, to the action.
+         *
+         * @param action the action to pass every user to
+         * @throws IOException if the store can not be read
+         */
+        void forEachUser(StreamingUserReader.UserAction action) throws IOException;
+    }
+
+    private final Path path;
+    private final UserSource users;
+    // Exercise name to records, by username and date
+    private Map<String, Map<String, ExerciseRecord>> records;
+
+    /**
+     * Constructor for the ExerciseIndex class. The index file is read on first
+     * use.
+     *
+     * @param dataLocation the location of the data file the index belongs to
+     * @param users        passes every user in the store to an action, used to
+     *                     rebuild the index
+     */
+    ExerciseIndex(String dataLocation, UserSource users) {
+        this.path = Paths.get(dataLocation + ".exercises");
+        this.users = users;
+    }
+
+    /**
+     * Returns the location of the index file.
+     *
+     * @return the index file path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Normalizes an exercise name, so names that only differ in case or spacing
+     * are the same.
+     *
+     * @param name the exercise name
+     * @return the name in lower case, with single spaces between the words
+     */
+    static String normalize(String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Reads the index file, if it has not been read yet.
+     *
+     * @return true if the index is in memory, false if the file is missing or
+     *         broken and the index has to be rebuilt
+     */
+    synchronized boolean load() {
+        if (records != null) {
+            return true;
+        }
+        Map<String, Map<String, ExerciseRecord>> loaded =
+                new HashMap<String, Map<String, ExerciseRecord>>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ExerciseRecord record = parse(line);
+                if (record != null) {
+                    merge(loaded, record);
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        records = loaded;
+        return true;
+    }
+
+    /**
+     * Adds the exercises in the given workouts to the index, and appends them to
+     * the file.
+     *
+     * @param username the username of the user who did the workouts
+     * @param workouts the workouts
+     */
+    synchronized void add(String username, Collection<Workout> workouts) {
+        if (!load()) {
+            // The next lookup rebuilds the index from the store, with these workouts
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (ExerciseRecord record : toRecords(username, workouts)) {
+            if (merge(records, record)) {
+                lines.append(format(record)).append('\n');
+            }
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+        try {
+            Files.write(path, lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Forget the index, so it is rebuilt instead of missing these records
+            records = null;
+            System.err.println("Writing exercise index " + path + " failed");
+        }
+    }
+
+    /**
+     * Moves the records of a user to a new username, and rewrites the file.
+     *
+     * @param oldUsername the old username
+     * @param newUsername the new username
+     */
+    synchronized void rename(String oldUsername, String newUsername) {
+        if (!load()) {
+            return;
+        }
+        Map<String, Map<String, ExerciseRecord>> renamed =
+                new HashMap<String, Map<String, ExerciseRecord>>();
+        for (Map<String, ExerciseRecord> byUser : records.values()) {
+            for (ExerciseRecord record : byUser.values()) {
+                if (record.getUsername().equals(oldUsername)) {
+                    record = new ExerciseRecord(record.getExercise(), newUsername,
+                            record.getDate(), record.getBestSet());
+                }
+                merge(renamed, record);
+            }
+        }
+        records = renamed;
+        save();
+    }
+
+    /**
+     * Replaces the index with the records of every user in the store, and rewrites
+     * the file. The users are read one at a time.
+     *
+     * @return true if the store was read, false otherwise
+     */
+    synchronized boolean rebuild() {
+        Map<String, Map<String, ExerciseRecord>> rebuilt =
+                new HashMap<String, Map<String, ExerciseRecord>>();
+        try {
+            users.forEachUser(user -> {
+                for (ExerciseRecord record : toRecords(user.getUsername(), user.getWorkoutsView())) {
+                    merge(rebuilt, record);
+                }
+            });
+        } catch (IOException e) {
+            return false;
+        }
+        records = rebuilt;
+        save();
+        return true;
+    }
+
+    /**
+     * Returns the records of an exercise, sorted by the weight of the best set,
+     * heaviest first.
+     *
+     * @param exercise the name of the exercise, normalized or not
+     * @return the records of the exercise
+     * @throws IllegalStateException if the index had to be rebuilt, and the store
+     *                               could not be read
+     */
+    synchronized List<ExerciseRecord> find(String exercise) {
+        requireLoaded();
+        List<ExerciseRecord> found = new ArrayList<ExerciseRecord>(
+                records.getOrDefault(normalize(exercise), Map.of()).values());
+        found.sort((a, b) -> a.beats(b.getBestSet()) ? -1 : b.beats(a.getBestSet()) ? 1
+                : a.getUsername().compareTo(b.getUsername()));
+        return found;
+    }
+
+    /**
+     * Returns how many different users have done each exercise.
+     *
+     * @return the number of users, by normalized exercise name
+     * @throws IllegalStateException if the index had to be rebuilt, and the store
+     *                               could not be read
+     */
+    synchronized Map<String, Integer> countUsers() {
+        requireLoaded();
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Map<String, ExerciseRecord>> exercise : records.entrySet()) {
+            java.util.Set<String> usernames = new HashSet<String>();
+            for (ExerciseRecord record : exercise.getValue().values()) {
+                usernames.add(record.getUsername());
+            }
+            counts.put(exercise.getKey(), usernames.size());
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the index file, or rebuilds the index from the store if the file is
+     * missing or broken. Called with the lock held, so the records can not be
+     * deleted before they are used.
+     *
+     * @throws IllegalStateException if the store could not be read
+     */
+    private void requireLoaded() {
+        if (!load() && !rebuild()) {
+            throw new IllegalStateException("Building the exercise index failed");
+        }
+    }
+
+    /**
+     * Deletes the index file.
+     *
+     * @return true if the file was deleted or did not exist, false otherwise
+     */
+    synchronized boolean delete() {
+        records = null;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Turns workouts into one record per exercise and date, with the best set of
+     * the exercise that day. Exercises without sets are left out.
+     */
+    private static List<ExerciseRecord> toRecords(String username,
+            Collection<Workout> workouts) {
+        Map<String, ExerciseRecord> best = new HashMap<String, ExerciseRecord>();
+        for (Workout workout : workouts) {
+            for (Exercise exercise : workout.getExercisesView()) {
+                if (exercise.getNumberOfSets() > 0) {
+                    mergeRecord(best, new ExerciseRecord(normalize(exercise.getName()), username,
+                            workout.getDate(), bestSet(exercise)));
+                }
+            }
+        }
+        return new ArrayList<ExerciseRecord>(best.values());
+    }
+
+    /**
+     * Finds the best set of an exercise with sets: the most reps done with the
+     * heaviest weight.
+     */
+    private static Set bestSet(Exercise exercise) {
+        int weight = exercise.getLocalPr();
+        int reps = 0;
+        for (int i = 0; i < exercise.getNumberOfSets(); i++) {
+            if (exercise.getWeight(i) == weight) {
+                reps = Math.max(reps, exercise.getReps(i));
+            }
+        }
+        return new Set(reps, weight);
+    }
+
+    /**
+     * Adds a record to the map, unless a record for the same exercise, user and
+     * date with a set at least as good is already in it.
+     *
+     * @return true if the record was added, false otherwise
+     */
+    private static boolean merge(Map<String, Map<String, ExerciseRecord>> map,
+            ExerciseRecord record) {
+        return mergeRecord(map.computeIfAbsent(record.getExercise(),
+                exercise -> new HashMap<String, ExerciseRecord>()), record);
+    }
+
+    private static boolean mergeRecord(Map<String, ExerciseRecord> map,
+            ExerciseRecord record) {
+        String key = record.getExercise() + "\n" + record.getUsername() + "\n"
+                + record.getDate();
+        ExerciseRecord old = map.get(key);
+        if (old != null && !record.beats(old.getBestSet())) {
+            return false;
+        }
+        map.put(key, record);
+        return true;
+    }
+
+    private void save() {
+        try {
+            DurableFiles.writeAtomically(path, writer -> write(writer));
+        } catch (IOException e) {
+            // The index is still correct in memory, and is rebuilt next time
+            System.err.println("Writing exercise index " + path + " failed");
+        }
+    }
+
+    private void write(Writer writer) throws IOException {
+        writer.write(HEADER + "\n");
+        for (Map<String, ExerciseRecord> byUser : records.values()) {
+            for (ExerciseRecord record : byUser.values()) {
+                writer.write(format(record));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String format(ExerciseRecord record) {
+        return URLEncoder.encode(record.getExercise(), StandardCharsets.UTF_8) + " "
+                + URLEncoder.encode(record.getUsername(), StandardCharsets.UTF_8) + " "
+                + record.getDate() + " " + record.getBestSet().getReps() + " "
+                + record.getBestSet().getWeight();
+    }
+
+    private static ExerciseRecord parse(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new ExerciseRecord(URLDecoder.decode(fields[0], StandardCharsets.UTF_8),
+                    URLDecoder.decode(fields[1], StandardCharsets.UTF_8),
+                    LocalDate.parse(fields[2]),
+                    new Set(Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+        } catch (RuntimeException e) {
+            // A line cut short by a crash is skipped
+            return null;
+        }
+    }
+}
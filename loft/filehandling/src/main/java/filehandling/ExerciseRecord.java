@@ -0,0 +1,106 @@
+package filehandling;
+
+import core.Set;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * One entry in the exercise index: the best set of an exercise that a user did
+ * in the workouts of one day. The best set is the one with the highest weight,
+ * and of those the one with the most reps. Records are returned by
+ * {@link DirectLoftAccess#findExerciseRecords(String)}.
+ */
+public final class ExerciseRecord {
+    private final String exercise;
+    private final String username;
+    private final LocalDate date;
+    private final Set bestSet;
+
+    /**
+     * Constructor for the ExerciseRecord class.
+     *
+     * @param exercise the normalized name of the exercise
+     * @param username the username of the user who did the exercise
+     * @param date     the date of the workout
+     * @param bestSet  the best set of the exercise that day
+     */
+    public ExerciseRecord(String exercise, String username, LocalDate date, Set bestSet) {
+        this.exercise = exercise;
+        this.username = username;
+        this.date = date;
+        this.bestSet = bestSet;
+    }
+
+    /**
+     * Returns the normalized name of the exercise, in lower case with single
+     * spaces between the words.
+     *
+     * @return the exercise name
+     */
+    public String getExercise() {
+        return exercise;
+    }
+
+    /**
+     * Returns the username of the user who did the exercise.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the date of the workout the exercise was done in.
+     *
+     * @return the date
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Returns the best set of the exercise that day.
+     *
+     * @return the best set
+     */
+    public Set getBestSet() {
+        return bestSet;
+    }
+
+    /**
+     * Checks if this record's best set beats another set, by weight and then by
+     * reps.
+     *
+     * @param set the set to compare to
+     * @return true if the best set of this record is better than the given set
+     */
+    boolean beats(Set set) {
+        return bestSet.getWeight() > set.getWeight()
+                || bestSet.getWeight() == set.getWeight() && bestSet.getReps() > set.getReps();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exercise, username, date, bestSet);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ExerciseRecord)) {
+            return false;
+        }
+        ExerciseRecord other = (ExerciseRecord) obj;
+        return exercise.equals(other.exercise) && username.equals(other.username)
+                && date.equals(other.date) && bestSet.equals(other.bestSet);
+    }
+
+    @Override
+    public String toString() {
+        return username + " " + exercise + " " + date + " " + bestSet.getReps() + "x"
+                + bestSet.getWeight();
+    }
+}
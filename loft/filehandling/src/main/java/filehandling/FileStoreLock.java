@@ -0,0 +1,91 @@
+package filehandling;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A lock on a data file that is shared by every process using the file, like
+ * the app and the REST server. It is held as a file lock on a lock file
+ * next to the data file, with ".lock" added to the name. The data file itself
+ * can not be locked, since it is replaced by a new file on every write.
+ * <p>
+ * Threads in the same process also wait for each other, since a file lock is
+ * held by the whole process. The lock is reentrant, so code that holds it can
+ * call other code that takes it. The class is package-private and is only used
+ * by {@link DataFileStorageEngine}.
+ * </p>
+ */
+class FileStoreLock {
+    private final String dataLocation;
+    private final Path lockPath;
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    /**
+     * Constructor for the FileStoreLock class.
+     *
+     * @param dataLocation the location of the data file to lock
+     */
+    FileStoreLock(String dataLocation) {
+        this.dataLocation = dataLocation;
+        this.lockPath = Paths.get(dataLocation + ".lock");
+    }
+
+    /**
+     * Returns the location of the data file the lock belongs to.
+     *
+     * @return the data file location
+     */
+    String getLocation() {
+        return dataLocation;
+    }
+
+    /**
+     * Runs the given action while holding the lock. If the lock file can not be
+     * created or locked, for example on a file system without file locks, the
+     * action is not run, since other processes could write the data file at the
+     * same time.
+     *
+     * @param <T>    the type of the action result
+     * @param action the action to run
+     * @return the result of the action
+     * @throws UncheckedIOException if the lock file can not be created or locked
+     */
+    <T> T withLock(Supplier<T> action) {
+        localLock.lock();
+        try {
+            if (localLock.getHoldCount() > 1) {
+                return action.get();
+            }
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Creating lock file " + lockPath + " failed", e);
+            }
+            try {
+                try {
+                    channel.lock();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Locking " + lockPath + " failed", e);
+                }
+                return action.get();
+            } finally {
+                // Closing the channel releases the file lock
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("Closing lock file " + lockPath + " failed");
+                }
+            }
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
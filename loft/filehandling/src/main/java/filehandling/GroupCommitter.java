@@ -0,0 +1,124 @@
+package filehandling;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lets several threads that have written to the same file share one sync to
+ * disk. A thread calls {@link #awaitSync()} after its write. The first thread to
+ * arrive becomes the leader, waits for a short window so that other writes can
+ * arrive, and then runs the sync once for everyone who arrived in the meantime.
+ * Threads that arrive while a sync is running are covered by the next one.
+ * <p>
+ * The class is package-private and is only used by {@link WorkoutJournal}.
+ * </p>
+ */
+class GroupCommitter {
+    private final BooleanSupplier sync;
+    private volatile long windowMillis;
+
+    private long requested = 0;
+    private long synced = 0;
+    private long lastRoundCovered = 0;
+    private boolean lastRoundOk = true;
+    private boolean leaderActive = false;
+    private long syncCount = 0;
+
+    /**
+     * Constructor for the GroupCommitter class.
+     *
+     * @param sync         forces the written data to disk and returns true if it
+     *                     succeeded
+     * @param windowMillis how long the leader waits for other writes before
+     *                     syncing, 0 to sync right away
+     */
+    GroupCommitter(BooleanSupplier sync, long windowMillis) {
+        this.sync = sync;
+        setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Sets how long the leader waits for other writes before syncing.
+     *
+     * @param windowMillis the window in milliseconds, 0 to sync right away
+     * @throws IllegalArgumentException if the window is negative
+     */
+    void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Group commit window can not be negative");
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Returns how many times the sync has been run.
+     *
+     * @return the number of syncs
+     */
+    synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Blocks until a sync that started after this call has finished. Should be
+     * called after the data has been written, but not while holding a lock that
+     * other writers need, or they can not join the same sync.
+     *
+     * @return true if the data is on disk, false if the sync failed
+     */
+    boolean awaitSync() {
+        synchronized (this) {
+            long ticket = ++requested;
+            while (true) {
+                if (synced >= ticket) {
+                    return true;
+                }
+                if (!lastRoundOk && lastRoundCovered >= ticket) {
+                    return false;
+                }
+                if (!leaderActive) {
+                    leaderActive = true;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return lead();
+    }
+
+    /**
+     * Waits for the window, then syncs once for every request made so far.
+     *
+     * @return true if the sync succeeded, false otherwise
+     */
+    private boolean lead() {
+        long window = windowMillis;
+        if (window > 0) {
+            try {
+                Thread.sleep(window);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long covered;
+        synchronized (this) {
+            covered = requested;
+        }
+        boolean ok = sync.getAsBoolean();
+        synchronized (this) {
+            syncCount++;
+            if (ok) {
+                synced = Math.max(synced, covered);
+            }
+            lastRoundCovered = covered;
+            lastRoundOk = ok;
+            leaderActive = false;
+            notifyAll();
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,177 @@
+package filehandling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Folds the workout journal of a data file into the data file in the background,
+ * so the journal that has to be replayed on every read stays short. A background
+ * thread checks the journal on a fixed interval, and folds it once it has grown
+ * past a size in bytes, or once it has held records for longer than a maximum
+ * age.
+ * <p>
+ * The fold itself is passed in, and is expected to do the slow work of reading
+ * the users and writing the new data file without holding any lock that writers
+ * need. The compactor records how many folds it has run, how long they took and
+ * how many journal bytes they removed. The class is package-private and is only
+ * used by {@link DataFileStorageEngine}.
+ * </p>
+ */
+class JournalCompactor {
+    private final String location;
+    private final Path journalPath;
+    private final long maxJournalBytes;
+    private final long maxAgeMillis;
+    private final LongSupplier fold;
+    private final ScheduledExecutorService compactor;
+    // When the journal was first seen holding records, -1 if it is empty
+    private long firstSeenMillis = -1;
+
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong compactionNanos = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    /**
+     * Constructor for the JournalCompactor class. Starts a background thread that
+     * checks the journal every checkIntervalMillis milliseconds.
+     *
+     * @param location            the location of the data file
+     * @param checkIntervalMillis how often the journal is checked
+     * @param maxJournalBytes     the journal size that triggers a fold, 0 to only
+     *                            fold by age
+     * @param maxAgeMillis        how long the journal may hold records before it
+     *                            is folded, 0 to only fold by size
+     * @param fold                folds the journal into the data file, and returns
+     *                            the number of bytes the journal shrank by, or -1
+     *                            if nothing was folded
+     * @throws IllegalArgumentException if the interval is not positive, a threshold
+     *                                  is negative, or both thresholds are 0
+     */
+    JournalCompactor(String location, long checkIntervalMillis, long maxJournalBytes,
+            long maxAgeMillis, LongSupplier fold) {
+        if (checkIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Check interval must be positive");
+        }
+        if (maxJournalBytes < 0 || maxAgeMillis < 0
+                || (maxJournalBytes == 0 && maxAgeMillis == 0)) {
+            throw new IllegalArgumentException("A size or age threshold must be set");
+        }
+        this.location = location;
+        this.journalPath = Paths.get(location + ".journal");
+        this.maxJournalBytes = maxJournalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.fold = fold;
+
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loft-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::check, checkIntervalMillis,
+                checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the location of the data file this compactor belongs to.
+     *
+     * @return the data file location
+     */
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * Folds the journal if it has passed the size or age threshold.
+     *
+     * @return true if the journal was folded, false otherwise
+     */
+    synchronized boolean check() {
+        long journalBytes;
+        try {
+            journalBytes = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+        } catch (IOException e) {
+            return false;
+        }
+        if (journalBytes == 0) {
+            firstSeenMillis = -1;
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (firstSeenMillis < 0) {
+            firstSeenMillis = now;
+        }
+        boolean tooLarge = maxJournalBytes > 0 && journalBytes >= maxJournalBytes;
+        boolean tooOld = maxAgeMillis > 0 && now - firstSeenMillis >= maxAgeMillis;
+        if (!tooLarge && !tooOld) {
+            return false;
+        }
+        return compact();
+    }
+
+    /**
+     * Folds the journal into the data file right away, and records how long it
+     * took and how many bytes it removed.
+     *
+     * @return true if the journal was folded, false otherwise
+     */
+    synchronized boolean compact() {
+        long start = System.nanoTime();
+        long reclaimed;
+        try {
+            reclaimed = fold.getAsLong();
+        } catch (RuntimeException e) {
+            // Keep the background thread alive, the next check tries again
+            System.err.println("Compacting journal " + journalPath + " failed");
+            return false;
+        }
+        if (reclaimed < 0) {
+            return false;
+        }
+        compactionNanos.addAndGet(System.nanoTime() - start);
+        compactionCount.incrementAndGet();
+        bytesReclaimed.addAndGet(reclaimed);
+        firstSeenMillis = -1;
+        return true;
+    }
+
+    /**
+     * Returns how many times the journal has been folded.
+     *
+     * @return the number of folds
+     */
+    long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    /**
+     * Returns how long the folds have taken in total.
+     *
+     * @return the total duration in milliseconds
+     */
+    long getCompactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compactionNanos.get());
+    }
+
+    /**
+     * Returns how many bytes the folds have removed from the journal in total.
+     *
+     * @return the number of bytes reclaimed
+     */
+    long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Stops the background thread. A fold that is running is allowed to finish.
+     */
+    void close() {
+        compactor.shutdown();
+    }
+}
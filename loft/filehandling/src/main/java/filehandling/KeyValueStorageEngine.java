@@ -0,0 +1,226 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A storage engine backed by an embedded, transactional key-value store. It
+ * runs in the same process and keeps its files in a directory next to the data
+ * file, with ".kv" added to the name. It is selected with the name "kv".
+ * <p>
+ * The info of a user is stored under the key "user/" followed by the username.
+ * Every workout is stored on its own, under "workout/", the username and an id
+ * that grows by one for every workout the user adds. Workout keys sort in the
+ * order the workouts were added, so the workouts of a user are read with one
+ * prefix scan, and adding a workout writes a single entry no matter how many
+ * workouts the user has. Usernames are URL encoded in keys, so a username can
+ * never be the prefix of another user's keys.
+ * </p>
+ */
+public final class KeyValueStorageEngine implements StorageEngine {
+    private static final Gson gson = ModelGson.GSON;
+    private static final String USER_PREFIX = "user/";
+    private static final String WORKOUT_PREFIX = "workout/";
+
+    private final KeyValueStore store;
+
+    /**
+     * Opens the engine for the given data location.
+     *
+     * @param dataLocation the location of the data file
+     * @throws IOException if the store can not be opened
+     */
+    public KeyValueStorageEngine(String dataLocation) throws IOException {
+        this.store = new KeyValueStore(Paths.get(dataLocation + ".kv"));
+    }
+
+    @Override
+    public User readUser(String username, boolean withWorkouts) {
+        return store.read(view -> {
+            Profile profile = readProfile(view, username);
+            if (profile == null) {
+                return null;
+            }
+            User user = User.withPasswordHash(profile.name, profile.username,
+                    profile.passwordHash, profile.email);
+            if (withWorkouts) {
+                for (String workout : view.scan(workoutPrefix(username)).values()) {
+                    user.addWorkout(gson.fromJson(workout, Workout.class));
+                }
+            }
+            return user;
+        });
+    }
+
+    @Override
+    public List<String> readUsernames() {
+        return store.read(view -> {
+            List<String> usernames = new ArrayList<String>();
+            for (String profile : view.scan(USER_PREFIX).values()) {
+                usernames.add(gson.fromJson(profile, Profile.class).username);
+            }
+            return usernames;
+        });
+    }
+
+    @Override
+    public boolean containsUsername(String username) {
+        return store.read(view -> view.get(userKey(username)) != null);
+    }
+
+    @Override
+    public boolean insertUser(User user) {
+        try {
+            return store.transaction(transaction -> {
+                if (transaction.get(userKey(user.getUsername())) != null) {
+                    return false;
+                }
+                Profile profile = new Profile(user, 0);
+                for (Workout workout : user.getWorkoutsView()) {
+                    transaction.put(workoutKey(user.getUsername(), profile.nextWorkoutId++),
+                            gson.toJson(workout));
+                }
+                transaction.put(userKey(user.getUsername()), gson.toJson(profile));
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean addWorkout(String username, Workout workout) {
+        return addWorkouts(username, List.of(workout));
+    }
+
+    /**
+     * {@inheritDoc} The workouts are added in a single transaction, so either all
+     * of them are added or none.
+     */
+    @Override
+    public boolean addWorkouts(String username, List<Workout> workouts) {
+        try {
+            return store.transaction(transaction -> {
+                Profile profile = readProfile(transaction, username);
+                if (profile == null) {
+                    return false;
+                }
+                for (Workout workout : workouts) {
+                    transaction.put(workoutKey(username, profile.nextWorkoutId++),
+                            gson.toJson(workout));
+                }
+                transaction.put(userKey(username), gson.toJson(profile));
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean updateUser(String oldUsername, User newUser) {
+        String newUsername = newUser.getUsername();
+        try {
+            return store.transaction(transaction -> {
+                Profile oldProfile = readProfile(transaction, oldUsername);
+                if (oldProfile == null) {
+                    return false;
+                }
+                if (!oldUsername.equals(newUsername)) {
+                    if (transaction.get(userKey(newUsername)) != null) {
+                        return false;
+                    }
+                    String oldPrefix = workoutPrefix(oldUsername);
+                    String newPrefix = workoutPrefix(newUsername);
+                    for (Map.Entry<String, String> workout
+                            : transaction.scan(oldPrefix).entrySet()) {
+                        transaction.delete(workout.getKey());
+                        transaction.put(newPrefix + workout.getKey().substring(oldPrefix.length()),
+                                workout.getValue());
+                    }
+                    transaction.delete(userKey(oldUsername));
+                }
+                transaction.put(userKey(newUsername),
+                        gson.toJson(new Profile(newUser, oldProfile.nextWorkoutId)));
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Closing key-value store failed");
+        }
+    }
+
+    private static Profile readProfile(KeyValueStore.View view, String username) {
+        String profile = view.get(userKey(username));
+        return profile == null ? null : gson.fromJson(profile, Profile.class);
+    }
+
+    private static String userKey(String username) {
+        return USER_PREFIX + URLEncoder.encode(username, StandardCharsets.UTF_8);
+    }
+
+    private static String workoutPrefix(String username) {
+        return WORKOUT_PREFIX + URLEncoder.encode(username, StandardCharsets.UTF_8) + "/";
+    }
+
+    private static String workoutKey(String username, long workoutId) {
+        return workoutPrefix(username) + String.format("%016x", workoutId);
+    }
+
+    /**
+     * Opens a {@link KeyValueStorageEngine} by the name "kv".
+     */
+    public static final class Provider implements StorageEngineProvider {
+        /**
+         * The name the engine is selected by.
+         */
+        public static final String NAME = "kv";
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public StorageEngine open(String dataLocation) throws IOException {
+            return new KeyValueStorageEngine(dataLocation);
+        }
+    }
+
+    /**
+     * The info of a user, and the id the next workout of the user gets.
+     */
+    private static class Profile {
+        private String name;
+        private String username;
+        private String passwordHash;
+        private String email;
+        private long nextWorkoutId;
+
+        Profile(User user, long nextWorkoutId) {
+            this.name = user.getName();
+            this.username = user.getUsername();
+            this.passwordHash = user.getPasswordHash();
+            this.email = user.getEmail();
+            this.nextWorkoutId = nextWorkoutId;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * An embedded, transactional store of string keys and string values. All
+ * entries are kept in memory in a sorted map, so entries that share a key
+ * prefix can be listed in order. Changes are made durable with a write-ahead
+ * log and a snapshot in the store directory.
+ * <p>
+ * Every change happens in a transaction. A transaction sees its own changes and
+ * runs alone, so a read followed by a write can not be interleaved with other
+ * writers. When it commits, all of its changes are written to the log as one
+ * line and synced to disk before the commit returns, so after a crash either
+ * all or none of them are there. The changes are only applied to the entries
+ * once they are on disk, and a write or sync that fails is cut off the log
+ * again, so a failed commit changes nothing. Once the log holds enough
+ * transactions, the store is written to the snapshot and the log is cleared.
+ * </p>
+ * <p>
+ * The entries of one process would be lost when another process writes the
+ * snapshot, so the store is locked with a file lock on a lock file in the
+ * directory for as long as it is open, and can only be opened by one process
+ * at a time.
+ * </p>
+ * <p>
+ * The class is package-private and is used by {@link KeyValueStorageEngine}.
+ * </p>
+ */
+class KeyValueStore implements Closeable {
+    // Removed keys are logged with null values, so nulls must be written
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+    private static final int DEFAULT_CHECKPOINT_THRESHOLD = 1000;
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final int checkpointThreshold;
+    private final TreeMap<String, String> entries = new TreeMap<String, String>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Holds the file lock that keeps other processes out while the store is open
+    private final FileChannel processLock;
+    private FileChannel log;
+    private long lastTransaction = 0;
+    private int loggedTransactions = 0;
+
+    /**
+     * Read access to the entries in the store.
+     */
+    interface View {
+        /**
+         * Returns the value for a key.
+         *
+         * @param key the key to look up
+         * @return the value, or null if the key is not in the store
+         */
+        String get(String key);
+
+        /**
+         * Returns every entry whose key starts with the given prefix, sorted by
+         * key.
+         *
+         * @param prefix the key prefix
+         * @return the matching entries
+         */
+        SortedMap<String, String> scan(String prefix);
+    }
+
+    /**
+     * Read and write access to the entries in the store, inside a transaction.
+     */
+    interface Transaction extends View {
+        /**
+         * Sets the value for a key.
+         *
+         * @param key   the key to set
+         * @param value the new value
+         */
+        void put(String key, String value);
+
+        /**
+         * Removes a key.
+         *
+         * @param key the key to remove
+         */
+        void delete(String key);
+
+        /**
+         * Discards every change made in the transaction. Nothing is written when
+         * the transaction ends.
+         */
+        void rollback();
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it does not exist.
+     *
+     * @param directory the directory to keep the snapshot and log in
+     * @throws IOException if the store can not be read or created, or is open in
+     *                     another process
+     */
+    KeyValueStore(Path directory) throws IOException {
+        this(directory, DEFAULT_CHECKPOINT_THRESHOLD);
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it does not exist.
+     *
+     * @param directory           the directory to keep the snapshot and log in
+     * @param checkpointThreshold the number of logged transactions that triggers
+     *                            a new snapshot
+     * @throws IOException if the store can not be read or created, or is open in
+     *                     another process
+     */
+    KeyValueStore(Path directory, int checkpointThreshold) throws IOException {
+        if (checkpointThreshold <= 0) {
+            throw new IllegalArgumentException("Checkpoint threshold must be positive");
+        }
+        Files.createDirectories(directory);
+        this.snapshotPath = directory.resolve("snapshot.json");
+        this.logPath = directory.resolve("log.ndjson");
+        this.checkpointThreshold = checkpointThreshold;
+        this.processLock = lockDirectory(directory.resolve("store.lock"));
+        try {
+            readSnapshot();
+            long committedLength = replayLog();
+            log = openLog();
+            // A line cut short by a crash would swallow the next line appended to it
+            log.truncate(committedLength);
+        } catch (IOException | RuntimeException e) {
+            processLock.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the file lock that keeps other processes out of the store.
+     *
+     * @param lockPath the lock file
+     * @return the open lock file, which holds the lock until it is closed
+     * @throws IOException if the lock file can not be opened, or another process
+     *                     holds the lock
+     */
+    private static FileChannel lockDirectory(Path lockPath) throws IOException {
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            // Thrown if this process has the store open already
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("Store " + lockPath.getParent()
+                    + " is already open in another process");
+        }
+        return channel;
+    }
+
+    /**
+     * Runs the given work with read access to the store. The work sees the store
+     * as it was when it started, and is not interleaved with any transaction.
+     *
+     * @param <T>  the type of the result
+     * @param work the work to run
+     * @return the result of the work
+     */
+    <T> T read(Function<View, T> work) {
+        lock.readLock().lock();
+        try {
+            return work.apply(new MapView(entries));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the given work in a transaction. If the work returns normally and does
+     * not roll back, its changes are committed and synced to disk before this
+     * method returns. If the work throws, or the changes can not be written to
+     * disk, nothing is changed.
+     *
+     * @param <T>  the type of the result
+     * @param work the work to run
+     * @return the result of the work
+     * @throws UncheckedIOException if the changes could not be written to disk
+     */
+    <T> T transaction(Function<Transaction, T> work) {
+        lock.writeLock().lock();
+        try {
+            PendingTransaction transaction = new PendingTransaction(entries);
+            T result = work.apply(transaction);
+            if (!transaction.rolledBack && !transaction.changes.isEmpty()) {
+                commit(transaction.changes);
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes every entry to the snapshot and clears the log.
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    void checkpoint() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Snapshot snapshot = new Snapshot(lastTransaction, entries);
+            DurableFiles.writeAtomically(snapshotPath, writer -> gson.toJson(snapshot, writer));
+            log.close();
+            Files.deleteIfExists(logPath);
+            log = openLog();
+            loggedTransactions = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log and lets other processes open the store. The store can not
+     * be used afterwards.
+     *
+     * @throws IOException if the log can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            log.close();
+        } finally {
+            processLock.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the changes to the log, syncs the log and then applies the changes to
+     * the entries. If writing or syncing fails, the log is cut back to where it
+     * was, and the entries are not changed. Syncing while holding the write lock
+     * means transactions do not share syncs, but no transaction can read changes
+     * that are not on disk yet. Must be called while holding the write lock.
+     *
+     * @param changes the changes, with null values for removed keys
+     * @throws UncheckedIOException if the changes could not be written to disk
+     */
+    private void commit(Map<String, String> changes) {
+        LogRecord record = new LogRecord(lastTransaction + 1, changes);
+        byte[] line = (gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        long committedLength;
+        try {
+            committedLength = log.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            try {
+                log.truncate(committedLength);
+            } catch (IOException truncateFailed) {
+                e.addSuppressed(truncateFailed);
+            }
+            throw new UncheckedIOException("Writing to " + logPath + " failed", e);
+        }
+        lastTransaction = record.transaction;
+        apply(changes);
+        loggedTransactions++;
+        if (loggedTransactions >= checkpointThreshold) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                // The log still holds every change, so a later checkpoint can catch up
+                System.err.println("Writing snapshot " + snapshotPath + " failed");
+            }
+        }
+    }
+
+    private void apply(Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8)) {
+            Snapshot snapshot = gson.fromJson(reader, Snapshot.class);
+            if (snapshot != null && snapshot.entries != null) {
+                entries.putAll(snapshot.entries);
+                lastTransaction = snapshot.transaction;
+            }
+        } catch (JsonParseException e) {
+            throw new IOException("Corrupt snapshot " + snapshotPath, e);
+        }
+    }
+
+    /**
+     * Applies the transactions in the log that are newer than the snapshot. A
+     * line that can not be parsed is a transaction that never committed and is
+     * skipped. A last line without a line break was only partly written before a
+     * crash, and is not counted in the returned length.
+     *
+     * @return the length of the log up to the end of the last complete line
+     * @throws IOException if the log can not be read
+     */
+    private long replayLog() throws IOException {
+        if (!Files.exists(logPath)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(logPath);
+        int start = 0;
+        for (int end = 0; end < bytes.length; end++) {
+            if (bytes[end] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            LogRecord record;
+            try {
+                record = gson.fromJson(line, LogRecord.class);
+            } catch (JsonParseException e) {
+                System.err.println("Skipping broken transaction in " + logPath);
+                continue;
+            }
+            if (record != null && record.changes != null
+                    && record.transaction > lastTransaction) {
+                apply(record.changes);
+                lastTransaction = record.transaction;
+                loggedTransactions++;
+            }
+        }
+        if (start < bytes.length) {
+            System.err.println("Dropping unfinished transaction at the end of " + logPath);
+        }
+        return start;
+    }
+
+    private FileChannel openLog() throws IOException {
+        return FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A view of a sorted map.
+     */
+    private static class MapView implements View {
+        private final NavigableMap<String, String> map;
+
+        MapView(NavigableMap<String, String> map) {
+            this.map = map;
+        }
+
+        @Override
+        public String get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public SortedMap<String, String> scan(String prefix) {
+            return Collections.unmodifiableSortedMap(
+                    new TreeMap<String, String>(map.subMap(prefix, prefix + Character.MAX_VALUE)));
+        }
+    }
+
+    /**
+     * A transaction that collects its changes until it commits. Reads see the
+     * changes made so far.
+     */
+    private static class PendingTransaction extends MapView implements Transaction {
+        private final Map<String, String> changes = new LinkedHashMap<String, String>();
+        private boolean rolledBack = false;
+
+        PendingTransaction(NavigableMap<String, String> entries) {
+            super(entries);
+        }
+
+        @Override
+        public String get(String key) {
+            if (changes.containsKey(key)) {
+                return changes.get(key);
+            }
+            return super.get(key);
+        }
+
+        @Override
+        public SortedMap<String, String> scan(String prefix) {
+            TreeMap<String, String> result = new TreeMap<String, String>(super.scan(prefix));
+            List<String> removed = new ArrayList<String>();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (!change.getKey().startsWith(prefix)) {
+                    continue;
+                }
+                if (change.getValue() == null) {
+                    removed.add(change.getKey());
+                } else {
+                    result.put(change.getKey(), change.getValue());
+                }
+            }
+            result.keySet().removeAll(removed);
+            return Collections.unmodifiableSortedMap(result);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            if (key == null || value == null) {
+                throw new IllegalArgumentException("Null keys and values are not allowed");
+            }
+            changes.put(key, value);
+        }
+
+        @Override
+        public void delete(String key) {
+            changes.put(key, null);
+        }
+
+        @Override
+        public void rollback() {
+            changes.clear();
+            rolledBack = true;
+        }
+    }
+
+    /**
+     * One committed transaction in the log.
+     */
+    private static class LogRecord {
+        private long transaction;
+        private Map<String, String> changes;
+
+        LogRecord(long transaction, Map<String, String> changes) {
+            this.transaction = transaction;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * The contents of the snapshot file.
+     */
+    private static class Snapshot {
+        private long transaction;
+        private Map<String, String> entries;
+
+        Snapshot(long transaction, Map<String, String> entries) {
+            this.transaction = transaction;
+            this.entries = entries;
+        }
+    }
+}
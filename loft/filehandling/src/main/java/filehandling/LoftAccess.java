@@ -2,6 +2,9 @@ package filehandling;
 
 import core.User;
 import core.Workout;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * The LoftAccess interface provides methods for registering users, writing
@@ -27,6 +30,24 @@ public interface LoftAccess {
      */
     public boolean writeWorkoutToUser(Workout workout, User user);
 
+    /**
+     * Writes several workouts to a user at once, for example sessions that were
+     * logged while offline. The default implementation writes the workouts one by
+     * one. Implementations should override it to save them in a single write.
+     *
+     * @param workouts the workouts to add to the user, in order
+     * @param user     the user to add the workouts to
+     * @return true if every workout was successfully added, false otherwise
+     */
+    public default boolean writeWorkoutsToUser(List<Workout> workouts, User user) {
+        for (Workout workout : workouts) {
+            if (!writeWorkoutToUser(workout, user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns a User object if the given username and password match an existing
      * user in the system.
@@ -60,4 +81,32 @@ public interface LoftAccess {
      * @return true if the user was successfully updated, false otherwise
      */
     public boolean updateUserInfo(User oldUser, User newUser);
+
+    /**
+     * Returns the workouts of a user that are on one of the days from the first
+     * date to the last date, both included. Views that only show recent workouts
+     * can use this instead of reading every workout of the user.
+     * <p>
+     * The default implementation reads the user with all of its workouts and
+     * filters them. Implementations that can read a range of dates without reading
+     * the rest should override it.
+     * </p>
+     *
+     * @param username the username of the user
+     * @param password the password of the user
+     * @param from     the first date
+     * @param to       the last date
+     * @return the workouts within the dates, or null if the username and password
+     *         do not match a user
+     */
+    public default List<Workout> getWorkouts(String username, String password,
+            LocalDate from, LocalDate to) {
+        User user = getUser(username, password);
+        if (user == null) {
+            return null;
+        }
+        return user.getWorkoutsView().stream()
+                .filter(workout -> workout.isWithin(from, to))
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,122 @@
+package filehandling;
+
+/**
+ * What a recovery scan of a data file found: how many users it could read, and
+ * what it had to discard after the first damaged user. Returned by
+ * {@link DirectLoftAccess#recoverDataFile()}.
+ * <p>
+ * In the binary format every user is stored with its length and a checksum, so
+ * the scan knows how many users the file should have held and how many bytes it
+ * discarded. A json file has neither, so those are unknown, and only the users
+ * before the point where the json breaks off are kept.
+ * </p>
+ */
+public final class RecoveryReport {
+    private int recoveredUsers;
+    private boolean damaged;
+    private int expectedUsers = -1;
+    private long discardedBytes = -1;
+    private String problem;
+    private boolean repaired;
+
+    RecoveryReport() {
+    }
+
+    void addUser() {
+        recoveredUsers++;
+    }
+
+    /**
+     * Marks the file as damaged from the point where the scan stopped.
+     *
+     * @param problem        what was wrong with the first damaged user
+     * @param expectedUsers  the number of users the file should hold, or -1 if
+     *                       unknown
+     * @param discardedBytes the number of bytes from the first damaged user to the
+     *                       end of the file, or -1 if unknown
+     */
+    void discard(String problem, int expectedUsers, long discardedBytes) {
+        this.damaged = true;
+        this.problem = problem;
+        this.expectedUsers = expectedUsers;
+        this.discardedBytes = discardedBytes;
+    }
+
+    void setRepaired(boolean repaired) {
+        this.repaired = repaired;
+    }
+
+    /**
+     * Checks if the scan found any damage.
+     *
+     * @return true if the file is damaged, false if every user could be read
+     */
+    public boolean isDamaged() {
+        return damaged;
+    }
+
+    /**
+     * Returns the number of users that could be read.
+     *
+     * @return the number of recovered users
+     */
+    public int getRecoveredUsers() {
+        return recoveredUsers;
+    }
+
+    /**
+     * Returns the number of users that were discarded. Only known for the binary
+     * format.
+     *
+     * @return the number of discarded users, or -1 if unknown
+     */
+    public int getDiscardedUsers() {
+        if (!damaged) {
+            return 0;
+        }
+        return expectedUsers < 0 ? -1 : Math.max(0, expectedUsers - recoveredUsers);
+    }
+
+    /**
+     * Returns the number of bytes that were discarded, from the first damaged user
+     * to the end of the file. Only known for the binary format.
+     *
+     * @return the number of discarded bytes, or -1 if unknown
+     */
+    public long getDiscardedBytes() {
+        return damaged ? discardedBytes : 0;
+    }
+
+    /**
+     * Returns what was wrong with the first damaged user.
+     *
+     * @return the problem, or null if the file is not damaged
+     */
+    public String getProblem() {
+        return problem;
+    }
+
+    /**
+     * Checks if the damaged file was rewritten with the recovered users.
+     *
+     * @return true if the file was repaired, false if it is not damaged or could
+     *         not be written
+     */
+    public boolean isRepaired() {
+        return repaired;
+    }
+
+    @Override
+    public String toString() {
+        if (!damaged) {
+            return recoveredUsers + " users, no damage";
+        }
+        return String.format("%d users recovered, %s users and %s bytes discarded (%s)%s",
+                recoveredUsers, unknownIfNegative(getDiscardedUsers()),
+                unknownIfNegative(discardedBytes), problem, repaired ? ", repaired" : "");
+    }
+
+    private static String unknownIfNegative(long value) {
+        return value < 0 ? "unknown" : String.valueOf(value);
+    }
+}
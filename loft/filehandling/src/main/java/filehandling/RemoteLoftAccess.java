@@ -1,6 +1,8 @@
 package filehandling;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import core.ModelGson;
 import core.User;
 import core.Workout;
 import java.io.IOException;
@@ -11,6 +13,8 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
 
 /**
  * This class provides a remote access to the Loft system. It implements the
@@ -29,7 +33,7 @@ public class RemoteLoftAccess implements LoftAccess {
 
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
 
-    private static final Gson gson = new Gson();
+    private static final Gson gson = ModelGson.GSON;
 
     public RemoteLoftAccess(URI endpointBaseUri) {
         this.endpointBaseUri = endpointBaseUri;
@@ -194,6 +198,31 @@ public class RemoteLoftAccess implements LoftAccess {
         }
     }
 
+    /**
+     * {@inheritDoc} The workouts are sent in a single request.
+     */
+    @Override
+    public boolean writeWorkoutsToUser(List<Workout> workouts, User user) {
+        String workoutsString = gson.toJson(workouts);
+        URI endpoint = endpointBaseUri.resolve("users/" + user.getUsername() + "/workouts/batch");
+        URI endpointParams = paramifyUser(endpoint, user);
+
+        HttpRequest request = HttpRequest.newBuilder(endpointParams)
+                .header(ACCEPT_HEADER, APPLICATION_JSON)
+                .header(CONTENT_TYPE_HEADER, APPLICATION_JSON)
+                .PUT(BodyPublishers.ofString(workoutsString)).build();
+        try {
+            HttpResponse<String> response = HttpClient.newBuilder().build().send(request,
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return false;
+            }
+            return gson.fromJson(response.body(), Boolean.class);
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
     @Override
     public User getUser(String username, String password) {
         URI endpoint = endpointBaseUri.resolve("users/" + username);
@@ -219,6 +248,29 @@ public class RemoteLoftAccess implements LoftAccess {
         }
     }
 
+    @Override
+    public List<Workout> getWorkouts(String username, String password, LocalDate from,
+            LocalDate to) {
+        URI endpoint = endpointBaseUri.resolve("users/" + username + "/workouts");
+        URI endpointParams = getUriWithParams(endpoint, "password", password,
+                "from", from.toString(), "to", to.toString());
+
+        HttpRequest request = HttpRequest.newBuilder(endpointParams)
+                .header(ACCEPT_HEADER, APPLICATION_JSON)
+                .GET().build();
+        try {
+            HttpResponse<String> response = HttpClient.newBuilder().build().send(request,
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return null;
+            }
+            return gson.fromJson(response.body(), new TypeToken<List<Workout>>() {
+            }.getType());
+        } catch (IOException | InterruptedException e) {
+            return null;
+        }
+    }
+
     @Override
     public boolean usernameExists(String username) {
         URI uri = endpointBaseUri.resolve("check-username/" + username);
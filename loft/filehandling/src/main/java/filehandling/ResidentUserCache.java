@@ -0,0 +1,375 @@
+package filehandling;
+
+import core.User;
+import core.Workout;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * An in-memory copy of the users in a data file, keyed by username. The file is
+ * read once when the cache is created, and writes only update the memory copy.
+ * Changes are written back to the file in the background on a fixed interval,
+ * and once more when the cache is closed or the JVM shuts down.
+ * <p>
+ * The users are published as immutable snapshots. Readers take the current
+ * snapshot without a lock, so they never wait for a writer or a flush. A
+ * snapshot splits the users into segments by username, and writers build the
+ * next snapshot by copying only the user they change and the segment it is in,
+ * sharing every other user and segment with the snapshot before. The users
+ * handed out by the cache belong to a snapshot and must not be changed. Changes
+ * to a single user go through {@link #insertUser(User)},
+ * {@link #updateUser(String, User)} and the workout methods; changes to many
+ * users are made to the copies from {@link #copyUsers()} and written with
+ * {@link #setUsers(List)}. The class is package-private and is only used by
+ * {@link DataFileStorageEngine}.
+ * </p>
+ */
+class ResidentUserCache {
+    // Enough segments that a write copies a small part of a large store, few
+    // enough that copying the list of segments stays cheap
+    private static final int SEGMENTS = 64;
+
+    private final String location;
+    private final Predicate<List<User>> writer;
+    // A snapshot is never changed once it is published, so it is read without a
+    // lock
+    private volatile Snapshot snapshot;
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+    private boolean dirty = false;
+    // The position given to the next user added, which keeps the users in the
+    // order they were added
+    private long nextPosition = 0;
+
+    /**
+     * Constructor for the ResidentUserCache class. Starts a background thread that
+     * flushes the cache to the file every flushIntervalMillis milliseconds.
+     *
+     * @param location            the file location the users were read from
+     * @param users               the users currently in the file
+     * @param writer              writes a list of users to the file and returns
+     *                            true if it succeeded
+     * @param flushIntervalMillis how often changes are written to the file
+     * @throws IllegalArgumentException if the flush interval is not positive
+     */
+    ResidentUserCache(String location, List<User> users, Predicate<List<User>> writer,
+            long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.location = location;
+        this.writer = writer;
+        this.snapshot = toSnapshot(users);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loft-cache-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+
+        shutdownHook = new Thread(this::flush, "loft-cache-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Returns the file location this cache belongs to.
+     *
+     * @return the file location
+     */
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns all users in the current snapshot, in the order they were added.
+     * The users must not be changed.
+     *
+     * @return List of users
+     */
+    List<User> getUsers() {
+        return snapshot.getUsers();
+    }
+
+    /**
+     * Returns copies of all users in the current snapshot, which can be changed
+     * and passed to {@link #setUsers(List)}. The workouts are shared with the
+     * snapshot, and must not be changed.
+     *
+     * @return List of copies of the users
+     */
+    List<User> copyUsers() {
+        List<User> copies = new ArrayList<User>();
+        for (User user : getUsers()) {
+            copies.add(copy(user));
+        }
+        return copies;
+    }
+
+    /**
+     * Returns the user with the given username from the current snapshot. The
+     * user must not be changed.
+     *
+     * @param username the username to look up
+     * @return the user, or null if no user has the given username
+     */
+    User getUser(String username) {
+        Entry entry = snapshot.get(username);
+        return entry == null ? null : entry.user;
+    }
+
+    /**
+     * Checks if a user with the given username is in the current snapshot.
+     *
+     * @param username the username to check for
+     * @return true if the username exists, false otherwise
+     */
+    boolean containsUsername(String username) {
+        return snapshot.get(username) != null;
+    }
+
+    /**
+     * Replaces all users in the cache with a new snapshot. The change is written to
+     * the file on the next flush. The users must not be changed afterwards.
+     *
+     * @param newUsers the new list of users
+     */
+    synchronized void setUsers(List<User> newUsers) {
+        snapshot = toSnapshot(newUsers);
+        dirty = true;
+    }
+
+    /**
+     * Adds a new user to the cache, after the users already in it. The change is
+     * written to the file on the next flush. The user must not be changed
+     * afterwards.
+     *
+     * @param user the user to add
+     * @return true if the user was added, false if the username is taken
+     */
+    synchronized boolean insertUser(User user) {
+        if (containsUsername(user.getUsername())) {
+            return false;
+        }
+        publish(snapshot.with(null, new Entry(user, nextPosition++)));
+        return true;
+    }
+
+    /**
+     * Replaces the info of a user with the info of newUser, keeping the workouts
+     * of the old user. The changed user is moved after the other users. The
+     * change is written to the file on the next flush.
+     *
+     * @param oldUsername the username of the user to change
+     * @param newUser     the new info of the user
+     * @return true if the user was changed, false if the old user is not in the
+     *         cache or the new username is taken by another user
+     */
+    synchronized boolean updateUser(String oldUsername, User newUser) {
+        Entry old = snapshot.get(oldUsername);
+        if (old == null || (!oldUsername.equals(newUser.getUsername())
+                && containsUsername(newUser.getUsername()))) {
+            return false;
+        }
+        User changed = User.withPasswordHash(newUser.getName(), newUser.getUsername(),
+                newUser.getPasswordHash(), newUser.getEmail());
+        old.user.forEachWorkout(changed::addWorkout);
+        publish(snapshot.with(oldUsername, new Entry(changed, nextPosition++)));
+        return true;
+    }
+
+    /**
+     * Adds workouts to a user in the cache. The change is written to the file on
+     * the next flush.
+     *
+     * @param username the username of the user to add the workouts to
+     * @param workouts the workouts to add
+     * @return true if the workouts were added, false if the user is not in the
+     *         cache
+     */
+    synchronized boolean addWorkouts(String username, List<Workout> workouts) {
+        Entry entry = snapshot.get(username);
+        if (entry == null) {
+            return false;
+        }
+        User changed = copy(entry.user);
+        workouts.forEach(changed::addWorkout);
+        publish(snapshot.with(username, new Entry(changed, entry.position)));
+        return true;
+    }
+
+    /**
+     * Adds a workout to a user in the cache. The change is written to the file on
+     * the next flush. The record action is run first, while no flush can happen,
+     * so a workout recorded elsewhere (for example in a journal) is never missing
+     * from a flush that has already cleared that record.
+     *
+     * @param username the username of the user to add the workout to
+     * @param workout  the workout to add
+     * @param record   run before the workout is added, returns false to cancel
+     * @return true if the workout was added, false if the user is not in the
+     *         cache or the record action failed
+     */
+    synchronized boolean addWorkout(String username, Workout workout, BooleanSupplier record) {
+        if (!containsUsername(username) || !record.getAsBoolean()) {
+            return false;
+        }
+        return addWorkouts(username, List.of(workout));
+    }
+
+    /**
+     * Returns whether the cache has changes that are not yet written to the file.
+     *
+     * @return true if there are unwritten changes, false otherwise
+     */
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the cache to the file if it has changed since the last flush.
+     * Writers wait for the flush, so a workout recorded in the journal is never
+     * cleared from it by a flush of an older snapshot, but readers do not.
+     *
+     * @return true if the file is up to date, false if writing failed
+     */
+    synchronized boolean flush() {
+        if (!dirty) {
+            return true;
+        }
+        if (!writer.test(getUsers())) {
+            System.err.println("Flushing users to " + location + " failed");
+            return false;
+        }
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * Stops the background flushing and writes any remaining changes to the
+     * file.
+     *
+     * @return true if the file is up to date, false if writing failed
+     */
+    boolean close() {
+        flusher.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, the hook will flush for us.
+        }
+        return flush();
+    }
+
+    private synchronized void publish(Snapshot next) {
+        snapshot = next;
+        dirty = true;
+    }
+
+    private synchronized Snapshot toSnapshot(List<User> newUsers) {
+        List<Map<String, Entry>> segments = new ArrayList<Map<String, Entry>>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new HashMap<String, Entry>());
+        }
+        for (User user : newUsers) {
+            Map<String, Entry> segment = segments.get(Snapshot.segmentOf(user.getUsername()));
+            segment.put(user.getUsername(), new Entry(user, nextPosition++));
+        }
+        return new Snapshot(segments);
+    }
+
+    /**
+     * Copies the info of a user, sharing its workouts.
+     */
+    private static User copy(User user) {
+        User copy = User.withPasswordHash(user.getName(), user.getUsername(),
+                user.getPasswordHash(), user.getEmail());
+        user.forEachWorkout(copy::addWorkout);
+        return copy;
+    }
+
+    /**
+     * A user in a snapshot, with its position in the order the users were added.
+     */
+    private static final class Entry {
+        private final User user;
+        private final long position;
+
+        private Entry(User user, long position) {
+            this.user = user;
+            this.position = position;
+        }
+    }
+
+    /**
+     * An immutable set of users, split into segments by the hash of the username.
+     * Neither the list of segments nor a segment is changed once the snapshot is
+     * built, so a new snapshot can share every segment it does not change.
+     */
+    private static final class Snapshot {
+        private final List<Map<String, Entry>> segments;
+
+        private Snapshot(List<Map<String, Entry>> segments) {
+            this.segments = segments;
+        }
+
+        private static int segmentOf(String username) {
+            return Math.floorMod(username.hashCode(), SEGMENTS);
+        }
+
+        private Entry get(String username) {
+            return segments.get(segmentOf(username)).get(username);
+        }
+
+        private List<User> getUsers() {
+            List<Entry> entries = new ArrayList<Entry>();
+            for (Map<String, Entry> segment : segments) {
+                entries.addAll(segment.values());
+            }
+            entries.sort(Comparator.comparingLong(entry -> entry.position));
+            List<User> users = new ArrayList<User>(entries.size());
+            for (Entry entry : entries) {
+                users.add(entry.user);
+            }
+            return users;
+        }
+
+        /**
+         * Returns a new snapshot without the user with the removed username, and
+         * with the added entry. Only the segments that change are copied.
+         *
+         * @param removed the username to remove, or null to remove nothing
+         * @param added   the entry to add, or null to add nothing
+         * @return the new snapshot
+         */
+        private Snapshot with(String removed, Entry added) {
+            List<Map<String, Entry>> next = new ArrayList<Map<String, Entry>>(segments);
+            if (removed != null) {
+                copySegment(next, segmentOf(removed)).remove(removed);
+            }
+            if (added != null) {
+                String username = added.user.getUsername();
+                copySegment(next, segmentOf(username)).put(username, added);
+            }
+            return new Snapshot(next);
+        }
+
+        private Map<String, Entry> copySegment(List<Map<String, Entry>> next, int index) {
+            Map<String, Entry> segment = next.get(index);
+            if (segment == segments.get(index)) {
+                segment = new HashMap<String, Entry>(segment);
+                next.set(index, segment);
+            }
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,990 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores every user in a file of its own instead of in one shared data file.
+ * The files live in a directory next to the data file, with ".users" added to
+ * the name. Each user file is named after the hex encoded username, or after a
+ * SHA-256 hash of it if the hex encoded name would be too long for a file name.
+ * A manifest lists all usernames so the users can be listed without scanning
+ * the directory.
+ * <p>
+ * The manifest is a snapshot of the usernames, followed by a log that adding,
+ * renaming and removing a user append one line to. The manifest is read once
+ * and kept in memory, and only new lines of the log are read after that. When
+ * the log has grown longer than the snapshot, the two are written into a new
+ * snapshot. A line cut short by a crash is never read, and is dropped by the
+ * next append. A user is only in the store once its line is in the log, so a
+ * crash never leaves half a rename behind, only files that are not read.
+ * </p>
+ * <p>
+ * The info of a user and the workouts of the user are stored apart, so the
+ * info can be read without the workouts. The workouts are stored in a directory
+ * per user, with one segment file for every month that has workouts and a
+ * segment list naming those months. Reading a range of dates only reads the
+ * segments of the months in the range, and adding a workout only rewrites the
+ * segment of its month.
+ * </p>
+ * <p>
+ * A missing file is read as no user, no workouts or no segments. Any other file
+ * that can not be read is never taken as empty: reads throw, and writes fail
+ * without touching the files, so a damaged segment is not overwritten with only
+ * the new workouts.
+ * </p>
+ * <p>
+ * Reading or writing a user only touches that user's file, and writes to
+ * different users run in parallel. Only adding, renaming and removing users
+ * write to the manifest. The store is the {@link StorageEngine} of
+ * {@link DirectLoftAccess} while sharded storage is enabled. The class is
+ * package-private and is only used by {@link DirectLoftAccess}.
+ * </p>
+ */
+class ShardedUserStore implements StorageEngine {
+    private static final Gson gson = ModelGson.PRETTY_GSON;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Usernames longer than this are hashed, so every file name stays well within
+    // the 255 bytes most file systems allow
+    private static final int MAX_HEX_BYTES = 100;
+    // The log is always allowed this many lines before it is compacted
+    static final int MIN_COMPACT_LINES = 1000;
+    private static final TypeToken<List<Workout>> WORKOUTS = new TypeToken<List<Workout>>() {
+    };
+
+    private final Path directory;
+    private final Path manifestPath;
+    private final Path logPath;
+    private final Map<String, Object> userLocks = new ConcurrentHashMap<String, Object>();
+    private final Object manifestLock = new Object();
+    // Usernames an import has taken but not yet added to the manifest
+    private final Set<String> importing = ConcurrentHashMap.newKeySet();
+    // The usernames in the manifest, or null if it has not been read yet
+    private LinkedHashSet<String> usernames;
+    private int snapshotSize;
+    // How many bytes and lines of the log have been read into the usernames
+    private long logPosition;
+    private int logLines;
+
+    /**
+     * Constructor for the ShardedUserStore class.
+     *
+     * @param dataLocation the location of the data file the store belongs to
+     */
+    ShardedUserStore(String dataLocation) {
+        this.directory = Paths.get(dataLocation + ".users");
+        this.manifestPath = directory.resolve("manifest.json");
+        this.logPath = directory.resolve("manifest.log");
+    }
+
+    /**
+     * Returns the directory the user files are stored in.
+     *
+     * @return the directory path
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Checks if the store has been created on disk.
+     *
+     * @return true if the manifest exists, false otherwise
+     */
+    boolean exists() {
+        return Files.exists(manifestPath) || Files.exists(logPath);
+    }
+
+    /**
+     * Writes the given users to the store, replacing anything already in it. Used
+     * for moving users from the data file into the store.
+     *
+     * @param users the users to write
+     * @return true if all users were written, false otherwise
+     */
+    boolean importUsers(List<User> users) {
+        synchronized (manifestLock) {
+            List<String> names = new ArrayList<String>();
+            for (User user : users) {
+                if (!writeUser(user)) {
+                    return false;
+                }
+                names.add(user.getUsername());
+            }
+            return writeManifest(names);
+        }
+    }
+
+    /**
+     * Adds usernames to the manifest, for users whose files have already been
+     * written with {@link #writeUser(User)}. Lets many new users be added with a
+     * single append to the manifest.
+     *
+     * @param usernames the usernames to add
+     * @return true if successful, false otherwise
+     */
+    boolean addUsernames(List<String> usernames) {
+        StringBuilder lines = new StringBuilder();
+        for (String username : usernames) {
+            lines.append(logLine("add", username));
+        }
+        return appendToManifest(lines.toString());
+    }
+
+    /**
+     * Returns the usernames in the manifest.
+     *
+     * @return List of usernames
+     */
+    List<String> getUsernames() {
+        synchronized (manifestLock) {
+            return new ArrayList<String>(manifest());
+        }
+    }
+
+    @Override
+    public List<String> readUsernames() {
+        return getUsernames();
+    }
+
+    /**
+     * Reads every user in the store, in the order they were added.
+     *
+     * @return List of users
+     * @throws UncheckedIOException if the files of a user can not be read
+     */
+    List<User> readUsers() {
+        List<User> users = new ArrayList<User>();
+        for (String username : getUsernames()) {
+            User user = readUser(username);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Reads the user with the given username, with all of its workouts.
+     *
+     * @param username the username of the user to read
+     * @return the user, or null if no user has the given username
+     * @throws UncheckedIOException if the files of the user can not be read
+     */
+    User readUser(String username) {
+        User user = readProfile(username);
+        if (user != null) {
+            user.loadWorkouts();
+        }
+        return user;
+    }
+
+    @Override
+    public User readUser(String username, boolean withWorkouts) {
+        return withWorkouts ? readUser(username) : readProfile(username);
+    }
+
+    /**
+     * Reads the info of the user with the given username, without reading its
+     * workouts. The workouts are read from their file the first time they are
+     * needed.
+     *
+     * @param username the username of the user to read
+     * @return the user, or null if no user has the given username
+     * @throws UncheckedIOException if the info file of the user can not be read,
+     *                              or later, the workouts
+     */
+    User readProfile(String username) {
+        if (!containsUsername(username)) {
+            return null;
+        }
+        Profile profile;
+        try {
+            profile = readProfileFile(username);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (profile == null) {
+            return null;
+        }
+        User user = User.withPasswordHash(profile.name, profile.username,
+                profile.passwordHash, profile.email);
+        user.setWorkoutLoader(() -> readWorkouts(username));
+        return user;
+    }
+
+    /**
+     * Reads the workouts of the user with the given username, sorted by month.
+     *
+     * @param username the username of the user
+     * @return the workouts, or an empty list if the user has none
+     * @throws UncheckedIOException if the workouts can not be read
+     */
+    List<Workout> readWorkouts(String username) {
+        try {
+            List<Workout> workouts = new ArrayList<Workout>();
+            for (String month : readSegmentList(username)) {
+                workouts.addAll(readSegment(username, month));
+            }
+            return workouts;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the workouts of the user with the given username that are on one of
+     * the days from the first date to the last date, both included. Only the
+     * segments of the months in the range are read.
+     *
+     * @param username the username of the user
+     * @param from     the first date
+     * @param to       the last date
+     * @return the workouts within the dates, sorted by month, or null if no user
+     *         has the given username
+     * @throws UncheckedIOException if the workouts can not be read
+     */
+    @Override
+    public List<Workout> readWorkouts(String username, LocalDate from, LocalDate to) {
+        if (!containsUsername(username)) {
+            return null;
+        }
+        List<Workout> workouts = new ArrayList<Workout>();
+        try {
+            String first = YearMonth.from(from).toString();
+            String last = YearMonth.from(to).toString();
+            for (String month : readSegmentList(username)) {
+                if (month.compareTo(first) >= 0 && month.compareTo(last) <= 0) {
+                    workouts.addAll(readSegment(username, month));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        workouts.removeIf(workout -> !workout.isWithin(from, to));
+        return workouts;
+    }
+
+    /**
+     * Replaces all workouts of a user, without touching the info of the user. The
+     * user must already be in the store.
+     *
+     * @param username the username of the user
+     * @param workouts all workouts of the user
+     * @return true if successful, false otherwise
+     */
+    boolean writeWorkouts(String username, List<Workout> workouts) {
+        TreeMap<String, List<Workout>> segments = new TreeMap<String, List<Workout>>();
+        for (Workout workout : workouts) {
+            segments.computeIfAbsent(YearMonth.from(workout.getDate()).toString(),
+                    month -> new ArrayList<Workout>()).add(workout);
+        }
+        try {
+            List<String> oldMonths = readSegmentList(username);
+            Files.createDirectories(segmentDirectory(username));
+            for (Map.Entry<String, List<Workout>> segment : segments.entrySet()) {
+                writeSegment(username, segment.getKey(), segment.getValue());
+            }
+            // The segment list is written last, so it never names a missing segment
+            writeSegmentList(username, new ArrayList<String>(segments.keySet()));
+            for (String month : oldMonths) {
+                if (!segments.containsKey(month)) {
+                    Files.deleteIfExists(segmentPath(username, month));
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a workout to a user, only rewriting the segment of the month of the
+     * workout.
+     *
+     * @param username the username of the user
+     * @param workout  the workout to add
+     * @return true if successful, false if the user does not exist or writing
+     *         failed
+     */
+    @Override
+    public boolean addWorkout(String username, Workout workout) {
+        return addWorkouts(username, List.of(workout));
+    }
+
+    /**
+     * Adds several workouts to a user, rewriting the segment of every month they
+     * are in once. Only the files of the given user are read and written.
+     *
+     * @param username the username of the user
+     * @param workouts the workouts to add, in order
+     * @return true if successful, false if the user does not exist or writing
+     *         failed
+     */
+    @Override
+    public boolean addWorkouts(String username, List<Workout> workouts) {
+        return withUserLock(username,
+                () -> containsUsername(username) && appendWorkouts(username, workouts));
+    }
+
+    /**
+     * Adds workouts to the segments of a user that is in the store.
+     *
+     * @param username the username of the user
+     * @param workouts the workouts to add, in order
+     * @return true if successful, false otherwise
+     */
+    private boolean appendWorkouts(String username, List<Workout> workouts) {
+        Map<String, List<Workout>> added = new TreeMap<String, List<Workout>>();
+        for (Workout workout : workouts) {
+            added.computeIfAbsent(YearMonth.from(workout.getDate()).toString(),
+                    month -> new ArrayList<Workout>()).add(workout);
+        }
+        try {
+            List<String> months = readSegmentList(username);
+            for (Map.Entry<String, List<Workout>> entry : added.entrySet()) {
+                List<Workout> segment = readSegment(username, entry.getKey());
+                segment.addAll(entry.getValue());
+                writeSegment(username, entry.getKey(), segment);
+            }
+            if (!months.containsAll(added.keySet())) {
+                TreeSet<String> all = new TreeSet<String>(months);
+                all.addAll(added.keySet());
+                writeSegmentList(username, new ArrayList<String>(all));
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a user with the given username is in the store, without reading
+     * the user. Only the manifest is checked.
+     *
+     * @param username the username to check for
+     * @return true if the username exists, false otherwise
+     */
+    @Override
+    public boolean containsUsername(String username) {
+        synchronized (manifestLock) {
+            return manifest().contains(username);
+        }
+    }
+
+    /**
+     * Adds a new user to the store.
+     *
+     * @param user the user to add
+     * @return true if the user was added, false if the username is taken or
+     *         writing failed
+     */
+    boolean addUser(User user) {
+        return withUserLock(user.getUsername(), () -> {
+            if (isTaken(user.getUsername()) || !writeUser(user)) {
+                return false;
+            }
+            return appendToManifest(logLine("add", user.getUsername()));
+        });
+    }
+
+    @Override
+    public boolean insertUser(User user) {
+        return addUser(user);
+    }
+
+    /**
+     * {@inheritDoc} Only the files of the old and the new username are touched.
+     */
+    @Override
+    public boolean updateUser(String oldUsername, User newUser) {
+        String newUsername = newUser.getUsername();
+        return withUserLocks(oldUsername, newUsername, () -> {
+            User savedUser;
+            try {
+                savedUser = readUser(oldUsername);
+            } catch (UncheckedIOException e) {
+                // The user is not rewritten without the workouts that could not be read
+                return false;
+            }
+            if (savedUser == null) {
+                return false;
+            }
+            User updated = User.withPasswordHash(newUser.getName(), newUsername,
+                    newUser.getPasswordHash(), newUser.getEmail());
+            savedUser.forEachWorkout(updated::addWorkout);
+            if (oldUsername.equals(newUsername)) {
+                return writeUser(updated);
+            }
+            return renameUser(oldUsername, updated);
+        });
+    }
+
+    /**
+     * {@inheritDoc} The files of every new user are written first, and they are
+     * all added to the manifest with one write at the end. Each user is written
+     * while holding its user lock, and its username counts as taken until it is
+     * in the manifest, so a user added or renamed meanwhile is neither
+     * overwritten nor added twice.
+     */
+    @Override
+    public void insertUsers(Iterator<User> users, BulkTransfer.Report report)
+            throws IOException {
+        List<String> taken = new ArrayList<String>();
+        List<String> added = new ArrayList<String>();
+        try {
+            while (users.hasNext()) {
+                User user = users.next();
+                String username = user.getUsername();
+                if (!withUserLock(username, () -> !isTaken(username) && importing.add(username))) {
+                    report.addSkipped();
+                    continue;
+                }
+                taken.add(username);
+                if (!withUserLock(username, () -> writeUser(user))) {
+                    throw new IOException("Writing user " + username + " failed");
+                }
+                added.add(username);
+                report.addUser(user);
+            }
+        } finally {
+            try {
+                // Users already written are kept even if a later one fails
+                if (!addUsernames(added)) {
+                    throw new IOException("Writing the manifest failed");
+                }
+            } finally {
+                importing.removeAll(taken);
+            }
+        }
+    }
+
+    /**
+     * Checks if a username is in the manifest or has been taken by an import
+     * that has not added it to the manifest yet. Must be called while holding
+     * the user lock for the username.
+     *
+     * @param username the username to check
+     * @return true if the username can not be used for a new user
+     */
+    private boolean isTaken(String username) {
+        return importing.contains(username) || containsUsername(username);
+    }
+
+    /**
+     * Does nothing, since the store keeps no files open.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Moves a user to a new username. The user is written under the new username,
+     * and then moved in the manifest with a single line, so the user is always in
+     * the store under exactly one of the usernames.
+     *
+     * @param oldUsername the username the user has now
+     * @param user        the user, with the new username
+     * @return true if the user was moved, false if the old username is not in the
+     *         store, the new username is taken or writing failed
+     */
+    boolean renameUser(String oldUsername, User user) {
+        String newUsername = user.getUsername();
+        return withUserLocks(oldUsername, newUsername, () -> {
+            if (!containsUsername(oldUsername) || isTaken(newUsername)
+                    || !writeUser(user)
+                    || !appendToManifest(logLine("rename", oldUsername, newUsername))) {
+                return false;
+            }
+            deleteFiles(oldUsername);
+            return true;
+        });
+    }
+
+    /**
+     * Removes the user with the given username from the store.
+     *
+     * @param username the username of the user to remove
+     * @return true if the user was removed, false otherwise
+     */
+    boolean removeUser(String username) {
+        return withUserLock(username, () -> {
+            if (!containsUsername(username)
+                    || !appendToManifest(logLine("remove", username))) {
+                return false;
+            }
+            deleteFiles(username);
+            return true;
+        });
+    }
+
+    /**
+     * Deletes the files of a user that is no longer in the manifest. A file left
+     * behind is never read, and is replaced if the username is added again.
+     *
+     * @param username the username of the removed user
+     */
+    private void deleteFiles(String username) {
+        try {
+            Files.deleteIfExists(userPath(username));
+            deleteWorkouts(username);
+        } catch (IOException e) {
+            System.err.println("Deleting the files of " + username + " failed");
+        }
+    }
+
+    /**
+     * Writes a user to its files, replacing the previous version. The workouts are
+     * written before the info, so the info file of a new user only appears once
+     * its workouts are stored. Does not touch the manifest, so the user must
+     * already be in the store or be added to the manifest afterwards.
+     *
+     * @param user the user to write
+     * @return true if successful, false otherwise
+     */
+    boolean writeUser(User user) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!writeWorkouts(user.getUsername(), user.getWorkoutsView())) {
+            return false;
+        }
+        try {
+            DurableFiles.writeAtomically(userPath(user.getUsername()),
+                    writer -> gson.toJson(new Profile(user), writer));
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the given action while holding the lock for the given username. Actions
+     * for different usernames run in parallel.
+     *
+     * @param <T>      the type of the action result
+     * @param username the username to lock
+     * @param action   the action to run
+     * @return the result of the action
+     */
+    <T> T withUserLock(String username, Supplier<T> action) {
+        Object lock = userLocks.computeIfAbsent(username, key -> new Object());
+        synchronized (lock) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Runs the given action while holding the locks for both usernames. The locks
+     * are always taken in the same order, so two actions that lock the same pair
+     * of usernames can not block each other forever.
+     *
+     * @param <T>    the type of the action result
+     * @param first  the first username to lock
+     * @param second the second username to lock
+     * @param action the action to run
+     * @return the result of the action
+     */
+    <T> T withUserLocks(String first, String second, Supplier<T> action) {
+        if (first.compareTo(second) > 0) {
+            return withUserLocks(second, first, action);
+        }
+        return withUserLock(first, () -> withUserLock(second, action));
+    }
+
+    /**
+     * Deletes every file in the store, and the directory itself. The manifest is
+     * deleted first, so the store no longer {@link #exists()} even if some of the
+     * other files can not be deleted. Files that are not in the manifest, like
+     * the files of a removed user that were left behind, are deleted too.
+     *
+     * @return true if the store was deleted, false otherwise
+     */
+    boolean delete() {
+        synchronized (manifestLock) {
+            try {
+                Files.deleteIfExists(manifestPath);
+                Files.deleteIfExists(logPath);
+                if (Files.isDirectory(directory)) {
+                    List<Path> files;
+                    try (Stream<Path> walk = Files.walk(directory)) {
+                        files = walk.sorted(Comparator.reverseOrder())
+                                .collect(Collectors.toList());
+                    }
+                    // Deepest first, so every directory is empty when it is deleted
+                    for (Path file : files) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            } finally {
+                usernames = null;
+            }
+            return true;
+        }
+    }
+
+    private Path userPath(String username) {
+        return directory.resolve(fileName(username) + ".json");
+    }
+
+    private Path segmentDirectory(String username) {
+        return directory.resolve(fileName(username) + ".workouts");
+    }
+
+    private Path segmentPath(String username, String month) {
+        return segmentDirectory(username).resolve(month + ".json");
+    }
+
+    private Path segmentListPath(String username) {
+        return segmentDirectory(username).resolve("segments.json");
+    }
+
+    /**
+     * Reads the months that have a segment, sorted.
+     *
+     * @param username the username of the user
+     * @return the months, or an empty list if the user has no segments
+     * @throws IOException if the segment list exists but can not be read
+     */
+    private List<String> readSegmentList(String username) throws IOException {
+        SegmentList list;
+        try {
+            list = readJson(segmentListPath(username), SegmentList.class);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<String>();
+        }
+        if (list == null || list.months == null) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(list.months);
+    }
+
+    private void writeSegmentList(String username, List<String> months) throws IOException {
+        DurableFiles.writeAtomically(segmentListPath(username),
+                writer -> gson.toJson(new SegmentList(months), writer));
+    }
+
+    private List<Workout> readSegment(String username, String month) throws IOException {
+        return readWorkoutList(segmentPath(username, month));
+    }
+
+    private void writeSegment(String username, String month, List<Workout> workouts)
+            throws IOException {
+        DurableFiles.writeAtomically(segmentPath(username, month),
+                writer -> gson.toJson(workouts, WORKOUTS.getType(), writer));
+    }
+
+    private List<Workout> readWorkoutList(Path path) throws IOException {
+        List<Workout> workouts;
+        try {
+            workouts = readJson(path, WORKOUTS.getType());
+        } catch (NoSuchFileException e) {
+            return new ArrayList<Workout>();
+        }
+        return workouts == null ? new ArrayList<Workout>() : new ArrayList<Workout>(workouts);
+    }
+
+    /**
+     * Reads a JSON file of the store.
+     *
+     * @param <T>  the type of the content
+     * @param path the file to read
+     * @param type the type of the content
+     * @return the content, or null if the file is empty
+     * @throws NoSuchFileException if the file does not exist
+     * @throws IOException         if the file can not be read or parsed
+     */
+    private static <T> T readJson(Path path, Type type) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, type);
+        } catch (JsonParseException e) {
+            throw new IOException(path + " is damaged", e);
+        }
+    }
+
+    private void deleteWorkouts(String username) throws IOException {
+        // Every file is deleted, since the segment list may be the damaged one
+        if (Files.isDirectory(segmentDirectory(username))) {
+            List<Path> segments;
+            try (Stream<Path> files = Files.list(segmentDirectory(username))) {
+                segments = files.collect(Collectors.toList());
+            }
+            for (Path segment : segments) {
+                Files.deleteIfExists(segment);
+            }
+        }
+        Files.deleteIfExists(segmentDirectory(username));
+    }
+
+    private static String fileName(String username) {
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_HEX_BYTES) {
+            return "h" + hex(sha256(bytes));
+        }
+        return "u" + hex(bytes);
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] & 0xFF) >>> 4];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Profile readProfileFile(String username) throws IOException {
+        Profile profile;
+        try {
+            profile = readJson(userPath(username), Profile.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (profile == null || profile.username == null || profile.passwordHash == null) {
+            return null;
+        }
+        return profile;
+    }
+
+    /**
+     * Returns the usernames in the manifest. The snapshot is read the first time,
+     * and after that only the lines appended to the log since the last call. Must
+     * be called while holding the manifest lock.
+     *
+     * @return the usernames, in the order they were added
+     */
+    private LinkedHashSet<String> manifest() {
+        long logSize = logSize();
+        if (usernames == null || logSize < logPosition) {
+            // The log has been compacted since it was read
+            usernames = new LinkedHashSet<String>(readSnapshot());
+            snapshotSize = usernames.size();
+            logPosition = 0;
+            logLines = 0;
+        }
+        if (logSize > logPosition) {
+            readLog();
+        }
+        return usernames;
+    }
+
+    private long logSize() {
+        try {
+            return Files.size(logPath);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private List<String> readSnapshot() {
+        try (Reader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            Manifest manifest = gson.fromJson(reader, Manifest.class);
+            if (manifest != null && manifest.usernames != null) {
+                return manifest.usernames;
+            }
+        } catch (IOException e) {
+            // No manifest means an empty store
+        }
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Reads the lines of the log after the part already read. A last line without
+     * a line break was cut short by a crash, and is left unread.
+     */
+    private void readLog() {
+        byte[] bytes;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            channel.position(logPosition);
+            bytes = Channels.newInputStream(channel).readAllBytes();
+        } catch (IOException e) {
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                applyLogLine(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                logLines++;
+                start = i + 1;
+            }
+        }
+        logPosition += start;
+    }
+
+    private void applyLogLine(String line) {
+        String[] fields = line.split(" ");
+        if (fields[0].equals("add") && fields.length == 2) {
+            usernames.add(URLDecoder.decode(fields[1], StandardCharsets.UTF_8));
+        } else if (fields[0].equals("remove") && fields.length == 2) {
+            usernames.remove(URLDecoder.decode(fields[1], StandardCharsets.UTF_8));
+        } else if (fields[0].equals("rename") && fields.length == 3) {
+            usernames.remove(URLDecoder.decode(fields[1], StandardCharsets.UTF_8));
+            usernames.add(URLDecoder.decode(fields[2], StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String logLine(String operation, String... usernames) {
+        StringBuilder line = new StringBuilder(operation);
+        for (String username : usernames) {
+            line.append(' ').append(URLEncoder.encode(username, StandardCharsets.UTF_8));
+        }
+        return line.append('\n').toString();
+    }
+
+    /**
+     * Appends lines to the log of the manifest and forces them to disk, and
+     * compacts the manifest if the log has grown long.
+     *
+     * @param lines the lines to append, each ending with a line break
+     * @return true if the lines were appended, false otherwise
+     */
+    private boolean appendToManifest(String lines) {
+        if (lines.isEmpty()) {
+            return true;
+        }
+        synchronized (manifestLock) {
+            try {
+                Files.createDirectories(directory);
+                manifest();
+                try (FileChannel channel = FileChannel.open(logPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    // Drops a line cut short by a crash, so it is not joined with these
+                    channel.truncate(logPosition);
+                    channel.position(logPosition);
+                    ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            manifest();
+            if (logLines > Math.max(MIN_COMPACT_LINES, snapshotSize)
+                    && !writeManifest(usernames)) {
+                // The lines are in the log, so the manifest is still correct
+                System.err.println("Compacting the manifest in " + directory + " failed");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the manifest with the given usernames, and then
+     * empties the log. Replaying the old log on the new snapshot gives the same
+     * usernames, so a crash in between changes nothing.
+     *
+     * @param names the usernames in the store
+     * @return true if successful, false otherwise
+     */
+    private boolean writeManifest(Collection<String> names) {
+        synchronized (manifestLock) {
+            List<String> snapshot = new ArrayList<String>(names);
+            try {
+                Files.createDirectories(directory);
+                DurableFiles.writeAtomically(manifestPath,
+                        writer -> gson.toJson(new Manifest(snapshot), writer));
+                DurableFiles.writeAtomically(logPath, writer -> {
+                });
+            } catch (IOException e) {
+                usernames = null;
+                return false;
+            }
+            usernames = new LinkedHashSet<String>(snapshot);
+            snapshotSize = snapshot.size();
+            logPosition = 0;
+            logLines = 0;
+            return true;
+        }
+    }
+
+    /**
+     * The contents of the info file of a user.
+     */
+    private static class Profile {
+        private String name;
+        private String username;
+        private String passwordHash;
+        private String email;
+
+        Profile(User user) {
+            this.name = user.getName();
+            this.username = user.getUsername();
+            this.passwordHash = user.getPasswordHash();
+            this.email = user.getEmail();
+        }
+    }
+
+    /**
+     * The contents of the segment list of a user.
+     */
+    private static class SegmentList {
+        private List<String> months;
+
+        SegmentList(List<String> months) {
+            this.months = new ArrayList<String>(months);
+        }
+    }
+
+    /**
+     * The contents of the manifest file.
+     */
+    private static class Manifest {
+        private List<String> usernames;
+
+        Manifest(List<String> usernames) {
+            this.usernames = new ArrayList<String>(usernames);
+        }
+    }
+}
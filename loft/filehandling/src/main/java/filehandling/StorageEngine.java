@@ -0,0 +1,175 @@
+package filehandling;
+
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * A storage engine that {@link DirectLoftAccess} can store users and workouts
+ * in, instead of its built-in data file. Users are stored by username, and the
+ * workouts of a user are stored one by one, so adding a workout does not
+ * rewrite the user.
+ * <p>
+ * Engines do not check passwords, {@link DirectLoftAccess} does that before it
+ * calls them. Every method must be safe to call from several threads, and
+ * methods that change data must either make all of their changes or none.
+ * Engines are opened by a {@link StorageEngineProvider}.
+ * </p>
+ */
+public interface StorageEngine extends AutoCloseable {
+    /**
+     * Reads a user.
+     *
+     * @param username     the username of the user to read
+     * @param withWorkouts true to read the workouts of the user as well, false to
+     *                     only read the user info
+     * @return the user, or null if no user has the username
+     */
+    public User readUser(String username, boolean withWorkouts);
+
+    /**
+     * Reads the workouts of a user that are on one of the days from the first
+     * date to the last date, both included. The default implementation reads
+     * every workout of the user and filters them.
+     *
+     * @param username the username of the user
+     * @param from     the first date
+     * @param to       the last date
+     * @return the workouts within the dates, or null if no user has the username
+     */
+    public default List<Workout> readWorkouts(String username, LocalDate from, LocalDate to) {
+        User user = readUser(username, true);
+        if (user == null) {
+            return null;
+        }
+        return user.getWorkoutsView().stream()
+                .filter(workout -> workout.isWithin(from, to))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns every username in the engine. Used to export all users one at a
+     * time, and by {@link #forEachUser(Consumer)}.
+     *
+     * @return List of usernames
+     */
+    public List<String> readUsernames();
+
+    /**
+     * Reads the password hash of a user, to check a password before workouts are
+     * added. The default implementation reads the user info.
+     *
+     * @param username the username of the user
+     * @return the password hash, or null if no user has the username
+     */
+    public default String readPasswordHash(String username) {
+        User user = readUser(username, false);
+        return user == null ? null : user.getPasswordHash();
+    }
+
+    /**
+     * Checks if a username exists.
+     *
+     * @param username the username to check for
+     * @return true if the username exists, false otherwise
+     */
+    public boolean containsUsername(String username);
+
+    /**
+     * Adds a new user, together with any workouts it has.
+     *
+     * @param user the user to add
+     * @return true if the user was added, false if the username is taken or the
+     *         user could not be stored
+     */
+    public boolean insertUser(User user);
+
+    /**
+     * Adds a workout to a user.
+     *
+     * @param username the username of the user
+     * @param workout  the workout to add
+     * @return true if the workout was added, false if the user does not exist or
+     *         the workout could not be stored
+     */
+    public boolean addWorkout(String username, Workout workout);
+
+    /**
+     * Adds several workouts to a user. The default implementation adds them one
+     * by one, so some may be added if a later one fails. Engines that can add them
+     * all at once should override it.
+     *
+     * @param username the username of the user
+     * @param workouts the workouts to add, in order
+     * @return true if the workouts were added, false if the user does not exist or
+     *         a workout could not be stored
+     */
+    public default boolean addWorkouts(String username, List<Workout> workouts) {
+        for (Workout workout : workouts) {
+            if (!addWorkout(username, workout)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the info of a user, keeping its workouts. The username may change,
+     * in which case the workouts are moved to the new username.
+     *
+     * @param oldUsername the current username of the user
+     * @param newUser     the new user info, the workouts of which are ignored
+     * @return true if the user was updated, false if the old user does not exist,
+     *         the new username is taken, or the user could not be stored
+     */
+    public boolean updateUser(String oldUsername, User newUser);
+
+    /**
+     * Adds many users, and counts them in the report. Users whose username is
+     * taken are skipped. The users are consumed one at a time, so only one of
+     * them has to be in memory. The default implementation inserts them one by
+     * one. Engines that can write them all at once should override it.
+     *
+     * @param users  the users to add, with their workouts
+     * @param report the report to count added and skipped users in
+     * @throws IOException if the users can not be stored
+     */
+    public default void insertUsers(Iterator<User> users, BulkTransfer.Report report)
+            throws IOException {
+        while (users.hasNext()) {
+            User user = users.next();
+            if (insertUser(user)) {
+                report.addUser(user);
+            } else {
+                report.addSkipped();
+            }
+        }
+    }
+
+    /**
+     * Passes every user to the action, with its workouts, one at a time. The
+     * default implementation reads the users one by one with
+     * {@link #readUsernames()}.
+     *
+     * @param action the action to pass every user to
+     */
+    public default void forEachUser(Consumer<User> action) {
+        for (String username : readUsernames()) {
+            User user = readUser(username, true);
+            if (user != null) {
+                action.accept(user);
+            }
+        }
+    }
+
+    /**
+     * Closes the engine. The engine can not be used afterwards.
+     */
+    @Override
+    public void close();
+}
@@ -0,0 +1,28 @@
+package filehandling;
+
+import java.io.IOException;
+
+/**
+ * Opens a {@link StorageEngine} by name. Providers are found with
+ * {@link java.util.ServiceLoader}, so an engine in another module can be used by
+ * declaring it as a provider of this interface. {@link DirectLoftAccess} opens
+ * the engine named by the "loft.storage" system property.
+ */
+public interface StorageEngineProvider {
+    /**
+     * Returns the name the engine is selected by.
+     *
+     * @return the engine name
+     */
+    public String getName();
+
+    /**
+     * Opens the engine for the given data location. The engine keeps its files
+     * next to the location, so different locations hold different users.
+     *
+     * @param dataLocation the location of the data file
+     * @return the opened engine
+     * @throws IOException if the engine can not be opened
+     */
+    public StorageEngine open(String dataLocation) throws IOException;
+}
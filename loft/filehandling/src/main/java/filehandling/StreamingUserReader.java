@@ -0,0 +1,427 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import core.ModelGson;
+import core.User;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks up single users in a data file without reading every user into memory.
+ * The file is read as a stream of json tokens, and users that do not match are
+ * skipped token by token. Only the requested user is turned into a
+ * {@link User} object, and only if its password hash matches.
+ * <p>
+ * Data files in the {@link BinaryUserFormat} are detected by their magic bytes
+ * and handed to it instead, which skips users by their length prefix. Json
+ * files compressed with gzip are decompressed while they are streamed.
+ * </p>
+ * <p>
+ * The class is package-private and is only used by {@link DirectLoftAccess}.
+ * </p>
+ */
+final class StreamingUserReader {
+    private static final Gson gson = ModelGson.GSON;
+
+    private StreamingUserReader() {
+    }
+
+    /**
+     * An action that is passed the users of a data file one at a time.
+     */
+    @FunctionalInterface
+    interface UserAction {
+        /**
+         * Handles one user.
+         *
+         * @param user the user
+         * @throws IOException if handling the user fails
+         */
+        void accept(User user) throws IOException;
+    }
+
+    /**
+     * Reads the user with the given username from the data file. The returned
+     * holder contains the user, or no users if there is no match, together with
+     * the journal sequence number stored in the file.
+     *
+     * @param path         the data file to read
+     * @param username     the username of the user to read
+     * @param passwordHash the password hash the user must have, or null to accept
+     *                     any password
+     * @return a holder with the matching user, if any
+     * @throws IOException if the file can not be read
+     */
+    static UsersHolder readUser(Path path, String username, String passwordHash)
+            throws IOException {
+        return readUser(path, username, passwordHash, true);
+    }
+
+    /**
+     * Reads the user with the given username from the data file, optionally
+     * without its workouts. Without workouts, the workouts of the user are skipped
+     * in the file instead of being parsed, so reading the info of a user does not
+     * depend on how many workouts the user has.
+     *
+     * @param path         the data file to read
+     * @param username     the username of the user to read
+     * @param passwordHash the password hash the user must have, or null to accept
+     *                     any password
+     * @param withWorkouts whether to read the workouts of the user, or only the
+     *                     info
+     * @return a holder with the matching user, if any
+     * @throws IOException if the file can not be read
+     */
+    static UsersHolder readUser(Path path, String username, String passwordHash,
+            boolean withWorkouts) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.readUser(path, username, passwordHash, withWorkouts);
+        }
+        List<User> found = new ArrayList<User>();
+        long journalSequence = 0;
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return new UsersHolder(found);
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("users") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (!found.isEmpty()) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        User user = readUserIfMatching(reader, username, passwordHash,
+                                withWorkouts);
+                        if (user != null) {
+                            found.add(user);
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.equals("journalSequence")) {
+                    journalSequence = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid json in " + path, e);
+        }
+        return new UsersHolder(found, journalSequence);
+    }
+
+    /**
+     * Reads the version of the data file. The version is written before the
+     * users, so only the start of the file is read.
+     *
+     * @param path the data file to read
+     * @return the data file version, or 0 if the file has no version
+     * @throws IOException if the file can not be read
+     */
+    static long readVersion(Path path) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.readVersion(path);
+        }
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return 0;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("version") && reader.peek() == JsonToken.NUMBER) {
+                    return reader.nextLong();
+                }
+                reader.skipValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the journal sequence number of the data file. The sequence number is
+     * written before the users, so only the start of the file is read.
+     *
+     * @param path the data file to read
+     * @return the sequence number of the last journal record included in the
+     *         file, or 0 if the file has none
+     * @throws IOException if the file can not be read
+     */
+    static long readJournalSequence(Path path) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.readJournalSequence(path);
+        }
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return 0;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("users")) {
+                    break;
+                }
+                if (name.equals("journalSequence") && reader.peek() == JsonToken.NUMBER) {
+                    return reader.nextLong();
+                }
+                reader.skipValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the users in the data file one at a time and passes each of them to
+     * the action, so only one user is in memory at a time. Workouts that are still
+     * in the workout journal are not included.
+     *
+     * @param path   the data file to read
+     * @param action the action to pass every user to
+     * @throws IOException if the file can not be read, or the action fails
+     */
+    static void forEachUser(Path path, UserAction action) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            BinaryUserFormat.forEachUser(path, action);
+            return;
+        }
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("users")
+                        || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    User user = gson.fromJson(reader, User.class);
+                    if (user != null) {
+                        action.accept(user);
+                    }
+                }
+                reader.endArray();
+            }
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid json in " + path, e);
+        }
+    }
+
+    /**
+     * Reads every user in the data file up to the point where the file is
+     * damaged, for example cut short by a crash while it was being copied. The
+     * users are read one at a time, and every user that is complete before the
+     * json breaks off is kept. Binary files are handed to
+     * {@link BinaryUserFormat#recover(Path, RecoveryReport)}, which checks every
+     * user against its checksum.
+     *
+     * @param path   the data file to read
+     * @param report the report to count the recovered users in, and to mark as
+     *               damaged if the file breaks off
+     * @return a holder with the recovered users, the data file version and the
+     *         journal sequence number, where they could be read
+     * @throws IOException if the file can not be opened
+     */
+    static UsersHolder recover(Path path, RecoveryReport report) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.recover(path, report);
+        }
+        List<User> users = new ArrayList<User>();
+        long version = 0;
+        long journalSequence = 0;
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("users") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            User user = gson.fromJson(reader, User.class);
+                            if (user != null) {
+                                users.add(user);
+                                report.addUser();
+                            }
+                        }
+                        reader.endArray();
+                    } else if (name.equals("version") && reader.peek() == JsonToken.NUMBER) {
+                        version = reader.nextLong();
+                    } else if (name.equals("journalSequence")
+                            && reader.peek() == JsonToken.NUMBER) {
+                        journalSequence = reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } catch (IOException | JsonParseException e) {
+                report.discard(e.getMessage(), -1, -1);
+            }
+        }
+        return new UsersHolder(users, journalSequence, version);
+    }
+
+    /**
+     * Checks if a user with the given username is in the data file. Stops reading
+     * as soon as the username is found.
+     *
+     * @param path     the data file to read
+     * @param username the username to check for
+     * @return true if the username exists, false otherwise
+     * @throws IOException if the file can not be read
+     */
+    static boolean containsUsername(Path path, String username) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.readUsernames(path).contains(username);
+        }
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("users")
+                        || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (hasUsername(reader, username)) {
+                        return true;
+                    }
+                }
+                reader.endArray();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads every username in the data file, skipping everything else.
+     *
+     * @param path the data file to read
+     * @return List of usernames, in the order they are in the file
+     * @throws IOException if the file can not be read
+     */
+    static List<String> readUsernames(Path path) throws IOException {
+        if (BinaryUserFormat.isBinary(path)) {
+            return BinaryUserFormat.readUsernames(path);
+        }
+        List<String> usernames = new ArrayList<String>();
+        try (JsonReader reader = new JsonReader(Compression.newReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return usernames;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("users")
+                        || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String username = readUsername(reader);
+                    if (username != null) {
+                        usernames.add(username);
+                    }
+                }
+                reader.endArray();
+            }
+        }
+        return usernames;
+    }
+
+    /**
+     * Reads one user object and returns it if the username and password hash
+     * match. The string fields are read first, and as soon as one of them rules
+     * the user out, the rest of the object is skipped.
+     *
+     * @param reader       the reader, positioned at a user object
+     * @param username     the username to match
+     * @param passwordHash the password hash to match, or null to accept any
+     * @param withWorkouts whether to read the workouts, or skip them
+     * @return the user, or null if it does not match
+     * @throws IOException if the file can not be read
+     */
+    private static User readUserIfMatching(JsonReader reader, String username,
+            String passwordHash, boolean withWorkouts) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        JsonObject fields = new JsonObject();
+        boolean rejected = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (rejected || !withWorkouts && name.equals("workouts")) {
+                reader.skipValue();
+            } else if (reader.peek() == JsonToken.STRING) {
+                String value = reader.nextString();
+                fields.addProperty(name, value);
+                rejected = name.equals("username") && !value.equals(username)
+                        || name.equals("passwordHash") && passwordHash != null
+                                && !value.equals(passwordHash);
+            } else {
+                fields.add(name, JsonParser.parseReader(reader));
+            }
+        }
+        reader.endObject();
+
+        if (rejected || !fields.has("username")
+                || passwordHash != null && !fields.has("passwordHash")) {
+            return null;
+        }
+        return gson.fromJson(fields, User.class);
+    }
+
+    /**
+     * Reads one user object and checks its username, skipping everything else.
+     *
+     * @param reader   the reader, positioned at a user object
+     * @param username the username to check for
+     * @return true if the user has the given username, false otherwise
+     * @throws IOException if the file can not be read
+     */
+    private static boolean hasUsername(JsonReader reader, String username) throws IOException {
+        return username.equals(readUsername(reader));
+    }
+
+    /**
+     * Reads one user object and returns its username, skipping everything else.
+     *
+     * @param reader the reader, positioned at a user object
+     * @return the username, or null if the user has none
+     * @throws IOException if the file can not be read
+     */
+    private static String readUsername(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String username = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("username") && reader.peek() == JsonToken.STRING) {
+                username = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return username;
+    }
+}
@@ -0,0 +1,217 @@
+package filehandling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sidecar file next to the data file, with ".index" added to the name, that
+ * holds every username in sorted order, each with the password hash of the
+ * user. The index is kept in memory as a hash map, so checking if a username
+ * exists, or which password hash it has, takes constant time no matter how many
+ * users there are.
+ * <p>
+ * The index file starts with a stamp made from the version and size of the data
+ * file it was built from. Every write of the data file raises its version, so
+ * the stamp changes even if the data file is rewritten with the same size
+ * within the same clock tick. Only the start of the data file is read for the
+ * version. Before every lookup the stamp is compared to the data file, and if
+ * the data file has been changed by someone else, or the index file is missing,
+ * the index is rebuilt by streaming through the data file. The index file is
+ * replaced atomically, so a crash never leaves a stamp with only part of the
+ * usernames. The class is package-private and is only used by
+ * {@link DataFileStorageEngine}.
+ * </p>
+ */
+class UsernameIndex {
+    private static final String HEADER = "loft-username-index 2";
+    private static final String MISSING = "missing";
+
+    private final Path dataPath;
+    private final Path indexPath;
+    // The password hash of every username
+    private Map<String, String> usernames = new HashMap<String, String>();
+    private String stamp;
+
+    /**
+     * Constructor for the UsernameIndex class. The index is read or built on the
+     * first lookup.
+     *
+     * @param dataLocation the location of the data file the index belongs to
+     */
+    UsernameIndex(String dataLocation) {
+        this.dataPath = Paths.get(dataLocation);
+        this.indexPath = Paths.get(dataLocation + ".index");
+    }
+
+    /**
+     * Returns the location of the index file.
+     *
+     * @return the index file path
+     */
+    Path getPath() {
+        return indexPath;
+    }
+
+    /**
+     * Checks if a username is in the data file, rebuilding the index first if it
+     * is out of date.
+     *
+     * @param username the username to check for
+     * @return true if the username exists, false otherwise
+     * @throws IllegalStateException if the index is rebuilt from a damaged data file
+     */
+    synchronized boolean contains(String username) {
+        refresh();
+        return usernames.containsKey(username);
+    }
+
+    /**
+     * Returns the password hash of a user in the data file, rebuilding the index
+     * first if it is out of date.
+     *
+     * @param username the username of the user
+     * @return the password hash, or null if the username does not exist
+     * @throws IllegalStateException if the index is rebuilt from a damaged data file
+     */
+    synchronized String getPasswordHash(String username) {
+        refresh();
+        return usernames.get(username);
+    }
+
+    /**
+     * Replaces the index with the given users. Should be called right after the
+     * data file has been written with exactly these users.
+     *
+     * @param passwordHashes the password hash of every username in the data file
+     * @throws IllegalStateException if the version of the data file can not be read
+     */
+    synchronized void update(Map<String, String> passwordHashes) {
+        usernames = new HashMap<String, String>(passwordHashes);
+        stamp = currentStamp();
+        save();
+    }
+
+    /**
+     * Deletes the index file.
+     *
+     * @return true if the file was deleted or did not exist, false otherwise
+     */
+    synchronized boolean delete() {
+        stamp = null;
+        try {
+            Files.deleteIfExists(indexPath);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads or rebuilds the index if the data file has changed since it was last
+     * read. Only the version and size of the data file are checked.
+     *
+     * @throws IllegalStateException if the data file is damaged
+     */
+    private void refresh() {
+        String current = currentStamp();
+        if (!current.equals(stamp) && !load(current)) {
+            rebuild(current);
+        }
+    }
+
+    /**
+     * Reads the index file if it was built from the current data file.
+     *
+     * @param current the stamp of the current data file
+     * @return true if the index file was read, false if it is missing or stale
+     */
+    private boolean load(String current) {
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine()) || !current.equals(reader.readLine())) {
+                return false;
+            }
+            Map<String, String> loaded = new HashMap<String, String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    return false;
+                }
+                loaded.put(URLDecoder.decode(line.substring(0, space), StandardCharsets.UTF_8),
+                        URLDecoder.decode(line.substring(space + 1), StandardCharsets.UTF_8));
+            }
+            usernames = loaded;
+            stamp = current;
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the index from the data file and saves it.
+     *
+     * @param current the stamp of the current data file
+     * @throws IllegalStateException if the data file is damaged
+     */
+    private void rebuild(String current) {
+        Map<String, String> rebuilt = new HashMap<String, String>();
+        try {
+            StreamingUserReader.forEachUser(dataPath,
+                    user -> rebuilt.put(user.getUsername(), user.getPasswordHash()));
+        } catch (NoSuchFileException e) {
+            // No data file means no users
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+        usernames = rebuilt;
+        stamp = current;
+        save();
+    }
+
+    private void save() {
+        List<String> sorted = new ArrayList<String>(usernames.keySet());
+        sorted.sort(null);
+        try {
+            DurableFiles.writeAtomically(indexPath, writer -> {
+                writer.write(HEADER + "\n" + stamp + "\n");
+                for (String username : sorted) {
+                    // Encoded values never contain a space
+                    writer.write(URLEncoder.encode(username, StandardCharsets.UTF_8));
+                    writer.write(" ");
+                    writer.write(URLEncoder.encode(usernames.get(username),
+                            StandardCharsets.UTF_8));
+                    writer.write("\n");
+                }
+            });
+        } catch (IOException e) {
+            // The index is still correct in memory, and will be rebuilt next time
+            System.err.println("Writing username index " + indexPath + " failed");
+        }
+    }
+
+    private String currentStamp() {
+        try {
+            return StreamingUserReader.readVersion(dataPath) + " " + Files.size(dataPath);
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        } catch (IOException e) {
+            throw damaged(e);
+        }
+    }
+
+    private IllegalStateException damaged(IOException cause) {
+        return new IllegalStateException("Data file " + dataPath + " is damaged", cause);
+    }
+}
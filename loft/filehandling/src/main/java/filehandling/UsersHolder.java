@@ -9,6 +9,9 @@ import java.util.List;
  * json file. It is package-private so as few classes possible can use it.
  */
 class UsersHolder {
+    // Written first, so they can be read without reading the users
+    private long version;
+    private long journalSequence;
     private List<User> users;
 
     /**
@@ -17,7 +20,35 @@ class UsersHolder {
      * @param users List of users
      */
     public UsersHolder(List<User> users) {
+        this(users, 0);
+    }
+
+    /**
+     * Constructor for the UsersHolder class that also records how much of the
+     * workout journal is included in the users.
+     *
+     * @param users           List of users
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the users
+     */
+    public UsersHolder(List<User> users, long journalSequence) {
+        this(users, journalSequence, 0);
+    }
+
+    /**
+     * Constructor for the UsersHolder class that also records the version of the
+     * data file.
+     *
+     * @param users           List of users
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the users
+     * @param version         the version of the data file, which grows by one
+     *                        every time the file is written
+     */
+    public UsersHolder(List<User> users, long journalSequence, long version) {
         this.users = new ArrayList<User>(users);
+        this.journalSequence = journalSequence;
+        this.version = version;
     }
 
     /**
@@ -28,4 +59,24 @@ class UsersHolder {
     public List<User> getUsers() {
         return new ArrayList<User>(users);
     }
+
+    /**
+     * Returns the sequence number of the last journal record included in the
+     * users, or 0 if the journal has never been used.
+     *
+     * @return the journal sequence number
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    /**
+     * Returns the version of the data file the users were read from, or 0 if the
+     * file has never been written with a version.
+     *
+     * @return the data file version
+     */
+    public long getVersion() {
+        return version;
+    }
 }
@@ -0,0 +1,501 @@
+package filehandling;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import core.ModelGson;
+import core.User;
+import core.Workout;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * An append-only log of workouts that have been added to users since the data
+ * file was last written. The log lives next to the data file, with ".journal"
+ * added to the name, and holds one json record per line.
+ * <p>
+ * Every record has a sequence number. The data file remembers the sequence
+ * number of the last record folded into it, so records that were already
+ * folded in are skipped if the journal could not be cleared after a write.
+ * </p>
+ * <p>
+ * Appending only writes the record. Callers make it durable with
+ * {@link #sync()}, which lets writers that arrive close together share one
+ * sync to disk.
+ * </p>
+ * <p>
+ * Other processes may append to the journal or fold it into the data file, as
+ * long as they hold the {@link FileStoreLock} of the data file.
+ * {@link #refresh()} and {@link #invalidate()} drop what this object knows
+ * about the journal when that happens. The class is package-private and is
+ * only used by {@link DataFileStorageEngine}.
+ * </p>
+ */
+class WorkoutJournal {
+    private static final Gson gson = ModelGson.GSON;
+
+    private final Path path;
+    private final LongSupplier foldedSequenceReader;
+    private final GroupCommitter committer;
+    private long foldedSequence = -1;
+    private long lastSequence = -1;
+    private int size = -1;
+    // The length the journal file has after the changes made through this object
+    private long knownLength = -1;
+
+    /**
+     * Constructor for the WorkoutJournal class.
+     *
+     * @param dataLocation         the location of the data file the journal
+     *                             belongs to
+     * @param foldedSequenceReader reads the last sequence number folded into the
+     *                             data file, used if it is not known yet
+     * @param groupCommitMillis    how long a sync waits for other appends to
+     *                             join it, 0 to sync right away
+     */
+    WorkoutJournal(String dataLocation, LongSupplier foldedSequenceReader,
+            long groupCommitMillis) {
+        this.path = Paths.get(dataLocation + ".journal");
+        this.foldedSequenceReader = foldedSequenceReader;
+        this.committer = new GroupCommitter(this::force, groupCommitMillis);
+    }
+
+    /**
+     * Returns the location of the journal file.
+     *
+     * @return the journal file path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Sets how long a sync waits for other appends to join it.
+     *
+     * @param groupCommitMillis the window in milliseconds, 0 to sync right away
+     */
+    void setGroupCommitWindow(long groupCommitMillis) {
+        committer.setWindowMillis(groupCommitMillis);
+    }
+
+    /**
+     * Returns how many times the journal has been synced to disk.
+     *
+     * @return the number of syncs
+     */
+    long getSyncCount() {
+        return committer.getSyncCount();
+    }
+
+    /**
+     * Returns the number of records in the journal.
+     *
+     * @return the number of records
+     */
+    synchronized int size() {
+        if (size < 0) {
+            readRecords();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the sequence number of the last record written, either still in the
+     * journal or already folded into the data file. Returns 0 if no record has
+     * ever been written.
+     *
+     * @return the last sequence number
+     */
+    synchronized long getLastSequence() {
+        if (lastSequence < 0) {
+            readRecords();
+        }
+        if (foldedSequence < 0) {
+            foldedSequence = foldedSequenceReader.getAsLong();
+        }
+        return Math.max(lastSequence, foldedSequence);
+    }
+
+    /**
+     * Appends a workout record to the journal. The cost does not depend on how
+     * many users or workouts the data file holds.
+     *
+     * @param username the username of the user the workout belongs to
+     * @param workout  the workout to append
+     * @return true if the record was written, false otherwise
+     */
+    synchronized boolean append(String username, Workout workout) {
+        long sequence = getLastSequence() + 1;
+        String line = gson.toJson(new Record(sequence, username, workout));
+        byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        long end;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            end = completeLength(channel);
+            // Drops a line cut short by a crash, so it is not joined with this one
+            channel.truncate(end);
+            channel.position(end);
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                try {
+                    channel.truncate(end);
+                } catch (IOException truncateFailed) {
+                    e.addSuppressed(truncateFailed);
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            // Part of the line may still be in the file, so the length is unknown
+            invalidate();
+            return false;
+        }
+        lastSequence = sequence;
+        size++;
+        if (knownLength >= 0) {
+            knownLength = end + bytes.length;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the end of the last complete line in the journal file. Only the end
+     * of the file is read.
+     *
+     * @param channel the journal file
+     * @return the length of the file without a last line that has no line break
+     * @throws IOException if the journal file can not be read
+     */
+    private static long completeLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Drops the cached size and sequence numbers if the journal file is not as
+     * this object left it, because another process appended to or cleared it.
+     * Should be called while holding the lock of the data file, before
+     * appending.
+     */
+    synchronized void refresh() {
+        if (knownLength < 0) {
+            return;
+        }
+        long length;
+        try {
+            length = Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            length = -1;
+        }
+        if (length != knownLength) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Drops the cached size and sequence numbers, so they are read again when
+     * they are needed next. Should be called when the data file was written by
+     * another process.
+     */
+    synchronized void invalidate() {
+        foldedSequence = -1;
+        lastSequence = -1;
+        size = -1;
+        knownLength = -1;
+    }
+
+    /**
+     * Blocks until the records appended so far are on disk. Appends from other
+     * threads that arrive within the group commit window share the same sync.
+     * Must not be called while holding a lock that other writers need.
+     *
+     * @return true if the records are on disk, false if the sync failed
+     */
+    boolean sync() {
+        return committer.awaitSync();
+    }
+
+    /**
+     * Adds the workouts in the journal to the matching users. Records with a
+     * sequence number at or below foldedSequence are skipped, since they are
+     * already in the data file. Records for unknown users are ignored.
+     *
+     * @param users          the users read from the data file
+     * @param foldedSequence the last sequence number folded into the data file
+     * @return the sequence number of the last record now included in the users
+     */
+    synchronized long replay(List<User> users, long foldedSequence) {
+        this.foldedSequence = foldedSequence;
+        if (!Files.exists(path)) {
+            lastSequence = 0;
+            size = 0;
+            knownLength = 0;
+            return foldedSequence;
+        }
+        return addRecords(users, foldedSequence, readRecords());
+    }
+
+    /**
+     * Opens the journal file as it is now, to be replayed later with
+     * {@link #replay(List, long, FileChannel)}. Trimming and clearing the journal
+     * replace or delete the file instead of changing it, so the opened file keeps
+     * its records. A fold writes the data file before it trims the journal, so a
+     * journal opened before the data file is read always has the records that
+     * data file is missing, and the two can be read without a lock.
+     *
+     * @return the opened journal file, or null if there is no journal
+     */
+    FileChannel open() {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the workouts in a journal file opened with {@link #open()} to the
+     * matching users, like {@link #replay(List, long)}. What this object knows
+     * about the journal file is left as it is, since the opened file may be older
+     * than the current one.
+     *
+     * @param users          the users read from the data file
+     * @param foldedSequence the last sequence number folded into the data file
+     * @param opened         the opened journal file, or null if there was none
+     * @return the sequence number of the last record now included in the users
+     */
+    long replay(List<User> users, long foldedSequence, FileChannel opened) {
+        if (opened == null) {
+            return foldedSequence;
+        }
+        List<Record> records;
+        try {
+            records = parseRecords(new BufferedReader(
+                    Channels.newReader(opened, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            System.err.println("Reading journal " + path + " failed");
+            records = List.of();
+        }
+        return addRecords(users, foldedSequence, records);
+    }
+
+    /**
+     * Adds the workouts in the records after foldedSequence to the matching
+     * users.
+     *
+     * @return the sequence number of the last record now included in the users
+     */
+    private static long addRecords(List<User> users, long foldedSequence,
+            List<Record> records) {
+        Map<String, User> byUsername = new HashMap<String, User>();
+        for (User user : users) {
+            byUsername.put(user.getUsername(), user);
+        }
+        long replayed = foldedSequence;
+        for (Record record : records) {
+            User user = byUsername.get(record.username);
+            if (record.sequence > foldedSequence && user != null) {
+                user.addWorkout(record.workout);
+            }
+            replayed = Math.max(replayed, record.sequence);
+        }
+        return replayed;
+    }
+
+    /**
+     * Returns the workouts in the journal that are not folded into the data file
+     * yet, by the username of the user they belong to. Used when the users of the
+     * data file are read one at a time instead of as a list.
+     *
+     * @param foldedSequence the last sequence number folded into the data file
+     * @return the workouts of every user with records after foldedSequence
+     */
+    synchronized Map<String, List<Workout>> readPending(long foldedSequence) {
+        this.foldedSequence = foldedSequence;
+        Map<String, List<Workout>> pending = new HashMap<String, List<Workout>>();
+        for (Record record : readRecords()) {
+            if (record.sequence > foldedSequence) {
+                pending.computeIfAbsent(record.username, username -> new ArrayList<Workout>())
+                        .add(record.workout);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Removes the records that have been folded into the data file, and keeps the
+     * ones appended since. Unlike {@link #clear(long)}, this can be called when
+     * records may have been appended after the data file was read. Should be
+     * called while holding the lock of the data file.
+     *
+     * @param foldedSequence the last sequence number folded into the data file
+     * @return the number of bytes the journal shrank by, or -1 if it could not be
+     *         rewritten
+     */
+    synchronized long trim(long foldedSequence) {
+        long before;
+        long after = 0;
+        List<String> kept = new ArrayList<String>();
+        try {
+            if (!Files.exists(path)) {
+                this.foldedSequence = foldedSequence;
+                return 0;
+            }
+            before = Files.size(path);
+            for (Record record : readRecords()) {
+                if (record.sequence > foldedSequence) {
+                    kept.add(gson.toJson(record));
+                }
+            }
+            if (kept.isEmpty()) {
+                Files.deleteIfExists(path);
+            } else {
+                DurableFiles.writeAtomically(path, writer -> {
+                    for (String line : kept) {
+                        writer.write(line);
+                        writer.write(System.lineSeparator());
+                    }
+                });
+                after = Files.size(path);
+            }
+        } catch (IOException e) {
+            invalidate();
+            return -1;
+        }
+        invalidate();
+        this.foldedSequence = foldedSequence;
+        return before - after;
+    }
+
+    /**
+     * Removes all records from the journal. Should be called after the records
+     * have been folded into the data file, with the sequence number that was
+     * stored in the data file.
+     *
+     * @param foldedSequence the last sequence number folded into the data file
+     * @return true if the journal was cleared, false otherwise
+     */
+    synchronized boolean clear(long foldedSequence) {
+        this.foldedSequence = foldedSequence;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+        size = 0;
+        knownLength = 0;
+        return true;
+    }
+
+    /**
+     * Forces the journal file to disk. A missing journal has been folded into
+     * the data file, which is already on disk.
+     *
+     * @return true if the journal is on disk, false otherwise
+     */
+    private boolean force() {
+        try {
+            DurableFiles.force(path);
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads every record in the journal and updates the cached size and last
+     * sequence number. A line that cannot be parsed, for example one that was
+     * only partly written before a crash, is skipped.
+     *
+     * @return the records in the journal
+     */
+    private List<Record> readRecords() {
+        List<Record> records = new ArrayList<Record>();
+        long length = 0;
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                length = Files.size(path);
+                records = parseRecords(reader);
+            } catch (IOException e) {
+                System.err.println("Reading journal " + path + " failed");
+                length = -1;
+            }
+        }
+        lastSequence = records.stream().mapToLong(record -> record.sequence).max().orElse(0);
+        size = records.size();
+        knownLength = length;
+        return records;
+    }
+
+    /**
+     * Reads the records on every line. A line that cannot be parsed is skipped.
+     *
+     * @param reader the reader of the journal file
+     * @return the records
+     * @throws IOException if the journal file can not be read
+     */
+    private List<Record> parseRecords(BufferedReader reader) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            try {
+                Record record = gson.fromJson(line, Record.class);
+                if (record != null && record.username != null && record.workout != null) {
+                    records.add(record);
+                }
+            } catch (JsonParseException e) {
+                System.err.println("Skipping broken journal record in " + path);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * One line in the journal.
+     */
+    private static class Record {
+        private long sequence;
+        private String username;
+        private Workout workout;
+
+        Record(long sequence, String username, Workout workout) {
+            this.sequence = sequence;
+            this.username = username;
+            this.workout = workout;
+        }
+    }
+}
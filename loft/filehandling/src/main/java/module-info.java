@@ -5,4 +5,6 @@ module filehandling {
 
     exports filehandling;
     opens filehandling to com.google.gson;
+
+    uses filehandling.StorageEngineProvider;
 }
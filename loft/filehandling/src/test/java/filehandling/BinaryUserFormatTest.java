@@ -0,0 +1,199 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.ModelGson;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the BinaryUserFormat class. It tests that
+ * users survive a round trip, that single users and usernames can be read
+ * without the rest, and that json files can be converted both ways.
+ */
+public class BinaryUserFormatTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testBinaryData";
+
+    private Path binaryPath = Path.of(testFileLocation + ".bin");
+    private Path jsonPath = Path.of(testFileLocation + ".json");
+    private List<User> users;
+
+    /**
+     * Sets up two users with workouts.
+     */
+    @BeforeEach
+    public void setUp() {
+        User user1 = new User("Test1", "test1", "hunter1", "test1@test1.com");
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Bench Press", new Set(5, 100), new Set(3, 110)));
+        workout.addExercise(new Exercise("Squat", new Set(5, 140)));
+        user1.addWorkout(workout);
+        Workout old = new Workout(LocalDate.of(1969, 12, 31));
+        old.addExercise(new Exercise("Bench Press", new Set(1, 300)));
+        user1.addWorkout(old);
+        User user2 = new User("Tést Ø", "test2", "hunter2", "test2@test2.com");
+        user2.addWorkout(new Workout(LocalDate.of(2024, 2, 29)));
+        users = List.of(user1, user2);
+    }
+
+    /**
+     * Deletes the test files.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(binaryPath);
+        Files.deleteIfExists(jsonPath);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users, 42, 9));
+        assertTrue(BinaryUserFormat.isBinary(binaryPath));
+        assertEquals(9, BinaryUserFormat.readVersion(binaryPath));
+
+        UsersHolder holder = BinaryUserFormat.read(binaryPath);
+        assertEquals(42, holder.getJournalSequence());
+        assertEquals(9, holder.getVersion());
+        assertEquals(users, holder.getUsers());
+        for (int i = 0; i < users.size(); i++) {
+            User expected = users.get(i);
+            User actual = holder.getUsers().get(i);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getEmail(), actual.getEmail());
+            assertEquals(expected.getWorkouts(), actual.getWorkouts());
+        }
+    }
+
+    @Test
+    public void testReadUser() throws IOException {
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users));
+        UsersHolder holder = BinaryUserFormat.readUser(binaryPath, "test2",
+                users.get(1).getPasswordHash(), true);
+        assertEquals(List.of(users.get(1)), holder.getUsers());
+        assertEquals(users.get(1).getNumberOfWorkouts(),
+                holder.getUsers().get(0).getNumberOfWorkouts());
+        assertTrue(BinaryUserFormat.readUser(binaryPath, "test2", "wrong", true)
+                .getUsers().isEmpty());
+        assertTrue(BinaryUserFormat.readUser(binaryPath, "test3", null, true)
+                .getUsers().isEmpty());
+
+        User profile = BinaryUserFormat.readUser(binaryPath, "test2", null, false)
+                .getUsers().get(0);
+        assertEquals(users.get(1).getEmail(), profile.getEmail());
+        assertEquals(0, profile.getNumberOfWorkouts(), "Only the info should be read");
+        assertEquals(List.of("test1", "test2"), BinaryUserFormat.readUsernames(binaryPath));
+    }
+
+    @Test
+    public void testConvert() throws IOException {
+        Files.writeString(jsonPath, ModelGson.PRETTY_GSON
+                .toJson(new UsersHolder(users, 7)));
+        long jsonSize = Files.size(jsonPath);
+
+        BinaryUserFormat.convertJsonToBinary(jsonPath, binaryPath);
+        assertTrue(Files.size(binaryPath) < jsonSize / 3,
+                "The binary file should be much smaller than the json file");
+        Files.delete(jsonPath);
+
+        BinaryUserFormat.convertBinaryToJson(binaryPath, jsonPath);
+        assertFalse(BinaryUserFormat.isBinary(jsonPath));
+        UsersHolder holder = StreamingUserReader.readUser(jsonPath, "test1", null);
+        assertEquals(users.get(0).getWorkouts(), holder.getUsers().get(0).getWorkouts());
+        assertEquals(7, holder.getJournalSequence());
+    }
+
+    @Test
+    public void testStoredNamesAreNotFormatted() throws IOException {
+        // Names in a json file are kept as they are, even if they are not formatted
+        String json = ModelGson.GSON.toJson(new UsersHolder(users, 7))
+                .replace("\"Bench Press\"", "\" bench  press\"")
+                .replace("\"Squat\"", "\"\"");
+        Files.writeString(jsonPath, json);
+        List<Workout> expected = ModelGson.GSON.fromJson(json, UsersHolder.class)
+                .getUsers().get(0).getWorkouts();
+
+        BinaryUserFormat.convertJsonToBinary(jsonPath, binaryPath);
+        List<Workout> actual = BinaryUserFormat.read(binaryPath).getUsers().get(0).getWorkouts();
+        assertEquals(" bench  press", actual.get(0).getExercises().get(0).getName());
+        assertEquals("", actual.get(0).getExercises().get(1).getName());
+        assertEquals(expected, actual, "Both formats should read the same names");
+    }
+
+    @Test
+    public void testReplaceAfterReading() throws IOException {
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users, 42, 9));
+        assertEquals(users, BinaryUserFormat.read(binaryPath).getUsers());
+        // The file is not held open or mapped after reading, so it can be replaced
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users.subList(0, 1), 43, 10));
+        assertEquals(users.subList(0, 1), BinaryUserFormat.read(binaryPath).getUsers());
+
+        // Only the header is read for the version and the journal sequence number
+        byte[] bytes = Files.readAllBytes(binaryPath);
+        Files.write(binaryPath, Arrays.copyOf(bytes, bytes.length - 3));
+        assertEquals(10, BinaryUserFormat.readVersion(binaryPath));
+        assertEquals(43, BinaryUserFormat.readJournalSequence(binaryPath));
+    }
+
+    @Test
+    public void testCorruptFile() throws IOException {
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users));
+        byte[] bytes = Files.readAllBytes(binaryPath);
+        Files.write(binaryPath, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> BinaryUserFormat.read(binaryPath),
+                "A truncated file should be reported as corrupt");
+
+        Files.writeString(binaryPath, "LOFT");
+        assertThrows(IOException.class, () -> BinaryUserFormat.read(binaryPath));
+        assertFalse(BinaryUserFormat.isBinary(Path.of(testFileLocation + ".missing")));
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        BinaryUserFormat.write(binaryPath, new UsersHolder(users, 4, 9));
+        byte[] bytes = Files.readAllBytes(binaryPath);
+        RecoveryReport intact = new RecoveryReport();
+        assertEquals(users, BinaryUserFormat.recover(binaryPath, intact).getUsers());
+        assertFalse(intact.isDamaged());
+
+        Files.write(binaryPath, Arrays.copyOf(bytes, bytes.length - 3));
+        RecoveryReport report = new RecoveryReport();
+        UsersHolder holder = BinaryUserFormat.recover(binaryPath, report);
+        assertEquals(List.of(users.get(0)), holder.getUsers());
+        assertEquals(users.get(0).getWorkouts(), holder.getUsers().get(0).getWorkouts());
+        assertEquals(4, holder.getJournalSequence());
+        assertEquals(9, holder.getVersion());
+        assertTrue(report.isDamaged());
+        assertEquals(1, report.getDiscardedUsers());
+        assertTrue(report.getDiscardedBytes() > 0 && report.getDiscardedBytes() < bytes.length);
+
+        // A flipped bit in the last user is caught by its checksum
+        byte[] flipped = bytes.clone();
+        flipped[flipped.length - 2] ^= 1;
+        Files.write(binaryPath, flipped);
+        assertThrows(IOException.class, () -> BinaryUserFormat.read(binaryPath));
+        RecoveryReport checksum = new RecoveryReport();
+        assertEquals(1, BinaryUserFormat.recover(binaryPath, checksum).getUsers().size());
+        assertTrue(checksum.getProblem().contains("Checksum"));
+
+        Files.write(binaryPath, Arrays.copyOf(bytes, 8));
+        RecoveryReport header = new RecoveryReport();
+        assertTrue(BinaryUserFormat.recover(binaryPath, header).getUsers().isEmpty());
+        assertEquals(8, header.getDiscardedBytes());
+    }
+}
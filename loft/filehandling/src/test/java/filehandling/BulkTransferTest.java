@@ -0,0 +1,205 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.Gson;
+import core.Exercise;
+import core.ModelGson;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the BulkTransfer class. It tests that
+ * newline-delimited json is imported into and exported from every storage mode,
+ * and that broken lines and taken usernames are skipped.
+ */
+public class BulkTransferTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testBulkData.json";
+    private static Path importFile = Path.of(System.getProperty("user.home"),
+            "testBulkImport.ndjson");
+    private static Path exportFile = Path.of(System.getProperty("user.home"),
+            "testBulkExport.ndjson");
+
+    private final Gson gson = ModelGson.GSON;
+    private LoftAccess loftAccess = new DirectLoftAccess();
+    private User existing;
+    private Workout workout1;
+    private Workout workout2;
+
+    /**
+     * Writes an import file with two new users, one taken username and a few
+     * lines that should be skipped.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        DirectLoftAccess.setFileLocation(testFileLocation);
+        cleanUp();
+        existing = new User("Existing", "existing", "hunter1", "e@e.com");
+        workout1 = new Workout(LocalDate.of(2023, 10, 1));
+        workout1.addExercise(new Exercise("Squats", new Set(5, 140)));
+        workout2 = new Workout(LocalDate.of(2023, 10, 3));
+        workout2.addExercise(new Exercise("Bench Press", new Set(8, 80), new Set(6, 85)));
+
+        User gym1 = new User("Gym One", "gym1", "pass1", "g1@g.com");
+        User gym2 = new User("Gym Two", "gym2", "pass2", "g2@g.com");
+        Files.write(importFile, List.of(
+                userLine(gym1),
+                workoutLine("gym1", workout1),
+                workoutLine("gym1", workout2),
+                "{\"username\":\"gym1\",\"work",
+                userLine(gym2),
+                workoutLine("gym1", workout1),
+                workoutLine("gym2", workout2),
+                "",
+                userLine(existing)));
+    }
+
+    /**
+     * Deletes every file the tests write.
+     */
+    @AfterEach
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(importFile);
+        Files.deleteIfExists(exportFile);
+        for (String suffix : List.of("", ".lock", ".journal")) {
+            Files.deleteIfExists(Path.of(testFileLocation + suffix));
+        }
+    }
+
+    @Test
+    public void testImportIntoDataFile() throws IOException {
+        assertTrue(loftAccess.registerUser(existing));
+        BulkTransfer.Report report = BulkTransfer.importUsers(importFile);
+
+        assertEquals(2, report.getUsers());
+        assertEquals(3, report.getWorkouts());
+        assertEquals(3, report.getSkipped(),
+                "The broken line, the misplaced workout and the taken username should be skipped");
+        assertTrue(report.getWorkoutsPerSecond() >= 0);
+        assertEquals(List.of(workout1, workout2),
+                loftAccess.getUser("gym1", "pass1").getWorkouts());
+        assertEquals(List.of(workout2), loftAccess.getUser("gym2", "pass2").getWorkouts());
+        assertNotNull(loftAccess.getUser("existing", "hunter1"),
+                "Users already in the data file should be kept");
+    }
+
+    @Test
+    public void testImportKeepsJournalWorkouts() throws IOException {
+        DirectLoftAccess.enableJournal(100);
+        try {
+            assertTrue(loftAccess.registerUser(existing));
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, existing));
+            assertTrue(Files.exists(Path.of(testFileLocation + ".journal")));
+
+            BulkTransfer.importUsers(importFile);
+            assertFalse(Files.exists(Path.of(testFileLocation + ".journal")),
+                    "The journal should be folded into the imported data file");
+            assertEquals(List.of(workout1),
+                    loftAccess.getUser("existing", "hunter1").getWorkouts());
+        } finally {
+            DirectLoftAccess.disableJournal();
+        }
+    }
+
+    @Test
+    public void testExportAndImportAgain() throws IOException {
+        BulkTransfer.importUsers(importFile);
+        BulkTransfer.Report exported = BulkTransfer.exportUsers(exportFile);
+        assertEquals(3, exported.getUsers());
+        assertEquals(3, exported.getWorkouts());
+        assertEquals(6, Files.readAllLines(exportFile).size());
+
+        Files.delete(Path.of(testFileLocation));
+        BulkTransfer.Report imported = BulkTransfer.importUsers(exportFile);
+        assertEquals(3, imported.getUsers());
+        assertEquals(0, imported.getSkipped());
+        assertEquals(List.of(workout1, workout2),
+                loftAccess.getUser("gym1", "pass1").getWorkouts());
+    }
+
+    @Test
+    public void testExportDamagedFile() throws IOException {
+        BulkTransfer.importUsers(importFile);
+        Path dataPath = Path.of(testFileLocation);
+        String json = Files.readString(dataPath);
+        Files.writeString(dataPath, json.substring(0, json.length() - 20));
+        assertThrows(IllegalStateException.class, () -> BulkTransfer.exportUsers(exportFile),
+                "Exporting a damaged data file should fail like any other read");
+    }
+
+    @Test
+    public void testShardedStorage() throws IOException {
+        DirectLoftAccess.enableShardedStorage();
+        try {
+            assertTrue(loftAccess.registerUser(existing));
+            BulkTransfer.Report report = BulkTransfer.importUsers(importFile);
+            assertEquals(2, report.getUsers());
+            assertEquals(3, report.getSkipped());
+            assertEquals(List.of(workout1, workout2),
+                    loftAccess.getUser("gym1", "pass1").getWorkouts());
+
+            assertEquals(3, BulkTransfer.exportUsers(exportFile).getUsers());
+        } finally {
+            assertTrue(DirectLoftAccess.disableShardedStorage());
+        }
+        assertTrue(loftAccess.usernameExists("gym2"));
+    }
+
+    @Test
+    public void testKeyValueStorage() throws IOException {
+        Path storePath = Path.of(testFileLocation + ".kv");
+        DirectLoftAccess.selectStorageEngine("kv");
+        try {
+            BulkTransfer.Report report = BulkTransfer.importUsers(importFile);
+            assertEquals(3, report.getUsers());
+            assertEquals(2, report.getSkipped());
+            assertEquals(List.of(workout2), loftAccess.getUser("gym2", "pass2").getWorkouts());
+
+            assertEquals(3, BulkTransfer.exportUsers(exportFile).getWorkouts());
+        } finally {
+            DirectLoftAccess.selectStorageEngine(DirectLoftAccess.FILE_STORAGE);
+            try (Stream<Path> files = Files.list(storePath)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(storePath);
+        }
+    }
+
+    @Test
+    public void testResidentCacheIsRejected() {
+        DirectLoftAccess.enableResidentCache(60_000);
+        try {
+            assertThrows(IllegalStateException.class,
+                    () -> BulkTransfer.importUsers(importFile));
+        } finally {
+            DirectLoftAccess.disableResidentCache();
+        }
+    }
+
+    private String userLine(User user) {
+        return "{\"user\":" + gson.toJson(User.withPasswordHash(user.getName(),
+                user.getUsername(), user.getPasswordHash(), user.getEmail())) + "}";
+    }
+
+    private String workoutLine(String username, Workout workout) {
+        return "{\"username\":\"" + username + "\",\"workout\":" + gson.toJson(workout) + "}";
+    }
+}
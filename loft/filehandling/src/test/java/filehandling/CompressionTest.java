@@ -0,0 +1,58 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the Compression class. It tests that
+ * compressed files are detected and read back, and that plain files are read
+ * as they are.
+ */
+public class CompressionTest {
+
+    private static Path testPath = Path.of(System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testCompressedData.json");
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(testPath);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws IOException {
+        String text = "{\"name\": \"Bench Press\"}\n".repeat(1000);
+        Compression.writeCompressed(testPath, writer -> writer.write(text));
+        assertTrue(Compression.isCompressed(testPath));
+        assertTrue(Files.size(testPath) < text.length() / 10,
+                "Repetitive json should compress well");
+        assertEquals(text, readAll());
+    }
+
+    @Test
+    public void testPlainFile() throws IOException {
+        Files.writeString(testPath, "{\"users\": []}");
+        assertFalse(Compression.isCompressed(testPath));
+        assertEquals("{\"users\": []}", readAll());
+
+        Files.writeString(testPath, "");
+        assertFalse(Compression.isCompressed(testPath), "An empty file is not compressed");
+        assertEquals("", readAll());
+    }
+
+    private static String readAll() throws IOException {
+        try (BufferedReader reader = Compression.newReader(testPath)) {
+            StringWriter text = new StringWriter();
+            reader.transferTo(text);
+            return text.toString();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package filehandling;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -7,14 +8,22 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import core.Exercise;
+import core.ModelGson;
 import core.Set;
 import core.User;
 import core.Workout;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -188,6 +197,535 @@ public class DirectLoftAccessTest {
                 "Should return false when trying to update a non-existent user");
     }
 
+    @Test
+    public void testResidentCache() throws IOException {
+        DirectLoftAccess.enableResidentCache(60_000);
+        try {
+            User user2 = new User("John Doe", "johnDoe123", "test123", "johnDoe123@gmail.com");
+            assertTrue(loftAccess.registerUser(user2));
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user2));
+            assertTrue(loftAccess.usernameExists(user2.getUsername()),
+                    "The cache should contain the new user");
+            assertEquals(1, loftAccess.getUser("johnDoe123", "test123").getNumberOfWorkouts());
+            assertNull(loftAccess.getUser("johnDoe123", "wrongPass"),
+                    "The cache should check the password");
+            assertFalse(Files.readString(Path.of(testFileLocation)).contains("johnDoe123"),
+                    "The file should not be written before the cache is flushed");
+
+            assertTrue(DirectLoftAccess.flushResidentCache());
+            assertTrue(Files.readString(Path.of(testFileLocation)).contains("johnDoe123"),
+                    "The file should contain the new user after a flush");
+        } finally {
+            DirectLoftAccess.disableResidentCache();
+        }
+        assertEquals(1, loftAccess.getUser("johnDoe123", "test123").getNumberOfWorkouts(),
+                "The workout should be in the file after the cache is disabled");
+        assertThrows(IllegalArgumentException.class,
+                () -> DirectLoftAccess.enableResidentCache(0),
+                "The flush interval must be positive");
+    }
+
+    @Test
+    public void testResidentCacheFlushDuringWrites() throws InterruptedException {
+        DirectLoftAccess.enableUsernameIndex();
+        DirectLoftAccess.enableResidentCache(1);
+        try {
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                User writer = new User("Writer", "writer" + i, "pass" + i, "w@example.com");
+                threads.add(new Thread(() -> {
+                    loftAccess.registerUser(writer);
+                    for (int j = 0; j < 50; j++) {
+                        loftAccess.writeWorkoutToUser(new Workout(), writer);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join(10_000);
+                assertFalse(thread.isAlive(), "Writes should not wait on a cache flush forever");
+            }
+            assertEquals(50, loftAccess.getUser("writer3", "pass3").getNumberOfWorkouts());
+        } finally {
+            DirectLoftAccess.disableResidentCache();
+            DirectLoftAccess.disableUsernameIndex();
+        }
+    }
+
+    @Test
+    public void testJournal() throws IOException {
+        Path journalPath = Path.of(testFileLocation + ".journal");
+        DirectLoftAccess.enableJournal(3);
+        try {
+            String fileBefore = Files.readString(Path.of(testFileLocation));
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user));
+            assertEquals(fileBefore, Files.readString(Path.of(testFileLocation)),
+                    "The data file should not be rewritten when a workout is added");
+            assertTrue(Files.exists(journalPath));
+            assertEquals(4, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts(), "Workouts in the journal should be read");
+
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertFalse(Files.exists(journalPath),
+                    "The journal should be folded into the data file at the threshold");
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user));
+        } finally {
+            DirectLoftAccess.disableJournal();
+        }
+        assertFalse(Files.exists(journalPath),
+                "Disabling the journal should fold it into the data file");
+        assertEquals(6, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+        assertThrows(IllegalArgumentException.class, () -> DirectLoftAccess.enableJournal(0),
+                "The compaction threshold must be positive");
+    }
+
+    @Test
+    public void testJournalAppendDoesNotReadDataFile() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        DirectLoftAccess.enableJournal(100);
+        try {
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            // Garbage of the same size and modification time after the version,
+            // which no read of the users survives
+            byte[] data = Files.readAllBytes(dataPath);
+            FileTime modified = Files.getLastModifiedTime(dataPath);
+            byte[] garbage = data.clone();
+            int users = new String(data, StandardCharsets.UTF_8).indexOf("\"users\"");
+            Arrays.fill(garbage, users, garbage.length, (byte) '#');
+            Files.write(dataPath, garbage);
+            Files.setLastModifiedTime(dataPath, modified);
+
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user),
+                    "The user should be checked without reading the data file");
+            assertThrows(IllegalStateException.class, () -> loftAccess.writeWorkoutToUser(
+                    workout2, new User("Test", user.getUsername(), "wrongPass", "t@t.com")),
+                    "The password should be checked without reading the data file");
+            assertArrayEquals(garbage, Files.readAllBytes(dataPath),
+                    "The data file should not be written");
+
+            Files.write(dataPath, data);
+            Files.setLastModifiedTime(dataPath, modified);
+            assertEquals(4, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts(), "The appended workouts should be in the journal");
+        } finally {
+            DirectLoftAccess.disableJournal();
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        DirectLoftAccess.enableJournal(100);
+        DirectLoftAccess.setGroupCommitWindow(50);
+        try {
+            List<Thread> threads = new ArrayList<Thread>();
+            List<Boolean> results = new ArrayList<Boolean>();
+            for (int i = 0; i < 6; i++) {
+                threads.add(new Thread(() -> {
+                    boolean saved = loftAccess.writeWorkoutToUser(new Workout(), user);
+                    synchronized (results) {
+                        results.add(saved);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(List.of(true, true, true, true, true, true), results);
+        } finally {
+            DirectLoftAccess.setGroupCommitWindow(0);
+            DirectLoftAccess.disableJournal();
+        }
+        assertEquals(8, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts(), "No workouts should be lost when appends share a sync");
+        assertThrows(IllegalArgumentException.class,
+                () -> DirectLoftAccess.setGroupCommitWindow(-1));
+    }
+
+    @Test
+    public void testWorkoutsAreLoadedLazily() {
+        User loggedIn = loftAccess.getUser(user.getUsername(), user.getPassword());
+        assertEquals(user.getEmail(), loggedIn.getEmail());
+        assertFalse(loggedIn.isWorkoutsLoaded(), "Logging in should only read the info");
+        assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+        assertEquals(3, loggedIn.getNumberOfWorkouts(),
+                "The workouts should be read when they are first needed");
+
+        DirectLoftAccess.enableShardedStorage();
+        try {
+            loggedIn = loftAccess.getUser(user.getUsername(), user.getPassword());
+            assertFalse(loggedIn.isWorkoutsLoaded());
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user));
+            assertEquals(4, loggedIn.getNumberOfWorkouts());
+        } finally {
+            DirectLoftAccess.disableShardedStorage();
+        }
+    }
+
+    @Test
+    public void testWriteWorkoutsToUser() {
+        int before = loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts();
+        assertTrue(loftAccess.writeWorkoutsToUser(List.of(workout1, workout2), user));
+        assertEquals(before + 2, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+
+        User user2 = new User("John Doe", "johnDoe123", "test123", "johnDoe123@gmail.com");
+        assertTrue(loftAccess.writeWorkoutsToUser(List.of(workout1, workout2), user2),
+                "Writing workouts should register a new user");
+        assertEquals(List.of(workout1, workout2),
+                loftAccess.getUser("johnDoe123", "test123").getWorkouts());
+        assertThrows(IllegalStateException.class, () -> loftAccess.writeWorkoutsToUser(
+                List.of(workout1), new User("a", "johnDoe123", "wrongPass", "b")));
+
+        DirectLoftAccess.enableJournal(100);
+        try {
+            assertTrue(loftAccess.writeWorkoutsToUser(List.of(workout2, workout1), user2));
+            assertEquals(List.of(workout1, workout2, workout2, workout1),
+                    loftAccess.getUser("johnDoe123", "test123").getWorkouts());
+        } finally {
+            DirectLoftAccess.disableJournal();
+        }
+
+        DirectLoftAccess.enableShardedStorage();
+        try {
+            assertTrue(loftAccess.writeWorkoutsToUser(List.of(workout1), user2));
+            assertEquals(5, loftAccess.getUser("johnDoe123", "test123").getNumberOfWorkouts());
+        } finally {
+            DirectLoftAccess.disableShardedStorage();
+        }
+    }
+
+    @Test
+    public void testGetWorkoutsInRange() {
+        Workout january = new Workout(LocalDate.of(2023, 1, 10));
+        Workout march = new Workout(LocalDate.of(2023, 3, 5));
+        assertTrue(loftAccess.writeWorkoutToUser(january, user));
+        assertTrue(loftAccess.writeWorkoutToUser(march, user));
+        LocalDate from = LocalDate.of(2023, 1, 1);
+        LocalDate to = LocalDate.of(2023, 2, 28);
+
+        assertEquals(List.of(january),
+                loftAccess.getWorkouts(user.getUsername(), user.getPassword(), from, to));
+        assertNull(loftAccess.getWorkouts(user.getUsername(), "wrongPass", from, to));
+
+        DirectLoftAccess.enableShardedStorage();
+        try {
+            assertEquals(List.of(january),
+                    loftAccess.getWorkouts(user.getUsername(), user.getPassword(), from, to));
+            assertEquals(List.of(march), loftAccess.getWorkouts(user.getUsername(),
+                    user.getPassword(), LocalDate.of(2023, 3, 1), LocalDate.of(2023, 3, 31)));
+            assertNull(loftAccess.getWorkouts("missing", "pass", from, to));
+        } finally {
+            DirectLoftAccess.disableShardedStorage();
+        }
+    }
+
+    @Test
+    public void testBackgroundCompaction() throws IOException, InterruptedException {
+        Path journalPath = Path.of(testFileLocation + ".journal");
+        DirectLoftAccess.enableJournal(1000);
+        try {
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user));
+            long journalBytes = Files.size(journalPath);
+
+            DirectLoftAccess.enableBackgroundCompaction(10, 1, 0);
+            for (int i = 0; i < 200 && DirectLoftAccess.getCompactionCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, DirectLoftAccess.getCompactionCount());
+            assertEquals(journalBytes, DirectLoftAccess.getBytesReclaimed());
+            assertTrue(DirectLoftAccess.getCompactionMillis() >= 0);
+            assertFalse(Files.exists(journalPath), "The journal should be folded");
+            assertEquals(4, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts());
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> DirectLoftAccess.enableBackgroundCompaction(10, 0, 0));
+        } finally {
+            DirectLoftAccess.disableBackgroundCompaction();
+            DirectLoftAccess.disableJournal();
+        }
+        assertEquals(0, DirectLoftAccess.getCompactionCount());
+        assertEquals(4, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+    }
+
+    @Test
+    public void testJournalWithResidentCache() throws IOException {
+        Path journalPath = Path.of(testFileLocation + ".journal");
+        DirectLoftAccess.enableJournal(100);
+        DirectLoftAccess.enableResidentCache(60_000);
+        try {
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertTrue(Files.exists(journalPath),
+                    "The journal should keep workouts that are not flushed yet");
+            assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts());
+
+            assertTrue(DirectLoftAccess.flushResidentCache());
+            assertFalse(Files.exists(journalPath), "Flushing should clear the journal");
+        } finally {
+            DirectLoftAccess.disableResidentCache();
+            DirectLoftAccess.disableJournal();
+        }
+        assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+    }
+
+    @Test
+    public void testShardedStorage() throws InterruptedException {
+        DirectLoftAccess.enableShardedStorage();
+        try {
+            assertTrue(Files.exists(Path.of(testFileLocation + ".users", "manifest.json")));
+            assertEquals(user, loftAccess.getUser(user.getUsername(), user.getPassword()),
+                    "Users in the data file should be moved to the sharded store");
+            assertNull(loftAccess.getUser(user.getUsername(), "wrongPass"));
+            assertTrue(loftAccess.usernameExists(user.getUsername()));
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                User otherUser = new User("User " + i, "user" + i, "pass" + i, i + "@test.com");
+                assertTrue(loftAccess.registerUser(otherUser));
+                threads.add(new Thread(() -> {
+                    for (int j = 0; j < 5; j++) {
+                        loftAccess.writeWorkoutToUser(new Workout(), otherUser);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals(5, loftAccess.getUser("user" + i, "pass" + i).getNumberOfWorkouts(),
+                        "No workouts should be lost when users write in parallel");
+            }
+            assertThrows(IllegalStateException.class,
+                    () -> loftAccess.writeWorkoutToUser(workout1,
+                            new User("Name", user.getUsername(), "wrongPass", "a@b.c")));
+
+            User user2 = new User("John Doe", "johnDoe123", "test123", "johnDoe123@gmail.com");
+            assertFalse(loftAccess.updateUserInfo(user, new User("a", "user0", "b", "c")),
+                    "Should not rename to an existing username");
+            assertTrue(loftAccess.updateUserInfo(user, user2));
+            assertFalse(loftAccess.usernameExists(user.getUsername()));
+            assertEquals(2, loftAccess.getUser("johnDoe123", "test123").getNumberOfWorkouts(),
+                    "The workouts should follow the user when it is renamed");
+        } finally {
+            assertTrue(DirectLoftAccess.disableShardedStorage());
+        }
+        assertFalse(Files.exists(Path.of(testFileLocation + ".users")));
+        assertEquals(5, loftAccess.getUser("user3", "pass3").getNumberOfWorkouts(),
+                "The users should be moved back to the data file");
+    }
+
+    @Test
+    public void testUsernameIndex() throws IOException {
+        Path indexPath = Path.of(testFileLocation + ".index");
+        DirectLoftAccess.enableUsernameIndex();
+        try {
+            assertTrue(loftAccess.usernameExists(user.getUsername()),
+                    "A missing index should be built from the data file");
+            assertTrue(Files.exists(indexPath));
+            assertFalse(loftAccess.usernameExists("johnDoe123"));
+
+            User user2 = new User("John Doe", "johnDoe123", "test123", "johnDoe123@gmail.com");
+            assertTrue(loftAccess.registerUser(user2));
+            assertTrue(loftAccess.usernameExists("johnDoe123"),
+                    "The index should be updated when a user is registered");
+            assertFalse(loftAccess.registerUser(user2));
+
+            Files.delete(indexPath);
+            assertTrue(loftAccess.usernameExists("johnDoe123"),
+                    "A deleted index should be rebuilt");
+        } finally {
+            assertTrue(DirectLoftAccess.disableUsernameIndex());
+        }
+        assertFalse(Files.exists(indexPath), "Disabling the index should delete it");
+    }
+
+    @Test
+    public void testBinaryFormat() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        long jsonSize = Files.size(dataPath);
+        try {
+            assertTrue(DirectLoftAccess.enableBinaryFormat());
+            assertTrue(BinaryUserFormat.isBinary(dataPath),
+                    "The json data file should be converted right away");
+            assertTrue(Files.size(dataPath) < jsonSize);
+
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertTrue(BinaryUserFormat.isBinary(dataPath));
+            User savedUser = loftAccess.getUser(user.getUsername(), user.getPassword());
+            assertEquals(3, savedUser.getNumberOfWorkouts());
+            assertTrue(loftAccess.usernameExists(user.getUsername()));
+            assertFalse(loftAccess.usernameExists("johnDoe123"));
+        } finally {
+            assertTrue(DirectLoftAccess.disableBinaryFormat());
+        }
+        assertFalse(BinaryUserFormat.isBinary(dataPath),
+                "Disabling the binary format should convert the file back to json");
+        assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        long plainSize = Files.size(dataPath);
+        try {
+            assertTrue(DirectLoftAccess.enableCompression());
+            assertTrue(Compression.isCompressed(dataPath),
+                    "The data file should be compressed right away");
+            assertTrue(Files.size(dataPath) < plainSize);
+
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertTrue(Compression.isCompressed(dataPath));
+            assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts());
+            assertTrue(loftAccess.usernameExists(user.getUsername()));
+        } finally {
+            assertTrue(DirectLoftAccess.disableCompression());
+        }
+        assertFalse(Compression.isCompressed(dataPath),
+                "Disabling compression should write plain json again");
+        assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+    }
+
+    @Test
+    public void testKeyValueStorage() throws IOException {
+        Path storePath = Path.of(testFileLocation + ".kv");
+        DirectLoftAccess.selectStorageEngine("kv");
+        try {
+            assertTrue(Files.isDirectory(storePath));
+            assertFalse(loftAccess.usernameExists(user.getUsername()),
+                    "The engine should not see users in the data file");
+            assertTrue(loftAccess.registerUser(user));
+            assertFalse(loftAccess.registerUser(user));
+            assertTrue(loftAccess.writeWorkoutToUser(workout1, user));
+            assertEquals(3, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts(), "Workouts of the registered user should be kept");
+            assertNull(loftAccess.getUser(user.getUsername(), "wrongPass"));
+            assertThrows(IllegalStateException.class,
+                    () -> loftAccess.writeWorkoutToUser(workout1,
+                            new User("Name", user.getUsername(), "wrongPass", "a@b.c")));
+
+            User user2 = new User("John Doe", "johnDoe123", "test123", "johnDoe123@gmail.com");
+            assertTrue(loftAccess.writeWorkoutToUser(workout2, user2),
+                    "Writing a workout should register a new user");
+            assertFalse(loftAccess.updateUserInfo(user, new User("a", "johnDoe123", "b", "c")));
+            User renamed = new User("Tester", "renamed", "newPass", "r@r.com");
+            assertTrue(loftAccess.updateUserInfo(user, renamed));
+            assertEquals(3, loftAccess.getUser("renamed", "newPass").getNumberOfWorkouts());
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> DirectLoftAccess.selectStorageEngine("missing"));
+        } finally {
+            DirectLoftAccess.selectStorageEngine(DirectLoftAccess.FILE_STORAGE);
+            try (Stream<Path> files = Files.list(storePath)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(storePath);
+        }
+        assertTrue(loftAccess.usernameExists(user.getUsername()),
+                "Selecting the file should use the data file again");
+    }
+
+    @Test
+    public void testConflictingWriteIsReapplied() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        long version = StreamingUserReader.readVersion(dataPath);
+        assertTrue(version > 0, "Every write should give the data file a version");
+        long conflicts = DirectLoftAccess.getConflictCount();
+        User other = new User("Other", "other", "otherPass", "other@example.com");
+        User added = new User("Added", "added", "addedPass", "added@example.com");
+        int[] applied = {0};
+
+        assertTrue(DirectLoftAccess.changeUsers(users -> {
+            if (applied[0]++ == 0) {
+                // Another process writes the file after the users were read
+                List<User> otherUsers = new ArrayList<User>(users);
+                otherUsers.add(other);
+                try {
+                    DurableFiles.writeAtomically(dataPath, writer -> ModelGson.GSON.toJson(
+                            new UsersHolder(otherUsers, 0, version + 5), writer));
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            users.add(added);
+            return true;
+        }));
+
+        assertEquals(2, applied[0], "The change should be applied to the new users");
+        assertEquals(conflicts + 1, DirectLoftAccess.getConflictCount());
+        assertEquals(version + 6, StreamingUserReader.readVersion(dataPath));
+        assertTrue(loftAccess.usernameExists("other"), "The other write should be kept");
+        assertTrue(loftAccess.usernameExists("added"));
+        assertEquals(2, loftAccess.getUser(user.getUsername(), user.getPassword())
+                .getNumberOfWorkouts());
+    }
+
+    @Test
+    public void testWriteFailsWithoutLock() throws IOException {
+        Path lockPath = Path.of(testFileLocation + ".lock");
+        Files.deleteIfExists(lockPath);
+        // A directory can not be opened as the lock file
+        Files.createDirectory(lockPath);
+        String fileBefore = Files.readString(Path.of(testFileLocation));
+        assertFalse(loftAccess.registerUser(
+                new User("Other", "other", "otherPass", "other@example.com")),
+                "Writing should fail when the data file can not be locked");
+        assertFalse(loftAccess.writeWorkoutToUser(workout1, user));
+        assertEquals(fileBefore, Files.readString(Path.of(testFileLocation)));
+    }
+
+    @Test
+    public void testExerciseIndex() {
+        assertThrows(IllegalStateException.class,
+                () -> DirectLoftAccess.findExerciseRecords("Squats"));
+        DirectLoftAccess.enableExerciseIndex();
+        try {
+            assertEquals(1, DirectLoftAccess.findExerciseRecords(" squats ").size(),
+                    "The index should be built from the users already in the store");
+
+            Workout heavy = new Workout(LocalDate.of(2023, 10, 1));
+            heavy.addExercise(new Exercise("Squats", new Set(1, 500)));
+            assertTrue(loftAccess.writeWorkoutToUser(heavy, user));
+            ExerciseRecord best = DirectLoftAccess.findExerciseRecords("Squats").get(0);
+            assertEquals(new Set(1, 500), best.getBestSet());
+            assertEquals(user.getUsername(), best.getUsername());
+
+            User newcomer = new User("New", "newcomer", "newPass", "new@example.com");
+            newcomer.addWorkout(workout2);
+            assertTrue(loftAccess.writeWorkoutToUser(heavy, newcomer));
+            assertEquals(2, DirectLoftAccess.getExercisePopularity().get("deadlifts"),
+                    "The workouts of a registered user should be indexed");
+
+            User renamed = new User("New", "renamed", "newPass", "new@example.com");
+            assertTrue(loftAccess.updateUserInfo(newcomer, renamed));
+            assertTrue(DirectLoftAccess.findExerciseRecords("deadlifts").stream()
+                    .anyMatch(record -> record.getUsername().equals("renamed")));
+            assertTrue(Files.exists(Path.of(testFileLocation + ".exercises")));
+        } finally {
+            assertTrue(DirectLoftAccess.disableExerciseIndex());
+        }
+        assertFalse(Files.exists(Path.of(testFileLocation + ".exercises")));
+    }
+
     /**
      * Deletes the test file if it exists.
      */
@@ -196,8 +734,78 @@ public class DirectLoftAccessTest {
             if ((new File(testFileLocation)).exists()) {
                 Files.delete(Path.of(testFileLocation));
             }
+            Files.deleteIfExists(Path.of(testFileLocation + ".lock"));
         } catch (IOException e) {
             System.err.println("Error deleting file");
         }
     }
+
+    @Test
+    public void testRecoverDataFile() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        Path damagedPath = Path.of(testFileLocation + ".damaged");
+        try {
+            assertFalse(DirectLoftAccess.recoverDataFile().isDamaged());
+            User other = new User("Other", "other", "otherPass", "other@example.com");
+            assertTrue(loftAccess.registerUser(other));
+
+            String json = Files.readString(dataPath);
+            Files.writeString(dataPath, json.substring(0, json.indexOf("other@example.com")));
+            RecoveryReport report = DirectLoftAccess.recoverDataFile();
+            assertTrue(report.isDamaged());
+            assertTrue(report.isRepaired());
+            assertEquals(1, report.getRecoveredUsers());
+            assertTrue(Files.exists(damagedPath), "A copy of the damaged file should be kept");
+
+            assertEquals(2, loftAccess.getUser(user.getUsername(), user.getPassword())
+                    .getNumberOfWorkouts());
+            assertFalse(loftAccess.usernameExists("other"));
+            assertFalse(DirectLoftAccess.recoverDataFile().isDamaged());
+
+            // A damaged file fails reads and writes until it is recovered
+            User second = new User("Second", "second", "secondPass", "second@example.com");
+            assertTrue(loftAccess.registerUser(second));
+            json = Files.readString(dataPath);
+            // Cut inside the last user, so the first user is still complete
+            String cut = json.substring(0, json.length() - 20);
+            Files.writeString(dataPath, cut);
+            assertThrows(IllegalStateException.class, () -> loftAccess.registerUser(other),
+                    "Writing to a damaged file should fail");
+            assertThrows(IllegalStateException.class, () -> loftAccess.usernameExists("other"),
+                    "Reading past the damage should fail");
+            assertEquals(cut, Files.readString(dataPath),
+                    "The damaged file should not be rewritten with the users before the damage");
+            report = DirectLoftAccess.recoverDataFile();
+            assertTrue(report.isRepaired());
+            assertEquals(1, report.getRecoveredUsers());
+            assertTrue(loftAccess.registerUser(other));
+            assertTrue(loftAccess.usernameExists(user.getUsername()));
+            assertFalse(loftAccess.usernameExists("second"));
+        } finally {
+            Files.deleteIfExists(damagedPath);
+        }
+    }
+
+    @Test
+    public void testRecoverDataFileIfDamaged() throws IOException {
+        Path dataPath = Path.of(testFileLocation);
+        Path damagedPath = Path.of(testFileLocation + ".damaged");
+        try {
+            User other = new User("Other", "other", "otherPass", "other@example.com");
+            assertTrue(loftAccess.registerUser(other));
+            String json = Files.readString(dataPath);
+            assertFalse(DirectLoftAccess.recoverDataFileIfDamaged().isDamaged());
+            assertEquals(json, Files.readString(dataPath),
+                    "An intact data file should not be rewritten");
+            assertFalse(Files.exists(damagedPath));
+
+            Files.writeString(dataPath, json.substring(0, json.length() - 20));
+            RecoveryReport report = DirectLoftAccess.recoverDataFileIfDamaged();
+            assertTrue(report.isDamaged());
+            assertTrue(report.isRepaired());
+            assertTrue(loftAccess.usernameExists(user.getUsername()));
+        } finally {
+            Files.deleteIfExists(damagedPath);
+        }
+    }
 }
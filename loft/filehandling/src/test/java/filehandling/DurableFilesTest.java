@@ -0,0 +1,89 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the DurableFiles class. It tests that a
+ * file is replaced completely, and that a failed write leaves the old file and
+ * no temporary files behind.
+ */
+public class DurableFilesTest {
+
+    private Path directory;
+    private Path target;
+
+    /**
+     * Creates an empty directory for the test files.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("durableFilesTest");
+        target = directory.resolve("data.json");
+    }
+
+    /**
+     * Deletes the test files and the directory.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testWriteAtomically() throws IOException {
+        DurableFiles.writeAtomically(target, writer -> writer.write("first"));
+        assertEquals("first", Files.readString(target));
+        DurableFiles.writeAtomically(target, writer -> writer.write("second"));
+        assertEquals("second", Files.readString(target));
+        assertEquals(1, countFiles(), "No temporary files should be left behind");
+    }
+
+    @Test
+    public void testFailedWriteKeepsOldFile() throws IOException {
+        DurableFiles.writeAtomically(target, writer -> writer.write("old"));
+        assertThrows(IOException.class, () -> DurableFiles.writeAtomically(target, writer -> {
+            writer.write("half");
+            throw new IOException("Crash while writing");
+        }));
+        assertEquals("old", Files.readString(target));
+        assertEquals(1, countFiles(), "No temporary files should be left behind");
+    }
+
+    @Test
+    public void testWriteTemporaryThenReplace() throws IOException {
+        DurableFiles.writeAtomically(target, writer -> writer.write("old"));
+        Path temp = DurableFiles.writeTemporary(target,
+                DurableFiles.utf8(writer -> writer.write("new")));
+        assertEquals("old", Files.readString(target),
+                "The target should not change before the temporary file replaces it");
+        DurableFiles.replace(temp, target);
+        assertEquals("new", Files.readString(target));
+        assertEquals(1, countFiles(), "The temporary file should be renamed");
+    }
+
+    @Test
+    public void testMissingDirectory() {
+        assertThrows(IOException.class, () -> DurableFiles.writeAtomically(
+                directory.resolve("missing").resolve("data.json"), writer -> writer.write("x")));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
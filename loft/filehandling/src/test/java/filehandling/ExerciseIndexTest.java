@@ -0,0 +1,147 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the ExerciseIndex class. It tests that the
+ * best set is kept for every exercise, user and date, that the index survives a
+ * restart, and that it is rebuilt from the users in a store.
+ */
+public class ExerciseIndexTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testExerciseData.json";
+
+    private ExerciseIndex index;
+    private User user1;
+    private User user2;
+    private Workout workout1;
+    private Workout workout2;
+
+    /**
+     * Creates two users with workouts and an index built from them.
+     */
+    @BeforeEach
+    public void setUp() {
+        workout1 = new Workout(LocalDate.of(2023, 10, 1));
+        workout1.addExercise(new Exercise("Bench Press", new Set(8, 80), new Set(5, 90)));
+        workout1.addExercise(new Exercise("Squats", new Set(5, 140)));
+        workout2 = new Workout(LocalDate.of(2023, 10, 3));
+        workout2.addExercise(new Exercise("bench   PRESS", new Set(3, 100)));
+
+        user1 = new User("Test1", "test1", "hunter1", "test1@test1.com");
+        user1.addWorkout(workout1);
+        user2 = new User("Test2", "test2", "hunter2", "test2@test2.com");
+        user2.addWorkout(workout2);
+
+        index = new ExerciseIndex(testFileLocation, this::forEachUser);
+        index.delete();
+        assertFalse(index.load(), "A missing index file should have to be rebuilt");
+        assertTrue(index.rebuild());
+    }
+
+    private void forEachUser(StreamingUserReader.UserAction action) throws IOException {
+        action.accept(user1);
+        action.accept(user2);
+    }
+
+    /**
+     * Deletes the index file.
+     */
+    @AfterEach
+    public void tearDown() {
+        index.delete();
+    }
+
+    @Test
+    public void testFind() {
+        List<ExerciseRecord> records = index.find("Bench Press");
+        assertEquals(List.of(
+                new ExerciseRecord("bench press", "test2", workout2.getDate(), new Set(3, 100)),
+                new ExerciseRecord("bench press", "test1", workout1.getDate(), new Set(5, 90))),
+                records, "Names differing in case and spacing should share records");
+        assertEquals(List.of(), index.find("Deadlifts"));
+    }
+
+    @Test
+    public void testAddKeepsBestSet() {
+        Workout sameDay = new Workout(LocalDate.of(2023, 10, 1));
+        sameDay.addExercise(new Exercise("Squats", new Set(3, 130), new Set(6, 140)));
+        index.add("test1", List.of(sameDay));
+        index.add("test1", List.of(sameDay));
+        assertEquals(List.of(new ExerciseRecord("squats", "test1", LocalDate.of(2023, 10, 1),
+                new Set(6, 140))), index.find("squats"));
+
+        Workout worse = new Workout(LocalDate.of(2023, 10, 1));
+        worse.addExercise(new Exercise("Squats", new Set(10, 100)));
+        index.add("test1", List.of(worse));
+        assertEquals(new Set(6, 140), index.find("squats").get(0).getBestSet());
+    }
+
+    @Test
+    public void testPersisted() throws IOException {
+        Workout later = new Workout(LocalDate.of(2023, 10, 8));
+        later.addExercise(new Exercise("Deadlifts", new Set(5, 180)));
+        index.add("test2", List.of(later));
+        Files.writeString(index.getPath(), "deadlifts test2 2023-10-", StandardOpenOption.APPEND);
+
+        ExerciseIndex reopened = new ExerciseIndex(testFileLocation, this::forEachUser);
+        assertTrue(reopened.load());
+        assertEquals(index.find("bench press"), reopened.find("bench press"));
+        assertEquals(1, reopened.find("deadlifts").size(),
+                "A line cut short should be skipped");
+    }
+
+    @Test
+    public void testRename() {
+        index.rename("test1", "renamed");
+        assertEquals("renamed", index.find("squats").get(0).getUsername());
+
+        ExerciseIndex reopened = new ExerciseIndex(testFileLocation, this::forEachUser);
+        assertTrue(reopened.load());
+        assertEquals("renamed", reopened.find("squats").get(0).getUsername());
+    }
+
+    @Test
+    public void testLookupAfterDelete() {
+        assertTrue(index.delete());
+        assertEquals(2, index.find("bench press").size(),
+                "A lookup after the index was deleted should rebuild it");
+        assertTrue(index.delete());
+        assertEquals(Map.of("bench press", 2, "squats", 1), index.countUsers());
+        assertTrue(Files.exists(index.getPath()));
+
+        ExerciseIndex broken = new ExerciseIndex(testFileLocation, action -> {
+            throw new IOException("The store can not be read");
+        });
+        broken.delete();
+        assertThrows(IllegalStateException.class, () -> broken.find("bench press"));
+    }
+
+    @Test
+    public void testCountUsers() {
+        Workout another = new Workout(LocalDate.of(2023, 10, 5));
+        another.addExercise(new Exercise("Bench Press", new Set(5, 85)));
+        another.addExercise(new Exercise("Rows"));
+        index.add("test1", List.of(another));
+        assertEquals(Map.of("bench press", 2, "squats", 1), index.countUsers(),
+                "Exercises without sets should not be counted");
+    }
+}
@@ -0,0 +1,80 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the FileStoreLock class. It tests that the
+ * lock file is created, that the lock is reentrant, that the action fails
+ * without the lock and that threads wait for each other.
+ */
+public class FileStoreLockTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testLockData.json";
+
+    /**
+     * Deletes the lock file.
+     */
+    @AfterEach
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(Path.of(testFileLocation + ".lock"));
+    }
+
+    @Test
+    public void testLockFileIsCreated() {
+        FileStoreLock lock = new FileStoreLock(testFileLocation);
+        assertEquals(testFileLocation, lock.getLocation());
+        assertTrue(lock.withLock(() -> Files.exists(Path.of(testFileLocation + ".lock"))));
+    }
+
+    @Test
+    public void testLockIsReentrant() {
+        FileStoreLock lock = new FileStoreLock(testFileLocation);
+        assertEquals("inner", lock.withLock(() -> lock.withLock(() -> "inner")));
+    }
+
+    @Test
+    public void testFailsWithoutLock() throws IOException {
+        Files.createDirectory(Path.of(testFileLocation + ".lock"));
+        FileStoreLock lock = new FileStoreLock(testFileLocation);
+        boolean[] ran = {false};
+        assertThrows(UncheckedIOException.class, () -> lock.withLock(() -> ran[0] = true),
+                "A lock file that can not be opened should fail the action");
+        assertFalse(ran[0], "The action should not run without the lock");
+    }
+
+    @Test
+    public void testThreadsWaitForEachOther() throws InterruptedException {
+        FileStoreLock lock = new FileStoreLock(testFileLocation);
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    lock.withLock(() -> {
+                        maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                        Thread.yield();
+                        return holders.decrementAndGet();
+                    });
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, maxHolders.get(), "Only one thread should hold the lock at a time");
+    }
+}
@@ -0,0 +1,67 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the GroupCommitter class. It tests that
+ * writers arriving within the window share one sync, and that a failed sync is
+ * reported to the writers it covered.
+ */
+public class GroupCommitterTest {
+
+    @Test
+    public void testSyncRightAway() {
+        AtomicInteger syncs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(() -> syncs.incrementAndGet() > 0, 0);
+        assertTrue(committer.awaitSync());
+        assertTrue(committer.awaitSync());
+        assertEquals(2, syncs.get(), "Writers that do not overlap should sync on their own");
+        assertEquals(2, committer.getSyncCount());
+    }
+
+    @Test
+    public void testConcurrentWritersShareSync() throws InterruptedException {
+        AtomicInteger syncs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(() -> syncs.incrementAndGet() > 0, 200);
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                if (committer.awaitSync()) {
+                    succeeded.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, succeeded.get());
+        assertTrue(syncs.get() < 8, "Writers within the window should share a sync");
+    }
+
+    @Test
+    public void testFailedSync() {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        GroupCommitter committer = new GroupCommitter(() -> !fail.get(), 0);
+        assertFalse(committer.awaitSync());
+        fail.set(false);
+        assertTrue(committer.awaitSync(), "A later sync should be tried again");
+    }
+
+    @Test
+    public void testNegativeWindow() {
+        assertThrows(IllegalArgumentException.class, () -> new GroupCommitter(() -> true, -1));
+    }
+}
@@ -0,0 +1,109 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the JournalCompactor class. It tests that
+ * the journal is folded by size and by age, and that the folds are recorded.
+ */
+public class JournalCompactorTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testCompactorData.json";
+    private static Path journalPath = Path.of(testFileLocation + ".journal");
+
+    private AtomicInteger folds;
+    private JournalCompactor compactor;
+
+    /**
+     * Writes a journal of 100 bytes.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        Files.writeString(journalPath, "x".repeat(100));
+        folds = new AtomicInteger();
+    }
+
+    /**
+     * Stops the compactor and deletes the journal.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (compactor != null) {
+            compactor.close();
+        }
+        Files.deleteIfExists(journalPath);
+    }
+
+    private long fold() {
+        folds.incrementAndGet();
+        try {
+            long size = Files.size(journalPath);
+            Files.delete(journalPath);
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Test
+    public void testFoldBySize() {
+        compactor = new JournalCompactor(testFileLocation, 60_000, 200, 0, this::fold);
+        assertFalse(compactor.check(), "A small journal should not be folded");
+        assertEquals(0, folds.get());
+
+        compactor = new JournalCompactor(testFileLocation, 60_000, 100, 0, this::fold);
+        assertTrue(compactor.check());
+        assertEquals(1, compactor.getCompactionCount());
+        assertEquals(100, compactor.getBytesReclaimed());
+        assertFalse(compactor.check(), "An empty journal should not be folded");
+        assertEquals(1, folds.get());
+    }
+
+    @Test
+    public void testFoldByAge() throws InterruptedException {
+        compactor = new JournalCompactor(testFileLocation, 60_000, 0, 50, this::fold);
+        assertFalse(compactor.check(), "A new journal should not be folded");
+        Thread.sleep(60);
+        assertTrue(compactor.check(), "An old journal should be folded");
+        assertEquals(1, compactor.getCompactionCount());
+    }
+
+    @Test
+    public void testFoldInBackground() throws InterruptedException {
+        compactor = new JournalCompactor(testFileLocation, 10, 1, 0, this::fold);
+        for (int i = 0; i < 200 && compactor.getCompactionCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, compactor.getCompactionCount());
+        assertFalse(Files.exists(journalPath));
+    }
+
+    @Test
+    public void testFailedFoldIsNotRecorded() {
+        compactor = new JournalCompactor(testFileLocation, 60_000, 1, 0, () -> -1);
+        assertFalse(compactor.compact());
+        assertEquals(0, compactor.getCompactionCount());
+    }
+
+    @Test
+    public void testInvalidThresholds() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new JournalCompactor(testFileLocation, 0, 1, 0, this::fold));
+        assertThrows(IllegalArgumentException.class,
+                () -> new JournalCompactor(testFileLocation, 10, 0, 0, this::fold));
+        assertThrows(IllegalArgumentException.class,
+                () -> new JournalCompactor(testFileLocation, 10, -1, 10, this::fold));
+    }
+}
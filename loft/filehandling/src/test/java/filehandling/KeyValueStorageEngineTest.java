@@ -0,0 +1,131 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the KeyValueStorageEngine class. It tests
+ * adding users and workouts, renaming users, and reopening the engine.
+ */
+public class KeyValueStorageEngineTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testKeyValueData.json";
+
+    private KeyValueStorageEngine engine;
+    private User user;
+    private Workout workout;
+
+    /**
+     * Opens an empty engine and sets up a user and a workout.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        deleteStore();
+        engine = new KeyValueStorageEngine(testFileLocation);
+        user = new User("Test1", "test1", "hunter1", "test1@test1.com");
+        workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Bench Press", new Set(5, 100)));
+    }
+
+    /**
+     * Closes the engine and deletes its files.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        engine.close();
+        deleteStore();
+    }
+
+    @Test
+    public void testInsertAndRead() {
+        user.addWorkout(workout);
+        assertTrue(engine.insertUser(user));
+        assertFalse(engine.insertUser(user), "A username can only be added once");
+        assertTrue(engine.containsUsername("test1"));
+        assertFalse(engine.containsUsername("test2"));
+
+        User saved = engine.readUser("test1", true);
+        assertEquals(user, saved);
+        assertEquals("Test1", saved.getName());
+        assertEquals(List.of(workout), saved.getWorkouts());
+        assertEquals(0, engine.readUser("test1", false).getNumberOfWorkouts());
+        assertEquals(List.of("test1"), engine.readUsernames());
+        assertNull(engine.readUser("test2", true));
+    }
+
+    @Test
+    public void testAddWorkout() throws IOException {
+        assertFalse(engine.addWorkout("test1", workout), "The user must exist");
+        assertTrue(engine.insertUser(user));
+        Workout second = new Workout(LocalDate.of(2023, 10, 2));
+        assertTrue(engine.addWorkout("test1", workout));
+        assertTrue(engine.addWorkout("test1", second));
+
+        engine.close();
+        engine = new KeyValueStorageEngine(testFileLocation);
+        assertEquals(List.of(workout, second), engine.readUser("test1", true).getWorkouts(),
+                "Workouts should be read back in the order they were added");
+    }
+
+    @Test
+    public void testAddWorkouts() {
+        Workout second = new Workout(LocalDate.of(2023, 10, 2));
+        assertFalse(engine.addWorkouts("test1", List.of(workout, second)), "The user must exist");
+        assertTrue(engine.insertUser(user));
+        assertTrue(engine.addWorkouts("test1", List.of(workout, second)));
+        assertTrue(engine.addWorkout("test1", workout));
+        assertEquals(List.of(workout, second, workout),
+                engine.readUser("test1", true).getWorkouts());
+    }
+
+    @Test
+    public void testUpdateUser() {
+        assertTrue(engine.insertUser(user));
+        assertTrue(engine.addWorkout("test1", workout));
+        // A username that starts with the other one must not share its workouts
+        assertTrue(engine.insertUser(new User("Other", "test1/x", "pass", "o@o.com")));
+
+        User renamed = new User("New Name", "test2", "hunter2", "test2@test2.com");
+        assertTrue(engine.updateUser("test1", renamed));
+        assertFalse(engine.containsUsername("test1"));
+        User saved = engine.readUser("test2", true);
+        assertEquals("New Name", saved.getName());
+        assertEquals(renamed.getPasswordHash(), saved.getPasswordHash());
+        assertEquals(List.of(workout), saved.getWorkouts(), "Workouts should follow the user");
+        assertEquals(0, engine.readUser("test1/x", true).getNumberOfWorkouts());
+
+        assertFalse(engine.updateUser("test2", new User("a", "test1/x", "b", "c")),
+                "A user can not take a username that is taken");
+        assertFalse(engine.updateUser("missing", renamed));
+    }
+
+    private static void deleteStore() throws IOException {
+        Path directory = Path.of(testFileLocation + ".kv");
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
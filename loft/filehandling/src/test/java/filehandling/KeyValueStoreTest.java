@@ -0,0 +1,140 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the KeyValueStore class. It tests that
+ * transactions see their own changes, that rolled back and failed transactions
+ * change nothing, and that committed changes survive reopening the store.
+ */
+public class KeyValueStoreTest {
+
+    private Path directory;
+    private KeyValueStore store;
+
+    /**
+     * Opens a store in an empty directory.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("keyValueStoreTest");
+        store = new KeyValueStore(directory, 3);
+    }
+
+    /**
+     * Closes the store and deletes its files.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testTransaction() {
+        String result = store.transaction(transaction -> {
+            transaction.put("a/1", "one");
+            transaction.put("a/2", "two");
+            transaction.put("b/1", "other");
+            transaction.delete("a/2");
+            assertEquals("one", transaction.get("a/1"), "A transaction sees its own changes");
+            assertEquals(List.of("a/1"), List.copyOf(transaction.scan("a/").keySet()));
+            return "done";
+        });
+        assertEquals("done", result);
+        assertEquals("one", store.read(view -> view.get("a/1")));
+        assertNull(store.read(view -> view.get("a/2")));
+        assertEquals(List.of("b/1"), List.copyOf(store.read(view -> view.scan("b/")).keySet()));
+    }
+
+    @Test
+    public void testRollback() {
+        store.transaction(transaction -> {
+            transaction.put("key", "value");
+            transaction.rollback();
+            return null;
+        });
+        assertNull(store.read(view -> view.get("key")));
+
+        assertThrows(IllegalStateException.class, () -> store.transaction(transaction -> {
+            transaction.put("key", "value");
+            throw new IllegalStateException("Failed halfway");
+        }));
+        assertNull(store.read(view -> view.get("key")),
+                "A transaction that throws should change nothing");
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            int number = i;
+            store.transaction(transaction -> {
+                transaction.put("key" + number, "value" + number);
+                return null;
+            });
+        }
+        store.transaction(transaction -> {
+            transaction.delete("key0");
+            return null;
+        });
+        assertTrue(Files.exists(directory.resolve("snapshot.json")),
+                "A snapshot should be written at the checkpoint threshold");
+        store.close();
+
+        store = new KeyValueStore(directory, 3);
+        assertNull(store.read(view -> view.get("key0")));
+        assertEquals(4, store.read(view -> view.scan("key")).size(),
+                "Changes in both the snapshot and the log should be read");
+    }
+
+    @Test
+    public void testBrokenTransactionIsSkipped() throws IOException {
+        store.transaction(transaction -> {
+            transaction.put("key", "value");
+            return null;
+        });
+        store.close();
+        Files.writeString(directory.resolve("log.ndjson"), "{\"transaction\":2,\"chan",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        store = new KeyValueStore(directory, 3);
+        assertEquals("value", store.read(view -> view.get("key")));
+        assertFalse(store.read(view -> view.scan("")).containsKey("chan"));
+
+        store.transaction(transaction -> {
+            transaction.put("after", "value");
+            return null;
+        });
+        store.close();
+        store = new KeyValueStore(directory, 3);
+        assertEquals("value", store.read(view -> view.get("after")));
+    }
+
+    @Test
+    public void testOpenOnlyOnce() throws IOException {
+        assertThrows(IOException.class, () -> new KeyValueStore(directory, 3));
+        store.close();
+        store = new KeyValueStore(directory, 3);
+        assertNull(store.read(view -> view.get("key")));
+    }
+}
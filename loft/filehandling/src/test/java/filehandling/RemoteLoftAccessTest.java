@@ -17,7 +17,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
-import com.google.gson.Gson;
+import core.ModelGson;
 import core.User;
 import core.Workout;
 import java.net.URI;
@@ -26,6 +26,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.AfterEach;
@@ -224,6 +225,31 @@ public class RemoteLoftAccessTest {
                 "writeWorkoutToUser should return false if the server is not alive");
     }
 
+    @Test
+    public void testWriteWorkoutsToUser() {
+        List<Workout> workouts = List.of(new Workout(LocalDate.of(2020, 1, 1)),
+                new Workout(LocalDate.of(2020, 1, 2)));
+        String url = "/loft/users/username/workouts/batch?name="
+                + URLEncoder.encode(user.getName(), StandardCharsets.UTF_8)
+                + "&password=" + URLEncoder.encode(user.getPassword(), StandardCharsets.UTF_8)
+                + "&email=" + URLEncoder.encode(user.getEmail(), StandardCharsets.UTF_8);
+
+        stubFor(put(urlEqualTo(url))
+                .withHeader("Content-Type", equalTo("application/json"))
+                .withRequestBody(equalTo(ModelGson.GSON.toJson(workouts)))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("true")));
+        assertTrue(loftAccess.writeWorkoutsToUser(workouts, user),
+                "writeWorkoutsToUser should send every workout in one request");
+
+        stubFor(put(urlEqualTo(url))
+                .willReturn(aResponse()
+                        .withStatus(404)));
+        assertFalse(loftAccess.writeWorkoutsToUser(workouts, user),
+                "writeWorkoutsToUser should return false if the server returns 404");
+    }
+
     @Test
     public void testGetUser() {
         stubFor(get(urlEqualTo("/loft/users/username?password=password"))
@@ -231,7 +257,7 @@ public class RemoteLoftAccessTest {
                 .willReturn(aResponse()
                         .withStatus(200)
                         .withHeader("Content-Type", "application/json")
-                        .withBody(new Gson().toJson(user))));
+                        .withBody(ModelGson.GSON.toJson(user))));
         assertEquals(user, loftAccess.getUser(user.getUsername(), user.getPassword()),
                 "getUser should return the correct user if the server returns 200");
 
@@ -240,7 +266,7 @@ public class RemoteLoftAccessTest {
                 .willReturn(aResponse()
                         .withStatus(200)
                         .withHeader("Content-Type", "application/json")
-                        .withBody(new Gson().toJson(null))));
+                        .withBody(ModelGson.GSON.toJson(null))));
         assertNull(loftAccess.getUser(user.getUsername(), "wrongPassword"),
                 "getUser should return null if the server returns 200 but the password is wrong");
 
@@ -256,6 +282,30 @@ public class RemoteLoftAccessTest {
                 "getUser should return null if the server is not alive");
     }
 
+    @Test
+    public void testGetWorkouts() {
+        Workout workout = new Workout(LocalDate.of(2020, 1, 15));
+        String url = "/loft/users/username/workouts?password=password"
+                + "&from=2020-01-01&to=2020-01-31";
+        stubFor(get(urlEqualTo(url))
+                .withHeader("Accept", equalTo("application/json"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(ModelGson.GSON.toJson(List.of(workout)))));
+        assertEquals(List.of(workout), loftAccess.getWorkouts(user.getUsername(),
+                user.getPassword(), LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31)),
+                "getWorkouts should return the workouts the server returns");
+
+        stubFor(get(urlEqualTo(url))
+                .withHeader("Accept", equalTo("application/json"))
+                .willReturn(aResponse()
+                        .withStatus(404)));
+        assertNull(loftAccess.getWorkouts(user.getUsername(), user.getPassword(),
+                LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31)),
+                "getWorkouts should return null if the server returns 404");
+    }
+
     @Test
     public void testUsernameExists() {
         stubFor(get(urlEqualTo("/loft/check-username/username"))
@@ -0,0 +1,180 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.User;
+import core.Workout;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the ResidentUserCache class. It tests
+ * lookups by username, that changes are only written when the cache is
+ * flushed, and that readers see unchanging snapshots without waiting for a
+ * flush.
+ */
+public class ResidentUserCacheTest {
+
+    private List<User> users;
+    private List<List<User>> writes;
+    private ResidentUserCache cache;
+
+    /**
+     * Sets up a cache with two users and a writer that records every write.
+     */
+    @BeforeEach
+    public void setUp() {
+        users = new ArrayList<User>();
+        users.add(new User("Test1", "test1", "hunter1", "test1@test1.com"));
+        users.add(new User("Test2", "test2", "hunter2", "test2@test2.com"));
+        writes = new ArrayList<List<User>>();
+        cache = new ResidentUserCache("location.json", users, newUsers -> writes.add(newUsers),
+                60_000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testConstructor() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ResidentUserCache("location.json", users, newUsers -> true, 0),
+                "The flush interval must be positive");
+        assertEquals("location.json", cache.getLocation());
+        assertEquals(users, cache.getUsers());
+        assertFalse(cache.isDirty(), "A new cache should not have any changes");
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals(users.get(1), cache.getUser("test2"));
+        assertNull(cache.getUser("test3"), "There should not be any matching user");
+        assertTrue(cache.containsUsername("test1"));
+        assertFalse(cache.containsUsername("test3"));
+    }
+
+    @Test
+    public void testFlushOnlyWhenDirty() {
+        assertTrue(cache.flush());
+        assertTrue(writes.isEmpty(), "Nothing should be written when nothing has changed");
+
+        List<User> newUsers = new ArrayList<User>(users);
+        newUsers.add(new User("Test3", "test3", "hunter3", "test3@test3.com"));
+        cache.setUsers(newUsers);
+        assertTrue(cache.isDirty());
+        assertTrue(cache.containsUsername("test3"));
+        assertTrue(writes.isEmpty(), "Changes should not be written before a flush");
+
+        assertTrue(cache.close());
+        assertEquals(1, writes.size(), "Closing the cache should flush it");
+        assertEquals(newUsers, writes.get(0));
+        assertFalse(cache.isDirty());
+    }
+
+    @Test
+    public void testFailedFlushKeepsChanges() {
+        ResidentUserCache failing = new ResidentUserCache("location.json", users,
+                newUsers -> false, 60_000);
+        failing.setUsers(users);
+        assertFalse(failing.close(), "A failed write should be reported");
+        assertTrue(failing.isDirty(), "The changes should be kept after a failed write");
+    }
+
+    @Test
+    public void testSnapshotsAreNotChanged() {
+        List<User> before = cache.getUsers();
+        User user = cache.getUser("test1");
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        assertTrue(cache.addWorkout("test1", workout, () -> true));
+        assertEquals(0, user.getNumberOfWorkouts(),
+                "A user handed out before the change should not get the workout");
+        assertEquals(1, cache.getUser("test1").getNumberOfWorkouts());
+        assertSame(before.get(1), cache.getUser("test2"),
+                "Users that did not change should be shared between snapshots");
+        assertFalse(cache.addWorkout("test3", workout, () -> true));
+        assertFalse(cache.addWorkout("test2", workout, () -> false),
+                "A failed record action should cancel the workout");
+        assertEquals(0, cache.getUser("test2").getNumberOfWorkouts());
+
+        List<User> copies = cache.copyUsers();
+        assertEquals(cache.getUsers(), copies);
+        assertNotSame(cache.getUser("test1"), copies.get(0));
+        copies.remove(1);
+        cache.setUsers(copies);
+        assertEquals(2, before.size(), "A list handed out before the change should be kept");
+        assertFalse(cache.containsUsername("test2"));
+    }
+
+    @Test
+    public void testSingleUserChanges() {
+        User unchanged = cache.getUser("test2");
+        User user3 = new User("Test3", "test3", "hunter3", "test3@test3.com");
+        assertTrue(cache.insertUser(user3));
+        assertFalse(cache.insertUser(user3), "A taken username should not be added");
+        assertEquals(List.of("test1", "test2", "test3"), usernames());
+        assertTrue(cache.isDirty());
+
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        assertTrue(cache.addWorkouts("test1", List.of(workout)));
+        assertFalse(cache.addWorkouts("test4", List.of(workout)));
+        assertEquals(List.of("test1", "test2", "test3"), usernames(),
+                "Adding workouts should not move the user");
+
+        User renamed = new User("Test4", "test4", "hunter4", "test4@test4.com");
+        assertFalse(cache.updateUser("test1", user3), "A taken username should not be used");
+        assertFalse(cache.updateUser("test5", renamed));
+        assertTrue(cache.updateUser("test1", renamed));
+        assertEquals(List.of("test2", "test3", "test4"), usernames(),
+                "A changed user should be moved after the others");
+        assertNull(cache.getUser("test1"));
+        assertEquals(1, cache.getUser("test4").getNumberOfWorkouts(),
+                "The workouts of the old user should be kept");
+        assertSame(unchanged, cache.getUser("test2"),
+                "Users that did not change should be shared between snapshots");
+    }
+
+    private List<String> usernames() {
+        return cache.getUsers().stream().map(User::getUsername).toList();
+    }
+
+    @Test
+    public void testReadsDoNotWaitForFlush() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResidentUserCache slow = new ResidentUserCache("location.json", users, newUsers -> {
+            writing.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }, 60_000);
+        slow.setUsers(users);
+        CompletableFuture<Boolean> flush = CompletableFuture.supplyAsync(slow::flush);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        try {
+            User user = CompletableFuture.supplyAsync(() -> slow.getUser("test1"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(users.get(0), user, "Reads should not wait for a flush");
+        } finally {
+            release.countDown();
+        }
+        assertTrue(flush.get(10, TimeUnit.SECONDS));
+        assertTrue(slow.close());
+    }
+}
@@ -0,0 +1,294 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the ShardedUserStore class. It tests
+ * adding, reading, rewriting, renaming and removing users, and that the
+ * manifest keeps track of the usernames with a log that survives a crash.
+ */
+public class ShardedUserStoreTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testShardedData.json";
+
+    private ShardedUserStore store;
+    private User user1;
+    private User user2;
+
+    /**
+     * Sets up an empty store and two users.
+     */
+    @BeforeEach
+    public void setUp() {
+        store = new ShardedUserStore(testFileLocation);
+        store.delete();
+        user1 = new User("Test1", "test1", "hunter1", "test1@test1.com");
+        user2 = new User("Test2", "../test2", "hunter2", "test2@test2.com");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.delete();
+    }
+
+    @Test
+    public void testAddAndRead() {
+        assertFalse(store.exists());
+        assertTrue(store.addUser(user1));
+        assertTrue(store.addUser(user2), "Usernames with path characters should be stored");
+        assertFalse(store.addUser(user1), "A username can only be added once");
+
+        assertTrue(store.exists());
+        assertEquals(List.of("test1", "../test2"), store.getUsernames());
+        assertEquals(user2, store.readUser("../test2"));
+        assertNull(store.readUser("test3"));
+        assertTrue(store.containsUsername("test1"));
+        assertFalse(store.containsUsername("test3"));
+        assertEquals(List.of(user1, user2), store.readUsers());
+    }
+
+    @Test
+    public void testWriteUser() {
+        store.addUser(user1);
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Squats", new Set(5, 140)));
+        user1.addWorkout(workout);
+        assertTrue(store.writeUser(user1));
+        assertEquals(workout, store.readUser("test1").getWorkouts().get(0));
+    }
+
+    @Test
+    public void testProfileWithoutWorkouts() {
+        store.addUser(user1);
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Squats", new Set(5, 140)));
+        assertTrue(store.writeWorkouts("test1", List.of(workout, workout)));
+
+        User profile = store.readProfile("test1");
+        assertEquals(user1, profile);
+        assertFalse(profile.isWorkoutsLoaded(), "The workouts should not be read yet");
+        assertEquals(2, profile.getNumberOfWorkouts());
+        assertNull(store.readProfile("test3"));
+    }
+
+    @Test
+    public void testAddWorkouts() {
+        store.addUser(user1);
+        Workout september = new Workout(LocalDate.of(2023, 9, 30));
+        Workout october = new Workout(LocalDate.of(2023, 10, 1));
+        assertTrue(store.addWorkout("test1", october));
+        assertTrue(store.addWorkouts("test1", List.of(september, october, september)));
+        assertEquals(List.of(september, september, october, october),
+                store.readWorkouts("test1"), "The workouts should be sorted by month");
+        assertTrue(Files.exists(store.getDirectory()
+                .resolve("u7465737431.workouts").resolve("2023-09.json")));
+    }
+
+    @Test
+    public void testMonthSegments() throws IOException {
+        store.addUser(user1);
+        Workout september = new Workout(LocalDate.of(2023, 9, 30));
+        Workout october = new Workout(LocalDate.of(2023, 10, 1));
+        Workout december = new Workout(LocalDate.of(2023, 12, 24));
+        assertTrue(store.addWorkout("test1", december));
+        assertTrue(store.addWorkout("test1", september));
+        assertTrue(store.addWorkout("test1", october));
+
+        Path segments = store.getDirectory().resolve("u7465737431.workouts");
+        assertTrue(Files.exists(segments.resolve("2023-09.json")));
+        assertTrue(Files.exists(segments.resolve("2023-12.json")));
+        assertEquals(List.of(september, october, december), store.readWorkouts("test1"),
+                "Workouts should be sorted by month");
+        assertEquals(List.of(october), store.readWorkouts("test1",
+                LocalDate.of(2023, 10, 1), LocalDate.of(2023, 11, 30)));
+
+        // Segments outside the range are not read, so a broken one does not matter
+        Files.writeString(segments.resolve("2023-09.json"), "not json");
+        assertEquals(List.of(december), store.readWorkouts("test1",
+                LocalDate.of(2023, 12, 1), LocalDate.of(2023, 12, 31)));
+
+        assertTrue(store.writeWorkouts("test1", List.of(october)));
+        assertFalse(Files.exists(segments.resolve("2023-12.json")),
+                "Segments of months without workouts should be deleted");
+        assertTrue(store.removeUser("test1"));
+        assertFalse(Files.exists(segments));
+    }
+
+    @Test
+    public void testDamagedSegmentIsNotOverwritten() throws IOException {
+        store.addUser(user1);
+        Workout september = new Workout(LocalDate.of(2023, 9, 30));
+        assertTrue(store.addWorkout("test1", september));
+        Path segment = store.getDirectory().resolve("u7465737431.workouts")
+                .resolve("2023-09.json");
+        Files.writeString(segment, "not json");
+
+        assertFalse(store.addWorkout("test1", september));
+        assertEquals("not json", Files.readString(segment));
+        assertThrows(UncheckedIOException.class, () -> store.readWorkouts("test1"));
+        assertFalse(store.updateUser("test1", user1));
+        assertEquals("not json", Files.readString(segment));
+        assertTrue(store.removeUser("test1"));
+    }
+
+    @Test
+    public void testRemoveUser() {
+        store.addUser(user1);
+        store.addUser(user2);
+        assertTrue(store.removeUser("test1"));
+        assertFalse(store.removeUser("test1"), "A removed user can not be removed again");
+        assertFalse(store.containsUsername("test1"));
+        assertEquals(List.of("../test2"), store.getUsernames());
+    }
+
+    @Test
+    public void testLongUsername() throws IOException {
+        User user = new User("Long", "x".repeat(300), "hunter1", "long@long.com");
+        user.addWorkout(new Workout(LocalDate.of(2023, 10, 1)));
+        assertTrue(store.addUser(user));
+        assertEquals(user, store.readUser(user.getUsername()));
+        assertEquals(1, store.readUser(user.getUsername()).getNumberOfWorkouts());
+        try (Stream<Path> files = Files.list(store.getDirectory())) {
+            files.forEach(file -> assertTrue(file.getFileName().toString().length() < 100,
+                    "Long usernames should be hashed in file names"));
+        }
+    }
+
+    @Test
+    public void testManifestLog() throws IOException {
+        store.addUser(user1);
+        store.addUser(user2);
+        Path log = store.getDirectory().resolve("manifest.log");
+        assertEquals(List.of("add test1", "add ..%2Ftest2"), Files.readAllLines(log),
+                "Adding a user should only append to the manifest");
+
+        // A line cut short by a crash is not read, and is dropped by the next append
+        Files.writeString(log, "add test", StandardOpenOption.APPEND);
+        ShardedUserStore reopened = new ShardedUserStore(testFileLocation);
+        assertEquals(List.of("test1", "../test2"), reopened.getUsernames());
+        User user3 = new User("Test3", "test3", "hunter3", "test3@test3.com");
+        assertTrue(reopened.addUser(user3));
+        assertEquals(List.of("add test1", "add ..%2Ftest2", "add test3"),
+                Files.readAllLines(log));
+        assertEquals(List.of("test1", "../test2", "test3"), store.getUsernames(),
+                "Lines appended by another store should be read");
+    }
+
+    @Test
+    public void testRenameUser() throws IOException {
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        user1.addWorkout(workout);
+        store.addUser(user1);
+        store.addUser(user2);
+        User renamed = new User("Test1", "renamed", "hunter1", "test1@test1.com");
+        renamed.addWorkout(workout);
+        assertFalse(store.renameUser("test1", user2), "A taken username can not be used");
+        assertFalse(store.renameUser("test3", renamed));
+        assertTrue(store.renameUser("test1", renamed));
+
+        assertEquals("rename test1 renamed",
+                Files.readAllLines(store.getDirectory().resolve("manifest.log")).get(2),
+                "A rename should be a single line in the manifest");
+        assertEquals(List.of("../test2", "renamed"), store.getUsernames());
+        assertNull(store.readUser("test1"));
+        assertFalse(Files.exists(store.getDirectory().resolve("u7465737431.json")));
+        assertEquals(List.of(workout), store.readUser("renamed").getWorkouts());
+    }
+
+    @Test
+    public void testCompactManifest() throws IOException {
+        store.addUser(user1);
+        List<String> usernames = new ArrayList<String>();
+        for (int i = 0; i < ShardedUserStore.MIN_COMPACT_LINES; i++) {
+            usernames.add("user" + i);
+        }
+        assertTrue(store.addUsernames(usernames));
+        assertEquals(0, Files.size(store.getDirectory().resolve("manifest.log")),
+                "A long log should be written into the snapshot");
+        assertTrue(store.removeUser("user0"));
+
+        ShardedUserStore reopened = new ShardedUserStore(testFileLocation);
+        assertEquals(ShardedUserStore.MIN_COMPACT_LINES, reopened.getUsernames().size());
+        assertEquals("test1", reopened.getUsernames().get(0));
+        assertFalse(reopened.containsUsername("user0"));
+    }
+
+    @Test
+    public void testImportAndDelete() {
+        assertTrue(store.importUsers(List.of(user1, user2)));
+        assertEquals(List.of(user1, user2), store.readUsers());
+        assertTrue(store.delete());
+        assertFalse(Files.exists(store.getDirectory()));
+    }
+
+    @Test
+    public void testInsertUsersTakesUsernames() throws IOException {
+        store.addUser(user2);
+        User other = new User("Other", "test1", "hunter3", "other@other.com");
+        Iterator<User> imported = List.of(user1, user2, other).iterator();
+        Iterator<User> users = new Iterator<User>() {
+            @Override
+            public boolean hasNext() {
+                return imported.hasNext();
+            }
+
+            @Override
+            public User next() {
+                User next = imported.next();
+                if (next == other) {
+                    // test1 is written, but not yet in the manifest
+                    assertFalse(store.addUser(other), "An imported username should be taken");
+                    assertFalse(store.renameUser("../test2", other));
+                }
+                return next;
+            }
+        };
+        BulkTransfer.Report report = new BulkTransfer.Report();
+        store.insertUsers(users, report);
+
+        assertEquals(1, report.getUsers());
+        assertEquals(2, report.getSkipped());
+        assertEquals(List.of("../test2", "test1"), store.getUsernames(),
+                "An imported user should be added to the manifest once");
+        assertEquals(user1, store.readUser("test1"));
+        assertTrue(store.removeUser("test1"));
+        assertTrue(store.addUser(other), "The username should be free after the import");
+    }
+
+    @Test
+    public void testDeleteWithOrphanFiles() throws IOException {
+        assertTrue(store.importUsers(List.of(user1, user2)));
+        // Files of users that are no longer in the manifest
+        Files.writeString(store.getDirectory().resolve("u6f6c64.json"), "{}");
+        Path segments = Files.createDirectories(store.getDirectory().resolve("u6f6c64.workouts"));
+        Files.writeString(segments.resolve("2023-10.json"), "[]");
+
+        assertTrue(store.delete());
+        assertFalse(store.exists());
+        assertFalse(Files.exists(store.getDirectory()),
+                "Files that are not in the manifest should be deleted too");
+    }
+}
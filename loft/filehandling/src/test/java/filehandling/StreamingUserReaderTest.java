@@ -0,0 +1,150 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.ModelGson;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the StreamingUserReader class. It tests
+ * that single users are found by username and password hash, and that the
+ * journal sequence number is read from the file.
+ */
+public class StreamingUserReaderTest {
+
+    private static Path testFile = Path.of(System.getProperty("user.home"),
+            "testStreamingData.json");
+
+    private User user1;
+    private User user2;
+
+    /**
+     * Writes a data file with two users to read from.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        user1 = new User("Test1", "test1", "hunter1", "test1@test1.com");
+        user2 = new User("Test2", "test2", "hunter2", "test2@test2.com");
+        Workout workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Deadlifts", new Set(3, 180), new Set(1, 200)));
+        user1.addWorkout(workout);
+        user2.addWorkout(workout);
+        Files.writeString(testFile, ModelGson.GSON.toJson(new UsersHolder(List.of(user1, user2), 12)));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(testFile);
+    }
+
+    @Test
+    public void testReadUser() throws IOException {
+        UsersHolder holder = StreamingUserReader.readUser(testFile, "test2",
+                user2.getPasswordHash());
+        assertEquals(List.of(user2), holder.getUsers());
+        assertEquals(user2.getWorkouts(), holder.getUsers().get(0).getWorkouts(),
+                "The workouts of the matching user should be read");
+        assertEquals("test2@test2.com", holder.getUsers().get(0).getEmail());
+        assertEquals(12, holder.getJournalSequence(),
+                "The journal sequence after the users should be read");
+
+        assertEquals(List.of(user1),
+                StreamingUserReader.readUser(testFile, "test1", null).getUsers(),
+                "A null password hash should accept any password");
+    }
+
+    @Test
+    public void testReadUserWithoutWorkouts() throws IOException {
+        User profile = StreamingUserReader.readUser(testFile, "test2",
+                user2.getPasswordHash(), false).getUsers().get(0);
+        assertEquals(user2, profile);
+        assertEquals("test2@test2.com", profile.getEmail());
+        assertEquals(0, profile.getNumberOfWorkouts(), "The workouts should be skipped");
+    }
+
+    @Test
+    public void testReadUserNoMatch() throws IOException {
+        assertTrue(StreamingUserReader.readUser(testFile, "test3", user1.getPasswordHash())
+                .getUsers().isEmpty(), "An unknown username should not match");
+        assertTrue(StreamingUserReader.readUser(testFile, "test1", user2.getPasswordHash())
+                .getUsers().isEmpty(), "A wrong password should not match");
+    }
+
+    @Test
+    public void testContainsUsername() throws IOException {
+        assertTrue(StreamingUserReader.containsUsername(testFile, "test1"));
+        assertTrue(StreamingUserReader.containsUsername(testFile, "test2"));
+        assertFalse(StreamingUserReader.containsUsername(testFile, "test3"));
+    }
+
+    @Test
+    public void testForEachUser() throws IOException {
+        List<User> users = new ArrayList<User>();
+        StreamingUserReader.forEachUser(testFile, users::add);
+        assertEquals(List.of(user1, user2), users);
+        assertEquals(user1.getWorkouts(), users.get(0).getWorkouts());
+        assertEquals(12, StreamingUserReader.readJournalSequence(testFile));
+
+        BinaryUserFormat.convertJsonToBinary(testFile, testFile);
+        users.clear();
+        StreamingUserReader.forEachUser(testFile, users::add);
+        assertEquals(List.of(user1, user2), users);
+        assertEquals(12, StreamingUserReader.readJournalSequence(testFile));
+    }
+
+    @Test
+    public void testHeaderIsReadWithoutUsers() throws IOException {
+        // Damaged users after the header do not matter to a header read
+        String json = Files.readString(testFile);
+        Files.writeString(testFile, json.substring(0, json.indexOf("test2")));
+        assertEquals(12, StreamingUserReader.readJournalSequence(testFile));
+        List<User> users = new ArrayList<User>();
+        assertThrows(IOException.class, () -> StreamingUserReader.forEachUser(testFile, users::add));
+    }
+
+    @Test
+    public void testEmptyAndMissingFile() throws IOException {
+        Files.writeString(testFile, "null");
+        assertFalse(StreamingUserReader.containsUsername(testFile, "test1"));
+        assertTrue(StreamingUserReader.readUser(testFile, "test1", null).getUsers().isEmpty());
+
+        Files.delete(testFile);
+        assertThrows(IOException.class,
+                () -> StreamingUserReader.containsUsername(testFile, "test1"),
+                "A missing file should be reported");
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        RecoveryReport intact = new RecoveryReport();
+        assertEquals(List.of(user1, user2),
+                StreamingUserReader.recover(testFile, intact).getUsers());
+        assertFalse(intact.isDamaged());
+
+        String json = Files.readString(testFile);
+        Files.writeString(testFile, json.substring(0, json.indexOf("test2@test2.com")));
+        RecoveryReport report = new RecoveryReport();
+        UsersHolder holder = StreamingUserReader.recover(testFile, report);
+        assertEquals(List.of(user1), holder.getUsers(),
+                "The users before the point where the file breaks off should be kept");
+        assertEquals(user1.getWorkouts(), holder.getUsers().get(0).getWorkouts());
+        assertTrue(report.isDamaged());
+        assertEquals(1, report.getRecoveredUsers());
+        assertEquals(-1, report.getDiscardedUsers(), "A json file does not know its users");
+    }
+}
@@ -0,0 +1,98 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.ModelGson;
+import core.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the UsernameIndex class. It tests that the
+ * index is built when missing, rebuilt when the data file changes, and saved
+ * in sorted order.
+ */
+public class UsernameIndexTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testIndexData.json";
+
+    private UsernameIndex index;
+
+    /**
+     * Writes a data file with two users and creates an index for it.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        writeDataFile(List.of(new User("Test2", "test2", "hunter2", "test2@test2.com"),
+                new User("Test1", "test1", "hunter1", "test1@test1.com")), 0);
+        index = new UsernameIndex(testFileLocation);
+        index.delete();
+    }
+
+    /**
+     * Deletes the data file and the index file.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        index.delete();
+        Files.deleteIfExists(Path.of(testFileLocation));
+    }
+
+    @Test
+    public void testBuildWhenMissing() throws IOException {
+        assertTrue(index.contains("test1"));
+        assertTrue(index.contains("test2"));
+        assertFalse(index.contains("test3"));
+        assertEquals(User.hash("hunter1"), index.getPasswordHash("test1"));
+        assertNull(index.getPasswordHash("test3"));
+
+        List<String> lines = Files.readAllLines(index.getPath());
+        assertEquals(List.of("test1 " + User.hash("hunter1"), "test2 " + User.hash("hunter2")),
+                lines.subList(2, lines.size()),
+                "The usernames should be saved in sorted order, with their password hashes");
+    }
+
+    @Test
+    public void testLoadFromFile() throws IOException {
+        index.update(Map.of("test1", "hash1", "test2", "hash2", "some user", "hash 3"));
+        UsernameIndex reopened = new UsernameIndex(testFileLocation);
+        assertTrue(reopened.contains("some user"),
+                "An index file that matches the data file should be used as it is");
+        assertEquals("hash 3", reopened.getPasswordHash("some user"));
+    }
+
+    @Test
+    public void testRebuildWhenStale() throws IOException {
+        assertFalse(index.contains("test3"));
+        long size = Files.size(Path.of(testFileLocation));
+        // Same size, and likely the same modification time, but a new version
+        writeDataFile(List.of(new User("Test2", "test2", "hunter2", "test2@test2.com"),
+                new User("Test3", "test3", "hunter3", "test3@test3.com")), 1);
+        assertEquals(size, Files.size(Path.of(testFileLocation)));
+
+        assertTrue(index.contains("test3"),
+                "The index should be rebuilt when the data file has a new version");
+        assertFalse(index.contains("test1"));
+    }
+
+    @Test
+    public void testMissingDataFile() throws IOException {
+        Files.delete(Path.of(testFileLocation));
+        assertFalse(index.contains("test1"), "No data file means no users");
+    }
+
+    private static void writeDataFile(List<User> users, long version) throws IOException {
+        Files.writeString(Path.of(testFileLocation),
+                ModelGson.GSON.toJson(new UsersHolder(users, 0, version)));
+    }
+}
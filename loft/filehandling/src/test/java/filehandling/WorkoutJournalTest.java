@@ -0,0 +1,191 @@
+package filehandling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import core.Exercise;
+import core.Set;
+import core.User;
+import core.Workout;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class contains unit tests for the WorkoutJournal class. It tests
+ * appending records, replaying them onto users and skipping records that are
+ * already folded into the data file.
+ */
+public class WorkoutJournalTest {
+
+    private static String testFileLocation = System.getProperty("user.home")
+            + System.getProperty("file.separator") + "testJournalData.json";
+
+    private WorkoutJournal journal;
+    private List<User> users;
+    private Workout workout;
+
+    /**
+     * Sets up an empty journal, a list of users and a workout.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        journal = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        Files.deleteIfExists(journal.getPath());
+
+        users = new ArrayList<User>();
+        users.add(new User("Test1", "test1", "hunter1", "test1@test1.com"));
+        users.add(new User("Test2", "test2", "hunter2", "test2@test2.com"));
+        workout = new Workout(LocalDate.of(2023, 10, 1));
+        workout.addExercise(new Exercise("Bench Press", new Set(5, 100)));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(journal.getPath());
+    }
+
+    @Test
+    public void testAppendAndReplay() {
+        assertEquals(0, journal.size());
+        assertTrue(journal.append("test2", workout));
+        assertTrue(journal.append("unknown", workout));
+        assertEquals(2, journal.size());
+        assertEquals(2, journal.getLastSequence());
+
+        WorkoutJournal reopened = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        reopened.replay(users, 0);
+        assertEquals(0, users.get(0).getNumberOfWorkouts());
+        assertEquals(workout, users.get(1).getWorkouts().get(0),
+                "The workout should be added to the user it was written for");
+        assertEquals(2, reopened.size());
+    }
+
+    @Test
+    public void testFoldedRecordsAreSkipped() {
+        journal.append("test1", workout);
+        journal.append("test1", workout);
+        journal.replay(users, 1);
+        assertEquals(1, users.get(0).getNumberOfWorkouts(),
+                "Records already folded into the data file should be skipped");
+    }
+
+    @Test
+    public void testSequenceContinuesAfterClear() {
+        WorkoutJournal folded = new WorkoutJournal(testFileLocation, () -> 7, 0);
+        assertEquals(7, folded.getLastSequence(),
+                "The sequence should continue from the data file");
+        folded.append("test1", workout);
+        assertEquals(8, folded.getLastSequence());
+
+        assertTrue(folded.clear(8));
+        assertFalse(Files.exists(folded.getPath()));
+        assertEquals(0, folded.size());
+        assertEquals(8, folded.getLastSequence());
+    }
+
+    @Test
+    public void testBrokenRecordIsSkipped() throws IOException {
+        journal.append("test1", workout);
+        Files.writeString(journal.getPath(), "{\"sequence\":2,\"userna",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        WorkoutJournal reopened = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        reopened.replay(users, 0);
+        assertEquals(1, users.get(0).getNumberOfWorkouts());
+        assertEquals(1, reopened.size(), "A partly written record should be skipped");
+    }
+
+    @Test
+    public void testAppendAfterPartialRecord() throws IOException {
+        journal.append("test1", workout);
+        Files.writeString(journal.getPath(), "{\"sequence\":2,\"userna",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        WorkoutJournal reopened = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        assertTrue(reopened.append("test2", workout));
+        assertTrue(reopened.append("test1", workout));
+
+        WorkoutJournal replayed = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        replayed.replay(users, 0);
+        assertEquals(2, users.get(0).getNumberOfWorkouts());
+        assertEquals(1, users.get(1).getNumberOfWorkouts(),
+                "A record appended after a partly written one should not be lost");
+        assertEquals(3, replayed.size());
+    }
+
+    @Test
+    public void testRefreshSeesAppendsFromElsewhere() {
+        journal.append("test1", workout);
+        assertEquals(1, journal.getLastSequence());
+
+        // Another process appends to the same journal
+        WorkoutJournal other = new WorkoutJournal(testFileLocation, () -> 0, 0);
+        other.append("test2", workout);
+        assertEquals(2, other.getLastSequence());
+
+        journal.refresh();
+        assertEquals(2, journal.size());
+        journal.append("test1", workout);
+        assertEquals(3, journal.getLastSequence(),
+                "The sequence should continue after the other append");
+    }
+
+    @Test
+    public void testReadPending() {
+        journal.append("test1", workout);
+        journal.append("test2", workout);
+        journal.append("test2", workout);
+        assertEquals(Map.of("test2", List.of(workout, workout)), journal.readPending(1));
+        assertTrue(journal.readPending(3).isEmpty());
+    }
+
+    @Test
+    public void testTrimKeepsNewerRecords() throws IOException {
+        journal.append("test1", workout);
+        journal.append("test1", workout);
+        journal.append("test2", workout);
+        long before = Files.size(journal.getPath());
+
+        long reclaimed = journal.trim(2);
+        assertEquals(before - Files.size(journal.getPath()), reclaimed);
+        assertEquals(1, journal.size(), "Only the record after the folded ones should be kept");
+        assertEquals(3, journal.getLastSequence());
+
+        journal.replay(users, 2);
+        assertEquals(0, users.get(0).getNumberOfWorkouts());
+        assertEquals(1, users.get(1).getNumberOfWorkouts());
+
+        long remaining = Files.size(journal.getPath());
+        assertEquals(remaining, journal.trim(3));
+        assertFalse(Files.exists(journal.getPath()), "Trimming every record should delete it");
+    }
+
+    @Test
+    public void testReplayOpenedJournal() throws IOException {
+        assertEquals(0, journal.replay(users, 0, journal.open()),
+                "There should be nothing to replay without a journal");
+        journal.append("test1", workout);
+        journal.append("test2", workout);
+        try (FileChannel opened = journal.open()) {
+            journal.trim(2);
+            journal.append("test2", workout);
+            assertEquals(2, journal.replay(users, 1, opened),
+                    "The opened journal should keep the records from before the trim");
+        }
+        assertEquals(0, users.get(0).getNumberOfWorkouts());
+        assertEquals(1, users.get(1).getNumberOfWorkouts());
+        assertEquals(1, journal.size());
+        assertEquals(3, journal.getLastSequence());
+    }
+}
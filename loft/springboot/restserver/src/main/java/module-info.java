@@ -6,6 +6,7 @@ module springboot.restserver {
     requires spring.boot.autoconfigure;
 
     requires org.slf4j;
+    requires com.google.gson;
 
     requires filehandling;
     requires core;
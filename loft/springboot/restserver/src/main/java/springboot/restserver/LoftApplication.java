@@ -1,14 +1,42 @@
 package springboot.restserver;
 
+import com.google.gson.Gson;
+import core.ModelGson;
+import filehandling.DirectLoftAccess;
+import filehandling.RecoveryReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 
 /**
  * This class is the startpoint for the springboot REST server.
  */
 @SpringBootApplication
 public class LoftApplication {
+    private static final Logger LOG = LoggerFactory.getLogger(LoftApplication.class);
+
     public static void main(String[] args) {
+        RecoveryReport report = DirectLoftAccess.recoverDataFileIfDamaged();
+        if (report.isDamaged()) {
+            LOG.warn("The data file was damaged: " + report);
+        }
+        if (Boolean.getBoolean(DirectLoftAccess.USERNAME_INDEX_PROPERTY)) {
+            DirectLoftAccess.enableUsernameIndex();
+        }
         SpringApplication.run(LoftApplication.class, args);
     }
+
+    /**
+     * Returns the Gson instance used to read and write request and response
+     * bodies. It replaces the one Spring Boot would create, so the model is
+     * serialized by the shared type adapters instead of by reflection.
+     *
+     * @return the shared Gson instance for the model
+     */
+    @Bean
+    public Gson gson() {
+        return ModelGson.GSON;
+    }
 }
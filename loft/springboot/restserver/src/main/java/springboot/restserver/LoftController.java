@@ -4,8 +4,12 @@ import core.User;
 import core.Workout;
 import filehandling.DirectLoftAccess;
 import filehandling.LoftAccess;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -15,6 +19,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * This class represents the REST controller for the Loft service.
@@ -73,6 +78,26 @@ public class LoftController {
         return access.writeWorkoutToUser(workout, user);
     }
 
+    /**
+     * Saves several workouts for a user at once.
+     *
+     * @param name     the name of the user
+     * @param username the username of the user
+     * @param password the password of the user
+     * @param email    the email of the user
+     * @param workouts the workouts to save, in order
+     */
+    @PutMapping(path = "users/{username}/workouts/batch")
+    public boolean saveWorkouts(@PathVariable String username,
+            @RequestParam String name,
+            @RequestParam String password,
+            @RequestParam String email,
+            @RequestBody List<Workout> workouts) {
+        LOG.debug("Adding " + workouts.size() + " workouts to user: " + username);
+        User user = new User(name, username, password, email);
+        return access.writeWorkoutsToUser(workouts, user);
+    }
+
     /**
      * Retrieves a user with the given username and password.
      *
@@ -88,6 +113,51 @@ public class LoftController {
         return access.getUser(username, password);
     }
 
+    /**
+     * Retrieves the workouts of a user from the first date to the last date, both
+     * included.
+     *
+     * @param username the username of the user
+     * @param password the password of the user
+     * @param from     the first date, as yyyy-mm-dd
+     * @param to       the last date, as yyyy-mm-dd
+     * @return the workouts within the dates, or null if the user does not match
+     * @throws ResponseStatusException with status 400 if a date is not a valid
+     *                                 date, or the first date is after the last
+     */
+    @GetMapping(path = "users/{username}/workouts")
+    @ResponseBody
+    public List<Workout> getWorkouts(@PathVariable String username,
+            @RequestParam String password,
+            @RequestParam String from,
+            @RequestParam String to) {
+        LOG.debug("Getting workouts of user: " + username + " from " + from + " to " + to);
+        LocalDate fromDate = parseDate("from", from);
+        LocalDate toDate = parseDate("to", to);
+        if (fromDate.isAfter(toDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The first date is after the last date");
+        }
+        return access.getWorkouts(username, password, fromDate, toDate);
+    }
+
+    /**
+     * Parses a date given as a request parameter.
+     *
+     * @param parameter the name of the parameter
+     * @param date      the date, as yyyy-mm-dd
+     * @return the date
+     * @throws ResponseStatusException with status 400 if the date is not valid
+     */
+    private static LocalDate parseDate(String parameter, String date) {
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Invalid date for " + parameter + ": " + date, e);
+        }
+    }
+
     /**
      * Checks if a username exists in the system.
      *
@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import core.ModelGson;
 import core.User;
 import core.Workout;
 import filehandling.DirectLoftAccess;
@@ -15,7 +16,9 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -37,6 +40,7 @@ import org.springframework.http.ResponseEntity;
  * - Retrieving a user
  * - Registering a user
  * - Saving a workout
+ * - Retrieving the workouts within a date range
  * - Updating a user
  */
 @SpringBootTest(classes = { LoftApplication.class, LoftController.class },
@@ -148,6 +152,47 @@ public class LoftControllerTest {
                 .getWorkouts().size(), "Should save workout with body");
     }
 
+    @Test
+    public void testSaveWorkouts() {
+        User user = new User("Foo Bar", "foobar", "foobar", "foo@bar.baz");
+        directAccess.registerUser(user);
+        String params = "name=Foo Bar&password=foobar&email=foo@bar.baz";
+
+        rest.put(getUrl() + "users/foobar/workouts/batch?" + params,
+                List.of(new Workout(), new Workout()), new HashMap<String, String>());
+        assertEquals(2, directAccess.getUser(user.getUsername(), user.getPassword())
+                .getWorkouts().size(), "Should save every workout in the body");
+    }
+
+    @Test
+    public void testGetWorkoutsInRange() {
+        User user = new User("Foo Bar", "foobar", "foobar", "foo@bar.baz");
+        directAccess.registerUser(user);
+        Workout october = new Workout(LocalDate.of(2023, 10, 15));
+        directAccess.writeWorkoutToUser(october, user);
+        directAccess.writeWorkoutToUser(new Workout(LocalDate.of(2023, 11, 1)), user);
+        String url = getUrl() + "users/foobar/workouts?password=foobar";
+
+        ResponseEntity<String> result = rest.getForEntity(
+                url + "&from=2023-10-01&to=2023-10-31", String.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(List.of(october),
+                List.of(ModelGson.GSON.fromJson(result.getBody(), Workout[].class)),
+                "Only the workouts within the dates should be returned");
+
+        checkMissingGetParam("/users/foobar/workouts?password=foobar&from=2023-10-01");
+        checkInvalidDates("from=2023-13-01&to=2023-10-31");
+        checkInvalidDates("from=yesterday&to=2023-10-31");
+        checkInvalidDates("from=2023-10-31&to=2023-10-01");
+    }
+
+    private void checkInvalidDates(String dates) {
+        ResponseEntity<String> result = rest.getForEntity(getUrl()
+                + "/users/foobar/workouts?password=foobar&" + dates, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode(),
+                "Should return 400 when the dates are malformed or out of order");
+    }
+
     @Test
     public void testUpdateUser() {
         User user = new User("Foo Bar", "foobar", "foobar", "foo@bar.baz");
@@ -1,5 +1,7 @@
 package ui;
 
+import filehandling.DirectLoftAccess;
+import filehandling.RecoveryReport;
 import java.io.IOException;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -59,6 +61,13 @@ public class App extends Application {
 
     @Override
     public void start(Stage stage) throws IOException {
+        RecoveryReport report = DirectLoftAccess.recoverDataFileIfDamaged();
+        if (report.isDamaged()) {
+            System.err.println("The data file was damaged: " + report);
+        }
+        if (Boolean.getBoolean(DirectLoftAccess.USERNAME_INDEX_PROPERTY)) {
+            DirectLoftAccess.enableUsernameIndex();
+        }
         customStart(stage, "LoginScreen.fxml", new LoginScreenController());
     }
 